@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.util.XStream2;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading a {@link OneBuildAction}, both the part stored in the build.xml of a build, which is
+ * read whenever the build is loaded, and the items stored in the sidecar file, which are only read when asked for.
+ *
+ * An XStream configured like {@link hudson.model.Run#XSTREAM} is used, with the converters of the plugin registered,
+ * so nothing but the plugin and its XStream setup is measured.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class OneBuildActionXStreamBenchmark {
+
+    @Param( { "10", "1000" } )
+    public int items;
+
+    private XStream2 xstream;
+    private OneBuildAction action;
+    private String xml;
+    private OneBuildAction.Items[] array;
+    private String itemsXml;
+
+    @Setup
+    public void setUp() {
+        xstream = new XStream2();
+        xstream.registerConverter( new OneBuildAction.Items.ConverterImpl() );
+
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( "os.arch", "amd64" );
+        facts.put( "cpus", "8" );
+        facts.put( "memory.total", "17179869184" );
+
+        action = new OneBuildAction();
+        for( int i = 0 ; i < items ; i++ ) {
+            action.addItems( "Linux", "java version \"1.6.0_45\"", "Message " + i, facts );
+        }
+        xml = xstream.toXML( action );
+        array = action.getItems().toArray( new OneBuildAction.Items[0] );
+        itemsXml = xstream.toXML( array );
+    }
+
+    @Benchmark
+    public String serialize() {
+        return xstream.toXML( action );
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return xstream.fromXML( xml );
+    }
+
+    @Benchmark
+    public String serializeItems() {
+        return xstream.toXML( array );
+    }
+
+    @Benchmark
+    public Object deserializeItems() {
+        return xstream.fromXML( itemsXml );
+    }
+}
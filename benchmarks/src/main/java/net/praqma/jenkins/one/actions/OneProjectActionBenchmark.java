@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OneProjectAction#getItems(int)} over a synthetic history, as served from a ready {@link OneHistoryIndex}.
+ *
+ * Every second build has no items, like a project where the build step is only run now and then.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class OneProjectActionBenchmark {
+
+    @Param( { "10000", "100000" } )
+    public int builds;
+
+    @Param( { "2", "100" } )
+    public int number;
+
+    private OneProjectAction action;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( "cpus", "8" );
+        facts.put( "tool:git --version", "git version 1.8.1" );
+
+        List<OneHistoryIndex.Entry> entries = new ArrayList<OneHistoryIndex.Entry>( builds / 2 );
+        long timestamp = System.currentTimeMillis();
+        for( int i = 1 ; i <= builds ; i += 2 ) {
+            OneBuildAction.Items items = new OneBuildAction.Items( "Linux", "java version \"1.6.0_45\"", "Build " + i, facts );
+            entries.add( new OneHistoryIndex.Entry( i, timestamp + i * 60000L, "node-" + ( i % 16 ), Collections.singletonList( items ) ) );
+        }
+        final OneHistoryIndex index = OneHistoryIndex.detached( entries );
+
+        action = new OneProjectAction( null ) {
+            @Override
+            public OneHistoryIndex getIndex() {
+                return index;
+            }
+        };
+    }
+
+    @Benchmark
+    public List<List<OneBuildAction.Items>> getItems() {
+        return action.getItems( number );
+    }
+}
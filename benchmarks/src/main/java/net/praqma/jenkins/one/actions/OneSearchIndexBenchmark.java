@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OneSearchIndex#search(String, int, int)} over a synthetic history, for the first page and a page far
+ * back.
+ *
+ * The builds alternate between four operating systems and eight java versions, so "linux" matches every fourth build,
+ * "1.6" every second and "1.7.0_80 windows" every eighth. The message of each build has its number, a word of its own.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class OneSearchIndexBenchmark {
+
+    private static final String[] OS = { "Linux", "Windows 7", "Mac OS X", "SunOS" };
+
+    private static final String[] JAVA = {
+        "java version \"1.6.0_45\"", "java version \"1.7.0_80\"", "java version \"1.6.0_31\"", "java version \"1.7.0_21\"",
+        "java version \"1.6.0_45\"", "java version \"1.8.0_05\"", "java version \"1.6.0_31\"", "java version \"1.7.0_80\""
+    };
+
+    @Param( { "10000", "50000" } )
+    public int builds;
+
+    @Param( { "linux", "1.6", "1.7.0_80 windows" } )
+    public String query;
+
+    @Param( { "0", "1000" } )
+    public int offset;
+
+    private OneSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( "cpus", "8" );
+
+        List<OneHistoryIndex.Entry> entries = new ArrayList<OneHistoryIndex.Entry>( builds );
+        long timestamp = System.currentTimeMillis();
+        for( int i = 1 ; i <= builds ; i++ ) {
+            OneBuildAction.Items items = new OneBuildAction.Items( OS[i % OS.length], JAVA[i % JAVA.length], "Build " + i + " done.", facts );
+            entries.add( new OneHistoryIndex.Entry( i, timestamp + i * 60000L, "node-" + ( i % 16 ), Collections.singletonList( items ) ) );
+        }
+        index = new OneSearchIndex( entries );
+    }
+
+    @Benchmark
+    public OneSearchIndex.Result search() {
+        return index.search( query, offset, 25 );
+    }
+}
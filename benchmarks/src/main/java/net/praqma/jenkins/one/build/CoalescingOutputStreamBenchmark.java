@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the lines per second printed to a build log, with and without a {@link CoalescingOutputStream}.
+ *
+ * The log is a stream where every write costs a fixed amount of work, standing in for a write to the log file on the
+ * master. Like the build log, it is printed to through an auto flushing print stream. Traffic over the remoting
+ * channel is not part of this, the stream doesn't change it.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class CoalescingOutputStreamBenchmark {
+
+    @Param( { "false", "true" } )
+    public boolean buffered;
+
+    /**
+     * The cost of a single write, in {@link Blackhole#consumeCPU(long)} tokens
+     */
+    @Param( { "0", "1000" } )
+    public long writeCost;
+
+    private PrintStream logger;
+
+    @Setup
+    public void setUp() {
+        OutputStream log = new CostlyStream( writeCost );
+        logger = new PrintStream( buffered ? new CoalescingOutputStream( log, 0, 0 ) : log, true );
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.close();
+    }
+
+    @Benchmark
+    public void println() {
+        logger.println( "[INFO] Compiling 42 source files to /var/lib/jenkins/workspace/one/target/classes" );
+    }
+
+    private static class CostlyStream extends OutputStream {
+        private final long cost;
+
+        private CostlyStream( long cost ) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void write( int b ) throws IOException {
+            Blackhole.consumeCPU( cost );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            Blackhole.consumeCPU( cost );
+        }
+
+        @Override
+        public void flush() throws IOException {
+            Blackhole.consumeCPU( cost );
+        }
+    }
+}
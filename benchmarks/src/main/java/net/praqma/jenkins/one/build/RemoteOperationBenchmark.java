@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link RemoteOperation#invoke} itself, with the commands replaced by a stub that answers at once.
+ * What is left is the thread pool, the collection of facts and the bookkeeping around the processes.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class RemoteOperationBenchmark {
+
+    @Param( { "0", "4" } )
+    public int tools;
+
+    @Param( { "false", "true" } )
+    public boolean system;
+
+    private RemoteOperation operation;
+    private File workspace;
+
+    @Setup
+    public void setUp() {
+        List<String> commands = new ArrayList<String>();
+        for( int i = 0 ; i < tools ; i++ ) {
+            commands.add( "tool" + i + " --version" );
+        }
+        operation = new StubbedOperation( system, commands );
+        workspace = new File( System.getProperty( "java.io.tmpdir" ) );
+    }
+
+    @Benchmark
+    public ProbeResult invoke() throws IOException, InterruptedException {
+        return operation.invoke( workspace, null );
+    }
+
+    private static class StubbedOperation extends RemoteOperation {
+        private StubbedOperation( boolean system, List<String> tools ) {
+            super( null, system, system, tools, 0 );
+        }
+
+        @Override
+        protected Process start( List<String> command ) {
+            return new StubProcess( command.get( 0 ) + " version 1.0\n" );
+        }
+    }
+
+    /**
+     * A process that has already finished, having printed the given output
+     */
+    private static class StubProcess extends Process {
+        private final byte[] output;
+
+        private StubProcess( String output ) {
+            this.output = output.getBytes();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream( output );
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream( new byte[0] );
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.postbuild;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.praqma.jenkins.one.actions.OneBuildAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the {@link OneRecorder} matches its patterns against the items of a build, the way
+ * {@link OneRecorder#perform} does it.
+ *
+ * None of the items contain the required texts, so every item is scanned. This is the worst case.
+ *
+ * @author Praqma
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class OneRecorderBenchmark {
+
+    @Param( { "100", "10000" } )
+    public int items;
+
+    @Param( { "1", "50" } )
+    public int patterns;
+
+    @Param( { "false", "true" } )
+    public boolean regexes;
+
+    private OneRecorder recorder;
+    private List<OneBuildAction.Items> list;
+
+    @Setup
+    public void setUp() {
+        StringBuilder required = new StringBuilder();
+        StringBuilder forbidden = new StringBuilder();
+        for( int i = 0 ; i < patterns ; i++ ) {
+            required.append( regexes && i % 2 == 0 ? "/required-[0-9]+-" + i + "/" : "required text " + i ).append( '\n' );
+            forbidden.append( "forbidden text " + i ).append( '\n' );
+        }
+        recorder = new OneRecorder( required.toString(), forbidden.toString(), false );
+
+        list = new ArrayList<OneBuildAction.Items>( items );
+        for( int i = 0 ; i < items ; i++ ) {
+            list.add( new OneBuildAction.Items( "Linux", "java version \"1.6.0_45\"", "Build step " + i + " finished on node-" + ( i % 16 ) + " without anything of interest" ) );
+        }
+    }
+
+    @Benchmark
+    public boolean match() {
+        PatternMatcher.Scan scan = recorder.getMatcher().newScan();
+        for( OneBuildAction.Items item : list ) {
+            if( item.message != null ) {
+                scan.text( item.message );
+                if( scan.isDecided() ) {
+                    break;
+                }
+            }
+        }
+        return scan.isSatisfied();
+    }
+}
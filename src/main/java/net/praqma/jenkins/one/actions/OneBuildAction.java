@@ -23,9 +23,35 @@
  */
 package net.praqma.jenkins.one.actions;
 
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractBuild;
 import hudson.model.Action;
-import java.util.ArrayList;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.praqma.jenkins.one.util.StringPool;
 
 /**
  *
@@ -37,41 +63,453 @@ import java.util.List;
  * 
  * In our example we will re-use the same action through the entire build pipeline.
  * 
+ * Build steps may run concurrently, so the action is obtained with {@link #getOrCreate(AbstractBuild)}, and items are
+ * appended without locking by swapping in a new array. Readers always see a consistent snapshot.
+ * 
+ * Jenkins loads the whole build.xml whenever it loads a build, for whatever reason. So the items are not stored there,
+ * but in a sidecar file next to it, {@value #FILE_NAME}, which is only read when the items are asked for. Read items
+ * are held through a soft reference, so they are given up under memory pressure. The action is looked up with
+ * {@link #of(Run)}, which tells it where its build is.
+ * 
+ * Adding items doesn't write the sidecar file, so build steps never wait for each other or for the disk. The file is
+ * written once when the build completes, see {@link #release()}, and in the meantime at most once every
+ * {@link #FLUSH_DELAY} milliseconds in the background, so not all items are lost if Jenkins goes down during the build.
+ * 
  * @author Praqma
  */
 public class OneBuildAction implements Action {
 
     /**
      * Small data class used to store data we collect from our slaves.
+     *
+     * The same operating systems, java versions and fact names show up in build after build, so they are taken from the
+     * shared {@link StringPool}, and each loaded build only holds references to them. Messages and fact values, like the
+     * free disk space, are mostly different from build to build, and are kept as they are. Items are persisted by
+     * {@link ConverterImpl}.
      */
     public static class Items {
-        public String os;
-        public String string;
-        public String message;
+        private static final String[] NO_FACTS = new String[0];
+
+        public final String os;
+        public final String string;
+        public final String message;
+        /**
+         * Additional facts collected from the slave, as alternating keys and values
+         */
+        private final String[] facts;
 
         public Items( String os, String string, String message ) {
-            this.os = os;
-            this.string = string;
+            this( os, string, message, null );
+        }
+
+        public Items( String os, String string, String message, Map<String, String> facts ) {
+            this.os = StringPool.intern( os );
+            this.string = StringPool.intern( string );
             this.message = message;
+            if( facts == null || facts.isEmpty() ) {
+                this.facts = NO_FACTS;
+            } else {
+                this.facts = new String[facts.size() * 2];
+                int i = 0;
+                for( Map.Entry<String, String> fact : facts.entrySet() ) {
+                    this.facts[i++] = StringPool.intern( fact.getKey() );
+                    this.facts[i++] = fact.getValue();
+                }
+            }
+        }
+
+        /**
+         * @return the facts in the order they were collected
+         */
+        public Map<String, String> getFacts() {
+            if( facts.length == 0 ) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> map = new LinkedHashMap<String, String>();
+            for( int i = 0 ; i < facts.length ; i += 2 ) {
+                map.put( facts[i], facts[i + 1] );
+            }
+            return Collections.unmodifiableMap( map );
         }
 
         @Override
         public String toString() {
-            return "OS: " + os + ", String: " + string + ", Message: " + message;
+            return "OS: " + os + ", String: " + string + ", Message: " + message + ( facts.length == 0 ? "" : ", Facts: " + getFacts() );
+        }
+
+        /**
+         * Writes items the way XStream did by default, so older versions of the plugin can still read them, and interns
+         * the values when reading.
+         */
+        public static class ConverterImpl implements Converter {
+
+            public boolean canConvert( Class type ) {
+                return type == Items.class;
+            }
+
+            public void marshal( Object source, HierarchicalStreamWriter writer, MarshallingContext context ) {
+                Items item = (Items) source;
+                write( writer, "os", item.os );
+                write( writer, "string", item.string );
+                write( writer, "message", item.message );
+                if( item.facts.length > 0 ) {
+                    writer.startNode( "facts" );
+                    for( int i = 0 ; i < item.facts.length ; i += 2 ) {
+                        writer.startNode( "entry" );
+                        write( writer, "string", item.facts[i] );
+                        write( writer, "string", item.facts[i + 1] );
+                        writer.endNode();
+                    }
+                    writer.endNode();
+                }
+            }
+
+            public Object unmarshal( HierarchicalStreamReader reader, UnmarshallingContext context ) {
+                String os = null, string = null, message = null;
+                Map<String, String> facts = new LinkedHashMap<String, String>();
+                while( reader.hasMoreChildren() ) {
+                    reader.moveDown();
+                    String name = reader.getNodeName();
+                    if( name.equals( "os" ) ) {
+                        os = reader.getValue();
+                    } else if( name.equals( "string" ) ) {
+                        string = reader.getValue();
+                    } else if( name.equals( "message" ) ) {
+                        message = reader.getValue();
+                    } else if( name.equals( "facts" ) ) {
+                        while( reader.hasMoreChildren() ) {
+                            reader.moveDown();
+                            String key = read( reader );
+                            facts.put( key, read( reader ) );
+                            reader.moveUp();
+                        }
+                    }
+                    reader.moveUp();
+                }
+                return new Items( os, string, message, facts );
+            }
+
+            private static void write( HierarchicalStreamWriter writer, String name, String value ) {
+                if( value != null ) {
+                    writer.startNode( name );
+                    writer.setValue( value );
+                    writer.endNode();
+                }
+            }
+
+            private static String read( HierarchicalStreamReader reader ) {
+                if( !reader.hasMoreChildren() ) {
+                    return null;
+                }
+                reader.moveDown();
+                String value = reader.getValue();
+                reader.moveUp();
+                return value;
+            }
         }
     }
 
-    public List<Items> items = new ArrayList<Items>();
+    /**
+     * Registers our converters before any builds are loaded.
+     */
+    @Initializer( before = InitMilestone.JOB_LOADED )
+    public static void registerConverters() {
+        Run.XSTREAM.registerConverter( new Items.ConverterImpl() );
+    }
+
+    private static final Logger LOGGER = Logger.getLogger( OneBuildAction.class.getName() );
+
+    /**
+     * The name of the file in the build directory holding the items
+     */
+    public static final String FILE_NAME = "one-items.xml";
+
+    /**
+     * The time in milliseconds from adding items to a build in progress until they are written, 0 to only write them when
+     * the build completes
+     */
+    public static final long FLUSH_DELAY = Long.getLong( OneBuildAction.class.getName() + ".flushDelay", 10000 );
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory() );
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.registerConverter( new Items.ConverterImpl() );
+        XSTREAM.alias( "items", Items[].class );
+        XSTREAM.alias( "item", Items.class );
+    }
+
+    private static final AtomicReferenceFieldUpdater<OneBuildAction, Items[]> LIVE = AtomicReferenceFieldUpdater.newUpdater( OneBuildAction.class, Items[].class, "live" );
+
+    private static final AtomicIntegerFieldUpdater<OneBuildAction> FLUSHING = AtomicIntegerFieldUpdater.newUpdater( OneBuildAction.class, "flushing" );
+
+    /**
+     * The items as they were stored inline in the build.xml by earlier versions. Moved to the sidecar file by
+     * {@link #migrate(Run)}, and null from then on, so it is no longer written.
+     */
+    private volatile Items[] items;
+
+    /**
+     * The items while they are being added to, held on to until the build completes. Never modified, only replaced.
+     */
+    private transient volatile Items[] live;
+
+    /**
+     * The items read from the sidecar file, dropped by the garbage collector when memory is needed
+     */
+    private transient volatile SoftReference<Items[]> loaded;
+
+    /**
+     * The directory of the build, known once the action is attached to it
+     */
+    private transient volatile File dir;
+
+    /**
+     * 1 while a background write of the sidecar file is scheduled
+     */
+    private transient volatile int flushing;
+
+    /**
+     * The number of items last written to the sidecar file, guarded by this
+     */
+    private transient int saved;
 
     public OneBuildAction() {
+        live = new Items[0];
+    }
+
+    /**
+     * Creates an action stored in the given directory, which is not attached to any build. Used by the tests.
+     * @param dir where the sidecar file is
+     * @param completed if true, the action is like one read back with a completed build, reading its items from the
+     * sidecar file, otherwise like a new action of a build in progress
+     */
+    static OneBuildAction detached( File dir, boolean completed ) {
+        OneBuildAction action = new OneBuildAction();
+        action.dir = dir;
+        if( completed ) {
+            action.live = null;
+        }
+        return action;
+    }
+
+    /**
+     * Returns the action of the build, adding one if there is none. Safe to call from concurrent build steps.
+     * @param build the build
+     * @return the one and only action of the build
+     */
+    public static OneBuildAction getOrCreate( AbstractBuild<?, ?> build ) {
+        OneBuildAction action = of( build );
+        if( action != null ) {
+            return action;
+        }
+        synchronized( build ) {
+            action = of( build );
+            if( action == null ) {
+                action = new OneBuildAction();
+                build.addAction( action );
+                action.attach( build );
+            }
+            return action;
+        }
+    }
+
+    /**
+     * Returns the action of a build, attached to the build so its items can be read. Jenkins doesn't tell an action
+     * which build it belongs to when the build is loaded, so the action must always be looked up through this method.
+     * @param run the build
+     * @return the action of the build, or null if it has none
+     */
+    public static OneBuildAction of( Run<?, ?> run ) {
+        OneBuildAction action = run.getAction( OneBuildAction.class );
+        if( action != null ) {
+            action.attach( run );
+        }
+        return action;
+    }
+
+    /**
+     * Remembers the directory of the build. Inline items of earlier versions are read as they are, see
+     * {@link #migrate(Run)}.
+     */
+    private void attach( Run<?, ?> run ) {
+        //Looked up every time, the directory changes when the project is renamed
+        dir = run.getRootDir();
+    }
+
+    /**
+     * Moves the items stored inline in the build.xml by earlier versions to the sidecar file, and saves the build
+     * without them. This rewrites the build.xml, so it is done by the background rebuild of the
+     * {@link OneHistoryIndex}, and not whenever a build is looked at. Builds it doesn't get to keep their inline items,
+     * which are read as they are.
+     * @param run the build
+     */
+    static void migrate( Run<?, ?> run ) {
+        OneBuildAction action = of( run );
+        if( action != null && action.items != null ) {
+            action.moveInline( run );
+        }
+    }
+
+    private synchronized void moveInline( Run<?, ?> run ) {
+        Items[] inline = items;
+        if( inline == null ) {
+            return;
+        }
+        try {
+            XmlFile file = getFile();
+            //Items added after the build completed have been written with the inline ones
+            if( !file.exists() ) {
+                file.write( inline );
+            }
+            items = null;
+            run.save();
+        } catch( IOException e ) {
+            /* The inline items are still there, try again next time */
+            LOGGER.log( Level.WARNING, "Unable to move the items of " + run + " to " + FILE_NAME, e );
+        }
     }
 
     public void addItems( String os, String string, String message ) {
-        items.add( new Items( os, string, message ) );
+        add( new Items( os, string, message ) );
+    }
+
+    public void addItems( String os, String string, String message, Map<String, String> facts ) {
+        add( new Items( os, string, message, facts ) );
+    }
+
+    /**
+     * Adds many items at once.
+     */
+    public void addItems( List<Items> items ) {
+        if( !items.isEmpty() ) {
+            add( items.toArray( new Items[items.size()] ) );
+        }
+    }
+
+    private void add( Items... items ) {
+        boolean completed = false;
+        while( true ) {
+            Items[] current = live;
+            if( current == null ) {
+                //Added to after the build completed, start over from what is stored
+                synchronized( this ) {
+                    if( live == null ) {
+                        live = read();
+                    }
+                }
+                completed = true;
+                continue;
+            }
+            Items[] next = Arrays.copyOf( current, current.length + items.length );
+            System.arraycopy( items, 0, next, current.length, items.length );
+            if( LIVE.compareAndSet( this, current, next ) ) {
+                break;
+            }
+        }
+        if( completed ) {
+            //Nothing else will write them
+            release();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Writes the items in a while, unless that is scheduled already.
+     */
+    private void scheduleFlush() {
+        if( dir == null || FLUSH_DELAY <= 0 || !FLUSHING.compareAndSet( this, 0, 1 ) ) {
+            return;
+        }
+        FLUSHER.schedule( new Runnable() {
+            public void run() {
+                //Items added from now on schedule another write
+                flushing = 0;
+                Items[] current = live;
+                if( current != null ) {
+                    save( current );
+                }
+            }
+        }, FLUSH_DELAY, TimeUnit.MILLISECONDS );
     }
 
+    /**
+     * Writes the given items to the sidecar file, unless newer items have been written. Items are only ever added, so
+     * the newer of two snapshots is the longer one.
+     */
+    private synchronized void save( Items[] current ) {
+        if( dir == null || current.length < saved ) {
+            return;
+        }
+        try {
+            getFile().write( current );
+            saved = current.length;
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to write " + getFile(), e );
+        }
+    }
+
+    /**
+     * Called when the build has completed. Writes the items to the sidecar file, and from then on they are only softly
+     * held, and read again when needed.
+     */
+    public void release() {
+        while( dir != null ) {
+            Items[] current = live;
+            if( current == null ) {
+                return;
+            }
+            save( current );
+            loaded = new SoftReference<Items[]>( current );
+            if( LIVE.compareAndSet( this, current, null ) ) {
+                return;
+            }
+            //Added to while writing, write again
+        }
+    }
+
+    /**
+     * @return a snapshot of the items, which will not change. Read from the sidecar file if they aren't in memory.
+     */
     public List<Items> getItems() {
-        return items;
+        Items[] current = live;
+        if( current == null ) {
+            current = read();
+        }
+        return Collections.unmodifiableList( Arrays.asList( current ) );
+    }
+
+    /**
+     * Items are read from the sidecar file if there is one, else they are the inline ones of an earlier version, if any.
+     */
+    private Items[] read() {
+        SoftReference<Items[]> ref = loaded;
+        Items[] current = ref == null ? null : ref.get();
+        if( current != null ) {
+            return current;
+        }
+
+        Items[] inline = items;
+        current = inline != null ? inline : new Items[0];
+        if( dir != null ) {
+            XmlFile file = getFile();
+            if( file.exists() ) {
+                try {
+                    current = (Items[]) file.read();
+                } catch( IOException e ) {
+                    LOGGER.log( Level.WARNING, "Unable to read " + file, e );
+                    return current;
+                }
+            }
+            loaded = new SoftReference<Items[]>( current );
+        }
+        return current;
+    }
+
+    private XmlFile getFile() {
+        return new XmlFile( XSTREAM, new File( dir, FILE_NAME ) );
     }
 
     /**
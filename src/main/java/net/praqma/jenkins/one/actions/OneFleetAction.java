@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import jenkins.model.Jenkins;
+import net.praqma.jenkins.one.metrics.BuildMetrics;
+import net.praqma.jenkins.one.util.JsonWriter;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * A root action showing which nodes ran which operating systems and java versions across all projects, at
+ * <code>jenkins/one-fleet</code>. The same data is served as JSON at <code>jenkins/one-fleet/query</code>.
+ *
+ * Everything is read from the {@link OneGlobalIndex}, so no projects or builds are loaded.
+ *
+ * Both require the overall read permission, and only count the builds of the jobs the user can read.
+ *
+ * @author Praqma
+ */
+@Extension
+public class OneFleetAction implements RootAction {
+
+    /**
+     * The default number of hours to look back
+     */
+    public static final int DEFAULT_HOURS = 24;
+
+    public String getIconFileName() {
+        return "/plugin/one-plugin/images/64x64/one-icon.png";
+    }
+
+    public String getDisplayName() {
+        return "One fleet";
+    }
+
+    public String getUrlName() {
+        return "one-fleet";
+    }
+
+    /**
+     * A node, operating system and java version, and how often it was seen
+     */
+    public static class Row {
+        public final String node;
+        public final String os;
+        public final String version;
+        private int builds;
+        private final Set<String> jobs = new HashSet<String>();
+        private long lastSeen;
+
+        private Row( String node, String os, String version ) {
+            this.node = node;
+            this.os = os;
+            this.version = version;
+        }
+
+        public int getBuilds() {
+            return builds;
+        }
+
+        public int getJobs() {
+            return jobs.size();
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public Date getLastSeenDate() {
+            return new Date( lastSeen );
+        }
+    }
+
+    /**
+     * @return the number of hours to look back, given by the <code>hours</code> parameter of the current request
+     * @throws NumberFormatException if the parameter is not a number
+     */
+    public int getHours() {
+        String value = Stapler.getCurrentRequest().getParameter( "hours" );
+        return value == null || value.length() == 0 ? DEFAULT_HOURS : Integer.parseInt( value );
+    }
+
+    /**
+     * @return the nodes, operating systems and java versions seen in the hours of the current request, sorted by node
+     */
+    public List<Row> getRows() {
+        Jenkins.getInstance().checkPermission( Jenkins.READ );
+        return query( getHours(), null, null, null, new ReadableJobs() );
+    }
+
+    /**
+     * @param hours the number of hours to look back
+     * @param node only include this node, if not null
+     * @param job only include this job, if not null
+     * @param version only include this java version, if not null
+     * @param jobs only include the jobs accepted by this filter
+     * @return the nodes, operating systems and java versions seen, sorted by node
+     */
+    public List<Row> query( int hours, String node, String job, String version, BuildMetrics.JobFilter jobs ) {
+        long since = System.currentTimeMillis() - TimeUnit.HOURS.toMillis( hours );
+        Map<List<String>, Row> rows = new HashMap<List<String>, Row>();
+        for( OneGlobalIndex.Record record : OneGlobalIndex.getInstance().getRecords( since ) ) {
+            if( ( node != null && !node.equals( record.node ) ) || ( job != null && !job.equals( record.job ) )
+                    || ( version != null && !version.equals( record.version ) ) || !jobs.accept( record.job ) ) {
+                continue;
+            }
+            List<String> key = Arrays.asList( record.node, record.os, record.version );
+            Row row = rows.get( key );
+            if( row == null ) {
+                row = new Row( record.node, record.os, record.version );
+                rows.put( key, row );
+            }
+            row.builds++;
+            row.jobs.add( record.job );
+            row.lastSeen = Math.max( row.lastSeen, record.time );
+        }
+
+        List<Row> list = new ArrayList<Row>( rows.values() );
+        Collections.sort( list, new Comparator<Row>() {
+            public int compare( Row r1, Row r2 ) {
+                int c = compareNullable( r1.node, r2.node );
+                return c != 0 ? c : compareNullable( r1.version, r2.version );
+            }
+        } );
+        return list;
+    }
+
+    private static int compareNullable( String s1, String s2 ) {
+        if( s1 == null || s2 == null ) {
+            return s1 == null ? ( s2 == null ? 0 : -1 ) : 1;
+        }
+        return s1.compareTo( s2 );
+    }
+
+    /**
+     * Serves the rows as JSON. The query parameters are all optional:
+     * <ul>
+     *     <li><code>hours</code>: the number of hours to look back, {@value #DEFAULT_HOURS} by default</li>
+     *     <li><code>node</code>: only include this node</li>
+     *     <li><code>job</code>: only include this job, by its full name</li>
+     *     <li><code>version</code>: only include this java version</li>
+     * </ul>
+     */
+    public void doQuery( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        Jenkins.getInstance().checkPermission( Jenkins.READ );
+        int hours;
+        try {
+            hours = getHours();
+        } catch( NumberFormatException e ) {
+            rsp.sendError( HttpServletResponse.SC_BAD_REQUEST, "hours must be an integer" );
+            return;
+        }
+
+        List<Row> rows = query( hours, emptyToNull( req.getParameter( "node" ) ), emptyToNull( req.getParameter( "job" ) ), emptyToNull( req.getParameter( "version" ) ), new ReadableJobs() );
+
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        JsonWriter json = new JsonWriter( rsp.getWriter() );
+        json.beginObject().name( "hours" ).value( hours ).name( "rows" ).beginArray();
+        for( Row row : rows ) {
+            json.beginObject();
+            json.name( "node" ).value( row.node );
+            json.name( "os" ).value( row.os );
+            json.name( "version" ).value( row.version );
+            json.name( "builds" ).value( row.getBuilds() );
+            json.name( "jobs" ).value( row.getJobs() );
+            json.name( "lastSeen" ).value( row.getLastSeen() );
+            json.endObject();
+        }
+        json.endArray().endObject().flush();
+    }
+
+    private static String emptyToNull( String s ) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.model.AbstractBuild;
+import hudson.util.AtomicFileWriter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import net.praqma.jenkins.one.build.ProbeResult;
+import net.praqma.jenkins.one.util.StringPool;
+
+/**
+ * An index of the {@link OneBuildAction} items of all projects, so questions about the whole instance, like which
+ * nodes ran which java version lately, can be answered without loading any projects or builds.
+ *
+ * There is one record per node, operating system and java version seen in a build, kept in the order the builds
+ * completed. The records are appended to the file <code>one-global.idx</code> in the Jenkins home directory as builds
+ * complete, in the background, and read once when the index is first used. Records older than 30 days are dropped once a day by the
+ * {@link OneHistoryCompactor}. The age can be changed with the system property
+ * <code>net.praqma.jenkins.one.actions.OneGlobalIndex.days</code>.
+ *
+ * Readers take no locks. Records are appended to an array shared by all snapshots, each snapshot only seeing the
+ * records that were there when it was published.
+ *
+ * @author Praqma
+ */
+public class OneGlobalIndex {
+
+    private static final Logger LOGGER = Logger.getLogger( OneGlobalIndex.class.getName() );
+
+    public static final String FILE_NAME = "one-global.idx";
+
+    public static final int DAYS = Integer.getInteger( OneGlobalIndex.class.getName() + ".days", 30 );
+
+    private static volatile OneGlobalIndex instance;
+
+    /**
+     * A node, operating system and java version seen in a build
+     */
+    public static class Record {
+        /**
+         * The time the build completed
+         */
+        public final long time;
+        public final String job;
+        public final int number;
+        public final String node;
+        public final String os;
+        public final String version;
+
+        public Record( long time, String job, int number, String node, String os, String version ) {
+            this.time = time;
+            this.job = StringPool.intern( job );
+            this.number = number;
+            this.node = StringPool.intern( node );
+            this.os = StringPool.intern( os );
+            this.version = StringPool.intern( version );
+        }
+    }
+
+    private final File file;
+
+    /**
+     * The records and how many of them are in use, published together
+     */
+    private static class Snapshot {
+        private final Record[] records;
+        private final int size;
+
+        private Snapshot( Record[] records, int size ) {
+            this.records = records;
+            this.size = size;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot( new Record[16], 0 );
+
+    private OneGlobalIndex( File file ) {
+        this.file = file;
+    }
+
+    /**
+     * @return the index of this instance, read from disk the first time
+     */
+    public static OneGlobalIndex getInstance() {
+        OneGlobalIndex index = instance;
+        if( index == null ) {
+            synchronized( OneGlobalIndex.class ) {
+                index = instance;
+                if( index == null ) {
+                    index = new OneGlobalIndex( new File( Jenkins.getInstance().getRootDir(), FILE_NAME ) );
+                    index.load();
+                    instance = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds the items of a completed build to the index in the background, see {@link OneIndexWriter}. Builds without
+     * items are not recorded.
+     */
+    public static void onCompleted( final AbstractBuild<?, ?> build ) {
+        final OneBuildAction action = OneBuildAction.of( build );
+        if( action != null ) {
+            OneIndexWriter.submit( build.toString(), new Runnable() {
+                public void run() {
+                    getInstance().record( build, action.getItems() );
+                }
+            } );
+        }
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * @param since the time in milliseconds
+     * @return the records of builds completed since the given time, oldest first
+     */
+    public List<Record> getRecords( long since ) {
+        Snapshot current = snapshot;
+        int from = search( current.records, current.size, since );
+        return Collections.unmodifiableList( Arrays.asList( current.records ).subList( from, current.size ) );
+    }
+
+    /**
+     * @return the index of the first record at or after the given time
+     */
+    private static int search( Record[] records, int size, long time ) {
+        int low = 0;
+        int high = size;
+        while( low < high ) {
+            int mid = ( low + high ) >>> 1;
+            if( records[mid].time < time ) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public synchronized void record( AbstractBuild<?, ?> build, List<OneBuildAction.Items> items ) {
+        String job = build.getProject().getFullName();
+        String builtOn = build.getBuiltOnStr();
+        if( builtOn == null || builtOn.length() == 0 ) {
+            builtOn = "master";
+        }
+
+        //The same node and version is often recorded by several steps, and the fleet builder probes other nodes
+        Set<List<String>> seen = new LinkedHashSet<List<String>>();
+        for( OneBuildAction.Items item : items ) {
+            String node = item.getFacts().get( ProbeResult.NODE );
+            seen.add( Arrays.asList( node != null ? node : builtOn, item.os, item.string ) );
+        }
+
+        long time = System.currentTimeMillis();
+        StringBuilder lines = new StringBuilder();
+        for( List<String> key : seen ) {
+            Record record = new Record( time, job, build.getNumber(), key.get( 0 ), key.get( 1 ), key.get( 2 ) );
+            add( record );
+            lines.append( encode( record ) ).append( '\n' );
+        }
+
+        if( lines.length() > 0 ) {
+            try {
+                Writer writer = new OutputStreamWriter( new FileOutputStream( file, true ), "UTF-8" );
+                try {
+                    writer.write( lines.toString() );
+                } finally {
+                    writer.close();
+                }
+            } catch( IOException e ) {
+                LOGGER.log( Level.WARNING, "Unable to update " + file, e );
+            }
+        }
+    }
+
+    private void add( Record record ) {
+        Record[] current = snapshot.records;
+        int n = snapshot.size;
+        if( n == current.length ) {
+            current = Arrays.copyOf( current, n * 2 );
+        }
+        current[n] = record;
+        snapshot = new Snapshot( current, n + 1 );
+    }
+
+    /**
+     * Drops records older than {@link #DAYS} days, and rewrites the file with the rest.
+     */
+    public synchronized void trim() {
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis( DAYS );
+        int n = snapshot.size;
+        int from = search( snapshot.records, n, since );
+        if( from == 0 ) {
+            return;
+        }
+
+        Record[] kept = Arrays.copyOfRange( snapshot.records, from, Math.max( from + 16, n ) );
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter( file );
+            try {
+                for( int i = 0 ; i < n - from ; i++ ) {
+                    writer.write( encode( kept[i] ) );
+                    writer.write( '\n' );
+                }
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to write " + file, e );
+            return;
+        }
+
+        //Readers holding the old snapshot keep their consistent view of it
+        snapshot = new Snapshot( kept, n - from );
+    }
+
+    private synchronized void load() {
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis( DAYS );
+        List<Record> loaded = new ArrayList<Record>();
+        try {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+            try {
+                String line;
+                while( ( line = reader.readLine() ) != null ) {
+                    try {
+                        Record record = decode( line );
+                        if( record.time >= since ) {
+                            loaded.add( record );
+                        }
+                    } catch( RuntimeException e ) {
+                        /* Most likely a line cut short by a crash */
+                        LOGGER.fine( "Skipping malformed line in " + file );
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch( FileNotFoundException e ) {
+            LOGGER.fine( "No global index yet, it is filled as builds complete" );
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to read " + file, e );
+        }
+        for( Record record : loaded ) {
+            add( record );
+        }
+    }
+
+    private static String encode( Record record ) {
+        return record.time + "\t" + OneHistoryIndex.escape( record.job ) + "\t" + record.number + "\t" + OneHistoryIndex.escape( record.node )
+                + "\t" + OneHistoryIndex.escape( record.os ) + "\t" + OneHistoryIndex.escape( record.version );
+    }
+
+    private static Record decode( String line ) {
+        String[] f = line.split( "\t", -1 );
+        return new Record( Long.parseLong( f[0] ), OneHistoryIndex.unescape( f[1] ), Integer.parseInt( f[2] ),
+                OneHistoryIndex.unescape( f[3] ), OneHistoryIndex.unescape( f[4] ), OneHistoryIndex.unescape( f[5] ) );
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The archive of a {@link OneHistoryIndex}, holding the entries of old builds, so the builds themselves can be
+ * discarded without losing their items.
+ *
+ * The archive is a directory of segment files, <code>one-archive/segment-first-last.seg</code> in the project
+ * directory. A segment is written once, when the {@link OneHistoryCompactor} folds old entries into it, and is never
+ * changed afterwards. Each segment is compressed with gzip and stores its entries column by column, oldest first:
+ * <ol>
+ *     <li>Build numbers and timestamps, as differences to the previous one</li>
+ *     <li>Nodes, item counts, operating systems, java versions, messages and facts, one column each</li>
+ * </ol>
+ * Nodes, operating systems, java versions and fact keys repeat from build to build, so these columns are dictionary
+ * encoded: each distinct value is written once, followed by an index into them per row. Numbers are written as
+ * variable length integers, so small ones take a single byte.
+ *
+ * @author Praqma
+ */
+public class OneHistoryArchive {
+
+    private static final Logger LOGGER = Logger.getLogger( OneHistoryArchive.class.getName() );
+
+    public static final String DIR_NAME = "one-archive";
+
+    /**
+     * "ONE" and the version of the format
+     */
+    private static final int MAGIC = 0x4f4e4501;
+
+    private static final FilenameFilter SEGMENTS = new FilenameFilter() {
+        public boolean accept( File dir, String name ) {
+            return name.startsWith( "segment-" ) && name.endsWith( ".seg" );
+        }
+    };
+
+    private OneHistoryArchive() {
+    }
+
+    /**
+     * Reads all segments of an archive. Segments that can't be read are skipped.
+     * @param dir the archive directory
+     * @return the archived entries, oldest first within each segment
+     */
+    static List<OneHistoryIndex.Entry> read( File dir ) {
+        List<OneHistoryIndex.Entry> entries = new ArrayList<OneHistoryIndex.Entry>();
+        File[] files = dir.listFiles( SEGMENTS );
+        if( files == null ) {
+            return entries;
+        }
+        Arrays.sort( files );
+        for( File file : files ) {
+            try {
+                DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ) ) ) );
+                try {
+                    entries.addAll( readSegment( in ) );
+                } finally {
+                    in.close();
+                }
+            } catch( IOException e ) {
+                LOGGER.log( Level.WARNING, "Unable to read the archive segment " + file, e );
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes entries to a new segment of an archive. The segment only appears once it is completely written.
+     * @param dir the archive directory, created if missing
+     * @param entries the entries, oldest first
+     */
+    static void append( File dir, List<OneHistoryIndex.Entry> entries ) throws IOException {
+        if( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException( "Unable to create " + dir );
+        }
+        String name = "segment-" + pad( entries.get( 0 ).number ) + "-" + pad( entries.get( entries.size() - 1 ).number ) + ".seg";
+        File tmp = new File( dir, name + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( new FileOutputStream( tmp ) ) ) );
+        try {
+            writeSegment( out, entries );
+        } finally {
+            out.close();
+        }
+        File file = new File( dir, name );
+        if( !tmp.renameTo( file ) ) {
+            tmp.delete();
+            throw new IOException( "Unable to rename " + tmp + " to " + file );
+        }
+    }
+
+    /**
+     * Zero padded, so the segments sort by name in build order
+     */
+    private static String pad( int number ) {
+        return String.format( "%010d", number );
+    }
+
+    static void writeSegment( DataOutputStream out, List<OneHistoryIndex.Entry> entries ) throws IOException {
+        out.writeInt( MAGIC );
+        writeVar( out, entries.size() );
+
+        int previousNumber = 0;
+        long previousTimestamp = 0;
+        List<String> nodes = new ArrayList<String>( entries.size() );
+        List<OneBuildAction.Items> items = new ArrayList<OneBuildAction.Items>();
+        for( OneHistoryIndex.Entry entry : entries ) {
+            writeVar( out, zigzag( entry.number - previousNumber ) );
+            previousNumber = entry.number;
+            nodes.add( entry.node );
+            items.addAll( entry.getItems() );
+        }
+        for( OneHistoryIndex.Entry entry : entries ) {
+            writeVar( out, zigzag( entry.timestamp - previousTimestamp ) );
+            previousTimestamp = entry.timestamp;
+        }
+        writeDictionary( out, nodes );
+        for( OneHistoryIndex.Entry entry : entries ) {
+            writeVar( out, entry.getItems().size() );
+        }
+
+        List<String> os = new ArrayList<String>( items.size() );
+        List<String> versions = new ArrayList<String>( items.size() );
+        List<String> keys = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        for( OneBuildAction.Items item : items ) {
+            os.add( item.os );
+            versions.add( item.string );
+            for( Map.Entry<String, String> fact : item.getFacts().entrySet() ) {
+                keys.add( fact.getKey() );
+                values.add( fact.getValue() );
+            }
+        }
+        writeDictionary( out, os );
+        writeDictionary( out, versions );
+        for( OneBuildAction.Items item : items ) {
+            writeString( out, item.message );
+        }
+        for( OneBuildAction.Items item : items ) {
+            writeVar( out, item.getFacts().size() );
+        }
+        writeDictionary( out, keys );
+        for( String value : values ) {
+            writeString( out, value );
+        }
+    }
+
+    static List<OneHistoryIndex.Entry> readSegment( DataInputStream in ) throws IOException {
+        if( in.readInt() != MAGIC ) {
+            throw new IOException( "Not an archive segment" );
+        }
+        int rows = (int) readVar( in );
+
+        int[] numbers = new int[rows];
+        long[] timestamps = new long[rows];
+        int previousNumber = 0;
+        long previousTimestamp = 0;
+        for( int i = 0 ; i < rows ; i++ ) {
+            numbers[i] = previousNumber += (int) unzigzag( readVar( in ) );
+        }
+        for( int i = 0 ; i < rows ; i++ ) {
+            timestamps[i] = previousTimestamp += unzigzag( readVar( in ) );
+        }
+        String[] nodes = readDictionary( in, rows );
+        int[] counts = new int[rows];
+        int total = 0;
+        for( int i = 0 ; i < rows ; i++ ) {
+            counts[i] = (int) readVar( in );
+            total += counts[i];
+        }
+
+        String[] os = readDictionary( in, total );
+        String[] versions = readDictionary( in, total );
+        String[] messages = new String[total];
+        for( int i = 0 ; i < total ; i++ ) {
+            messages[i] = readString( in );
+        }
+        int[] factCounts = new int[total];
+        int facts = 0;
+        for( int i = 0 ; i < total ; i++ ) {
+            factCounts[i] = (int) readVar( in );
+            facts += factCounts[i];
+        }
+        String[] keys = readDictionary( in, facts );
+
+        List<OneHistoryIndex.Entry> entries = new ArrayList<OneHistoryIndex.Entry>( rows );
+        int item = 0;
+        int fact = 0;
+        for( int i = 0 ; i < rows ; i++ ) {
+            List<OneBuildAction.Items> list = new ArrayList<OneBuildAction.Items>( counts[i] );
+            for( int j = 0 ; j < counts[i] ; j++, item++ ) {
+                Map<String, String> map = new LinkedHashMap<String, String>();
+                for( int k = 0 ; k < factCounts[item] ; k++, fact++ ) {
+                    map.put( keys[fact], readString( in ) );
+                }
+                list.add( new OneBuildAction.Items( os[item], versions[item], messages[item], map ) );
+            }
+            entries.add( new OneHistoryIndex.Entry( numbers[i], timestamps[i], nodes[i], list ) );
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the distinct values in the order they first appear, then the index of each value
+     */
+    private static void writeDictionary( DataOutputStream out, List<String> column ) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int[] indexes = new int[column.size()];
+        for( int i = 0 ; i < indexes.length ; i++ ) {
+            String value = column.get( i );
+            Integer index = dictionary.get( value );
+            if( index == null ) {
+                index = dictionary.size();
+                dictionary.put( value, index );
+            }
+            indexes[i] = index;
+        }
+        writeVar( out, dictionary.size() );
+        for( String value : dictionary.keySet() ) {
+            writeString( out, value );
+        }
+        for( int index : indexes ) {
+            writeVar( out, index );
+        }
+    }
+
+    private static String[] readDictionary( DataInputStream in, int rows ) throws IOException {
+        String[] dictionary = new String[(int) readVar( in )];
+        for( int i = 0 ; i < dictionary.length ; i++ ) {
+            dictionary[i] = readString( in );
+        }
+        String[] column = new String[rows];
+        for( int i = 0 ; i < rows ; i++ ) {
+            column[i] = dictionary[(int) readVar( in )];
+        }
+        return column;
+    }
+
+    /**
+     * Writes the length plus one, zero meaning null, followed by the UTF-8 bytes
+     */
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if( value == null ) {
+            writeVar( out, 0 );
+            return;
+        }
+        byte[] bytes = value.getBytes( "UTF-8" );
+        writeVar( out, bytes.length + 1L );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        long length = readVar( in );
+        if( length == 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) ( length - 1 )];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+    /**
+     * Writes an unsigned number, seven bits at a time
+     */
+    private static void writeVar( DataOutputStream out, long value ) throws IOException {
+        while( ( value & ~0x7FL ) != 0 ) {
+            out.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        out.writeByte( (int) value );
+    }
+
+    private static long readVar( DataInputStream in ) throws IOException {
+        long value = 0;
+        for( int shift = 0 ; shift < 64 ; shift += 7 ) {
+            int b = in.readUnsignedByte();
+            value |= (long) ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                return value;
+            }
+        }
+        throw new EOFException( "Malformed number" );
+    }
+
+    /**
+     * Maps signed numbers to unsigned ones, so small negative differences are small too
+     */
+    private static long zigzag( long value ) {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+    private static long unzigzag( long value ) {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+}
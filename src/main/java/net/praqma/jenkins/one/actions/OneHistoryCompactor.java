@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.PeriodicWork;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * A periodic work is run by Jenkins in the background at a fixed interval, here once a day.
+ *
+ * It moves the {@link OneHistoryIndex} entries of builds older than a number of days to the {@link OneHistoryArchive}
+ * of each project. The history then no longer depends on the builds, which can be discarded by the log rotator
+ * without losing their items. The age is 90 days, and can be changed with the system property
+ * <code>net.praqma.jenkins.one.actions.OneHistoryCompactor.days</code>.
+ *
+ * It also drops the old records of the {@link OneGlobalIndex}.
+ *
+ * @author Praqma
+ */
+@Extension
+public class OneHistoryCompactor extends PeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger( OneHistoryCompactor.class.getName() );
+
+    public static final int DAYS = Integer.getInteger( OneHistoryCompactor.class.getName() + ".days", 90 );
+
+    @Override
+    public long getRecurrencePeriod() {
+        return DAY;
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        long before = System.currentTimeMillis() - TimeUnit.DAYS.toMillis( DAYS );
+        for( AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems( AbstractProject.class ) ) {
+            if( OneHistoryIndex.hasIndex( project ) ) {
+                int archived = OneHistoryIndex.forProject( project ).archive( before );
+                if( archived > 0 ) {
+                    LOGGER.fine( "Archived " + archived + " builds of " + project.getFullName() );
+                }
+            }
+        }
+
+        OneGlobalIndex.getInstance().trim();
+    }
+}
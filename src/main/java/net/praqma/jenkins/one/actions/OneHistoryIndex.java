@@ -0,0 +1,717 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.util.AtomicFileWriter;
+import hudson.util.DaemonThreadFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A per-project index of the {@link OneBuildAction} items, so the history can be shown without loading any builds.
+ *
+ * The index is kept in memory and in the file <code>one-history.idx</code> in the project directory. The file is
+ * append-only, one line per event:
+ * <ul>
+ *     <li>A build with items, phase timings or resource usage: <code>number, timestamp, node, item count, items...,
+ *     phase count, phases..., step count, usage of the steps...</code>, tab separated. The phases and the steps are left
+ *     out when there are none, the phases only when there are no steps either. Lines written before the timings were
+ *     recorded end after the items.</li>
+ *     <li>A build with none of these: <code>@number</code></li>
+ *     <li>A deleted build: <code>-number</code></li>
+ * </ul>
+ * The highest build number seen is the watermark. If the file is missing, or the project has completed builds above
+ * the watermark, the missing part is rebuilt in the background from the builds themselves. Until then, {@link #isReady()}
+ * returns false and callers should fall back to walking the builds.
+ *
+ * The file is rewritten when deleted builds make up more than half of it.
+ *
+ * Entries of old builds are moved to the {@link OneHistoryArchive} of the project by the {@link OneHistoryCompactor}.
+ * All builds up to the highest archived number are then read from the archive instead of the file, and stay in the
+ * index when the builds themselves are deleted.
+ *
+ * The durations of the phases of a build, from its {@link OneTimingAction}, and the resources used by its steps, from
+ * its {@link OneResourceAction}, are kept with its items, so the trends of the project can be computed without loading
+ * the builds. They are not archived, the trends only use recent builds.
+ *
+ * The words of the items can be searched with a {@link OneSearchIndex}, built from the entries the first time it is asked
+ * for, and kept up to date with them from then on.
+ *
+ * @author Praqma
+ */
+public class OneHistoryIndex {
+
+    private static final Logger LOGGER = Logger.getLogger( OneHistoryIndex.class.getName() );
+
+    public static final String FILE_NAME = "one-history.idx";
+
+    private static final ConcurrentMap<String, OneHistoryIndex> INDEXES = new ConcurrentHashMap<String, OneHistoryIndex>();
+
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor( new DaemonThreadFactory() );
+
+    /**
+     * The items, phase timings and resource usage of a single build
+     */
+    public static class Entry {
+        public final int number;
+        public final long timestamp;
+        public final String node;
+        private final List<OneBuildAction.Items> items;
+        private final Map<String, Long> phases;
+        private final List<OneResourceAction.Usage> resources;
+
+        public Entry( int number, long timestamp, String node, List<OneBuildAction.Items> items ) {
+            this( number, timestamp, node, items, Collections.<String, Long>emptyMap() );
+        }
+
+        public Entry( int number, long timestamp, String node, List<OneBuildAction.Items> items, Map<String, Long> phases ) {
+            this( number, timestamp, node, items, phases, Collections.<OneResourceAction.Usage>emptyList() );
+        }
+
+        public Entry( int number, long timestamp, String node, List<OneBuildAction.Items> items, Map<String, Long> phases, List<OneResourceAction.Usage> resources ) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.node = node;
+            this.items = Collections.unmodifiableList( new ArrayList<OneBuildAction.Items>( items ) );
+            this.phases = phases.isEmpty() ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap( new LinkedHashMap<String, Long>( phases ) );
+            this.resources = resources.isEmpty() ? Collections.<OneResourceAction.Usage>emptyList() : Collections.unmodifiableList( new ArrayList<OneResourceAction.Usage>( resources ) );
+        }
+
+        public List<OneBuildAction.Items> getItems() {
+            return items;
+        }
+
+        /**
+         * @return true if the build has any items, false if only its timings were recorded
+         */
+        public boolean hasItems() {
+            return !items.isEmpty();
+        }
+
+        /**
+         * @return the durations in nanoseconds, by phase, in the order the phases ended
+         */
+        public Map<String, Long> getPhases() {
+            return phases;
+        }
+
+        /**
+         * @return the resources used by each step, in the order the steps ended
+         */
+        public List<OneResourceAction.Usage> getResources() {
+            return resources;
+        }
+    }
+
+    private final AbstractProject<?, ?> project;
+
+    /**
+     * Newest build first
+     */
+    private final ConcurrentSkipListMap<Integer, Entry> entries = new ConcurrentSkipListMap<Integer, Entry>( Collections.reverseOrder() );
+
+    private int watermark;
+    /**
+     * The highest build number in the archive
+     */
+    private int archived;
+    private int tombstones;
+    private volatile boolean ready;
+    private volatile long lastModified = System.currentTimeMillis();
+    private volatile long version;
+
+    /**
+     * Numbers deleted while a rebuild is in progress, so the rebuild doesn't bring them back
+     */
+    private Set<Integer> deletedDuringRebuild;
+
+    /**
+     * Only there once somebody has searched the project
+     */
+    private OneSearchIndex search;
+
+    private OneHistoryIndex( AbstractProject<?, ?> project ) {
+        this.project = project;
+    }
+
+    /**
+     * Creates an index holding the given entries, which is not backed by a project. It is ready at once, and can only be
+     * read from. Used by the benchmarks to measure reading from a large history without a running Jenkins.
+     */
+    static OneHistoryIndex detached( Collection<Entry> entries ) {
+        OneHistoryIndex index = new OneHistoryIndex( null );
+        for( Entry entry : entries ) {
+            index.entries.put( entry.number, entry );
+            index.watermark = Math.max( index.watermark, entry.number );
+        }
+        index.ready = true;
+        return index;
+    }
+
+    /**
+     * @return the index of the given project. The first call loads it from disk.
+     */
+    public static OneHistoryIndex forProject( AbstractProject<?, ?> project ) {
+        String key = project.getFullName();
+        OneHistoryIndex index = INDEXES.get( key );
+        if( index == null ) {
+            OneHistoryIndex fresh = new OneHistoryIndex( project );
+            index = INDEXES.putIfAbsent( key, fresh );
+            if( index == null ) {
+                index = fresh;
+                index.load();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds a completed build to the index of its project in the background, see {@link OneIndexWriter}. Projects that
+     * don't use the plugin don't get an index.
+     */
+    public static void onCompleted( final AbstractBuild<?, ?> build ) {
+        OneIndexWriter.submit( build.toString(), new Runnable() {
+            public void run() {
+                AbstractProject<?, ?> project = build.getProject();
+                if( build.getAction( OneBuildAction.class ) != null || build.getAction( OneTimingAction.class ) != null
+                        || build.getAction( OneResourceAction.class ) != null || hasIndex( project ) ) {
+                    forProject( project ).record( build );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Removes a deleted build from the index of its project, if it has one, in the background.
+     */
+    public static void onDeleted( final AbstractBuild<?, ?> build ) {
+        OneIndexWriter.submit( build.toString(), new Runnable() {
+            public void run() {
+                AbstractProject<?, ?> project = build.getProject();
+                if( hasIndex( project ) ) {
+                    forProject( project ).remove( build.getNumber() );
+                }
+            }
+        } );
+    }
+
+    static boolean hasIndex( AbstractProject<?, ?> project ) {
+        return INDEXES.containsKey( project.getFullName() ) || new File( project.getRootDir(), FILE_NAME ).exists()
+                || new File( project.getRootDir(), OneHistoryArchive.DIR_NAME ).isDirectory();
+    }
+
+    /**
+     * Forgets the in-memory index of a project, e.g. because it was renamed or deleted.
+     */
+    public static void evict( String fullName ) {
+        INDEXES.remove( fullName );
+    }
+
+    /**
+     * @return false while the index is being built, in which case it may be incomplete
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the time of the last change to the index
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return a number that changes whenever the index changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return all entries, newest build first
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection( entries.values() );
+    }
+
+    /**
+     * @param from the highest build number to include
+     * @param to the lowest build number to include
+     * @return the entries between the two numbers, both inclusive, newest first
+     */
+    public NavigableMap<Integer, Entry> getEntries( int from, int to ) {
+        return entries.subMap( from, true, to, true );
+    }
+
+    /**
+     * @return the newest entry having items, or null if there is none
+     */
+    public Entry getLast() {
+        for( Entry entry : entries.values() ) {
+            if( entry.hasItems() ) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param number the number of builds to return
+     * @return the items of the last builds having any, newest first
+     */
+    public List<List<OneBuildAction.Items>> getItems( int number ) {
+        List<List<OneBuildAction.Items>> list = new ArrayList<List<OneBuildAction.Items>>( number );
+        for( Entry entry : entries.values() ) {
+            if( list.size() == number ) {
+                break;
+            }
+            if( entry.hasItems() ) {
+                list.add( entry.getItems() );
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the search index of the items, built from the entries the first time
+     */
+    public synchronized OneSearchIndex getSearchIndex() {
+        if( search == null ) {
+            search = new OneSearchIndex( entries.values() );
+        }
+        return search;
+    }
+
+    /**
+     * Adds a completed build to the index.
+     */
+    public synchronized void record( AbstractBuild<?, ?> build ) {
+        Entry entry = toEntry( build );
+        if( entry != null ) {
+            entries.put( entry.number, entry );
+            if( search != null ) {
+                search.add( entry );
+            }
+            append( encode( entry ) );
+        } else {
+            append( "@" + build.getNumber() );
+        }
+        watermark = Math.max( watermark, build.getNumber() );
+        changed();
+    }
+
+    /**
+     * Removes a deleted build from the index.
+     */
+    public synchronized void remove( int number ) {
+        if( number <= archived ) {
+            //Keeping archived entries is the point of the archive
+            return;
+        }
+        if( deletedDuringRebuild != null ) {
+            deletedDuringRebuild.add( number );
+        }
+        if( entries.remove( number ) != null ) {
+            if( search != null && search.remove( number ) ) {
+                search = null;
+            }
+            append( "-" + number );
+            tombstones++;
+            changed();
+            if( tombstones > 100 && tombstones > entries.size() ) {
+                compact();
+            }
+        }
+    }
+
+    private void changed() {
+        version++;
+        lastModified = System.currentTimeMillis();
+    }
+
+    private File getFile() {
+        return new File( project.getRootDir(), FILE_NAME );
+    }
+
+    private File getArchiveDir() {
+        return new File( project.getRootDir(), OneHistoryArchive.DIR_NAME );
+    }
+
+    /**
+     * Moves the entries of builds started before the given time to a new segment of the archive, and drops them from
+     * the file. They are kept in memory.
+     * @param before the time in milliseconds
+     * @return the number of entries archived
+     */
+    public synchronized int archive( long before ) {
+        if( !ready ) {
+            return 0;
+        }
+
+        //Everything up to the newest old build is archived, so the archive always covers all builds up to a number
+        int upTo = archived;
+        for( Entry entry : entries.values() ) {
+            if( entry.timestamp < before ) {
+                upTo = Math.max( upTo, entry.number );
+            }
+        }
+        if( upTo == archived ) {
+            return 0;
+        }
+
+        //Only the items are archived, the timings of old builds are dropped with them
+        List<Entry> batch = new ArrayList<Entry>();
+        for( Entry entry : entries.subMap( upTo, true, archived, false ).descendingMap().values() ) {
+            if( entry.hasItems() ) {
+                batch.add( entry );
+            }
+        }
+        if( !batch.isEmpty() ) {
+            try {
+                OneHistoryArchive.append( getArchiveDir(), batch );
+            } catch( IOException e ) {
+                LOGGER.log( Level.WARNING, "Unable to archive the history of " + project.getFullName(), e );
+                return 0;
+            }
+        }
+        archived = upTo;
+        for( Iterator<Entry> it = entries.tailMap( archived, true ).values().iterator() ; it.hasNext() ; ) {
+            if( !it.next().hasItems() ) {
+                it.remove();
+            }
+        }
+        compact();
+        return batch.size();
+    }
+
+    private synchronized void load() {
+        //Searched before we got here, it is built again from what is loaded
+        search = null;
+        for( Entry entry : OneHistoryArchive.read( getArchiveDir() ) ) {
+            entries.put( entry.number, entry );
+            archived = Math.max( archived, entry.number );
+        }
+        watermark = archived;
+
+        File file = getFile();
+        try {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+            try {
+                String line;
+                while( ( line = reader.readLine() ) != null ) {
+                    apply( line );
+                }
+            } finally {
+                reader.close();
+            }
+        } catch( FileNotFoundException e ) {
+            LOGGER.fine( "No history index for " + project.getFullName() + ", building it" );
+            scheduleRebuild( archived );
+            return;
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to read " + file + ", rebuilding it", e );
+            entries.headMap( archived, false ).clear();
+            watermark = archived;
+            scheduleRebuild( archived );
+            return;
+        }
+
+        AbstractBuild<?, ?> last = project.getLastCompletedBuild();
+        if( last != null && last.getNumber() > watermark ) {
+            scheduleRebuild( watermark );
+        } else {
+            ready = true;
+        }
+    }
+
+    private void apply( String line ) {
+        try {
+            if( line.startsWith( "@" ) ) {
+                watermark = Math.max( watermark, Integer.parseInt( line.substring( 1 ) ) );
+            } else if( line.startsWith( "-" ) ) {
+                int number = Integer.parseInt( line.substring( 1 ) );
+                if( number > archived ) {
+                    entries.remove( number );
+                }
+                tombstones++;
+            } else if( line.length() > 0 ) {
+                Entry entry = decode( line );
+                //Left over if we stopped between archiving and rewriting the file
+                if( entry.number > archived ) {
+                    entries.put( entry.number, entry );
+                }
+                watermark = Math.max( watermark, entry.number );
+            }
+        } catch( RuntimeException e ) {
+            /* Most likely a line cut short by a crash */
+            LOGGER.fine( "Skipping malformed line in history index of " + project.getFullName() );
+        }
+    }
+
+    /**
+     * Reads all builds newer than the given number in the background, and merges them into the index.
+     */
+    private void scheduleRebuild( final int from ) {
+        ready = false;
+        deletedDuringRebuild = new HashSet<Integer>();
+        REBUILDER.submit( new Runnable() {
+            public void run() {
+                try {
+                    rebuild( from );
+                } catch( RuntimeException e ) {
+                    LOGGER.log( Level.WARNING, "Unable to rebuild the history index of " + project.getFullName(), e );
+                }
+            }
+        } );
+    }
+
+    private void rebuild( int from ) {
+        List<Entry> found = new ArrayList<Entry>();
+        int highest = from;
+        for( AbstractBuild<?, ?> b = project.getLastCompletedBuild() ; b != null && b.getNumber() > from ; b = b.getPreviousBuild() ) {
+            //Every build is loaded here anyway, so this is where the items of earlier versions are moved out of build.xml
+            OneBuildAction.migrate( b );
+            Entry entry = toEntry( b );
+            if( entry != null ) {
+                found.add( entry );
+            }
+            highest = Math.max( highest, b.getNumber() );
+        }
+
+        synchronized( this ) {
+            for( Entry entry : found ) {
+                if( !deletedDuringRebuild.contains( entry.number ) ) {
+                    /* Builds recorded while rebuilding are newer than what we found */
+                    if( entries.putIfAbsent( entry.number, entry ) == null ) {
+                        if( search != null ) {
+                            search.add( entry );
+                        }
+                        changed();
+                    }
+                }
+            }
+            watermark = Math.max( watermark, highest );
+            deletedDuringRebuild = null;
+            compact();
+            ready = true;
+        }
+        LOGGER.fine( "Rebuilt the history index of " + project.getFullName() + " with " + found.size() + " new entries" );
+    }
+
+    /**
+     * Rewrites the file with the current entries only.
+     */
+    private synchronized void compact() {
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter( getFile() );
+            try {
+                /* Oldest first, like it would have been appended. Archived entries are not written. */
+                for( Entry entry : entries.headMap( archived, false ).descendingMap().values() ) {
+                    writer.write( encode( entry ) );
+                    writer.write( '\n' );
+                }
+                writer.write( "@" + watermark + "\n" );
+                writer.commit();
+                tombstones = 0;
+            } finally {
+                writer.abort();
+            }
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to write the history index of " + project.getFullName(), e );
+        }
+    }
+
+    private void append( String line ) {
+        try {
+            Writer writer = new OutputStreamWriter( new FileOutputStream( getFile(), true ), "UTF-8" );
+            try {
+                writer.write( line );
+                writer.write( '\n' );
+            } finally {
+                writer.close();
+            }
+        } catch( IOException e ) {
+            LOGGER.log( Level.WARNING, "Unable to update the history index of " + project.getFullName(), e );
+        }
+    }
+
+    private static Entry toEntry( AbstractBuild<?, ?> build ) {
+        OneBuildAction action = OneBuildAction.of( build );
+        List<OneBuildAction.Items> items = action == null ? Collections.<OneBuildAction.Items>emptyList() : action.getItems();
+        OneTimingAction timing = build.getAction( OneTimingAction.class );
+        Map<String, Long> phases = timing == null ? Collections.<String, Long>emptyMap() : timing.getDurations();
+        OneResourceAction resources = build.getAction( OneResourceAction.class );
+        List<OneResourceAction.Usage> usage = resources == null ? Collections.<OneResourceAction.Usage>emptyList() : resources.getUsage();
+        if( items.isEmpty() && phases.isEmpty() && usage.isEmpty() ) {
+            return null;
+        }
+        return new Entry( build.getNumber(), build.getTimeInMillis(), build.getBuiltOnStr(), items, phases, usage );
+    }
+
+    static String encode( Entry entry ) {
+        StringBuilder sb = new StringBuilder();
+        sb.append( entry.number ).append( '\t' ).append( entry.timestamp ).append( '\t' ).append( escape( entry.node ) );
+        sb.append( '\t' ).append( entry.items.size() );
+        for( OneBuildAction.Items item : entry.items ) {
+            sb.append( '\t' ).append( escape( item.os ) );
+            sb.append( '\t' ).append( escape( item.string ) );
+            sb.append( '\t' ).append( escape( item.message ) );
+            Map<String, String> facts = item.getFacts();
+            sb.append( '\t' ).append( facts.size() );
+            for( Map.Entry<String, String> fact : facts.entrySet() ) {
+                sb.append( '\t' ).append( escape( fact.getKey() ) ).append( '\t' ).append( escape( fact.getValue() ) );
+            }
+        }
+        if( !entry.phases.isEmpty() || !entry.resources.isEmpty() ) {
+            sb.append( '\t' ).append( entry.phases.size() );
+            for( Map.Entry<String, Long> phase : entry.phases.entrySet() ) {
+                sb.append( '\t' ).append( escape( phase.getKey() ) ).append( '\t' ).append( phase.getValue() );
+            }
+        }
+        if( !entry.resources.isEmpty() ) {
+            sb.append( '\t' ).append( entry.resources.size() );
+            for( OneResourceAction.Usage usage : entry.resources ) {
+                sb.append( '\t' ).append( escape( usage.getStep() ) );
+                sb.append( '\t' ).append( usage.getCpuMillis() ).append( '\t' ).append( usage.getPeakRss() );
+                sb.append( '\t' ).append( usage.getReadBytes() ).append( '\t' ).append( usage.getWriteBytes() );
+            }
+        }
+        return sb.toString();
+    }
+
+    static Entry decode( String line ) {
+        String[] f = line.split( "\t", -1 );
+        int i = 0;
+        int number = Integer.parseInt( f[i++] );
+        long timestamp = Long.parseLong( f[i++] );
+        String node = unescape( f[i++] );
+        int count = Integer.parseInt( f[i++] );
+        List<OneBuildAction.Items> items = new ArrayList<OneBuildAction.Items>( count );
+        for( int j = 0 ; j < count ; j++ ) {
+            String os = unescape( f[i++] );
+            String string = unescape( f[i++] );
+            String message = unescape( f[i++] );
+            int factCount = Integer.parseInt( f[i++] );
+            Map<String, String> facts = new LinkedHashMap<String, String>();
+            for( int k = 0 ; k < factCount ; k++ ) {
+                String key = unescape( f[i++] );
+                facts.put( key, unescape( f[i++] ) );
+            }
+            items.add( new OneBuildAction.Items( os, string, message, facts ) );
+        }
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        if( i < f.length ) {
+            int phaseCount = Integer.parseInt( f[i++] );
+            for( int j = 0 ; j < phaseCount ; j++ ) {
+                String phase = unescape( f[i++] );
+                phases.put( phase, Long.parseLong( f[i++] ) );
+            }
+        }
+        List<OneResourceAction.Usage> resources = new ArrayList<OneResourceAction.Usage>();
+        if( i < f.length ) {
+            int stepCount = Integer.parseInt( f[i++] );
+            for( int j = 0 ; j < stepCount ; j++ ) {
+                String step = unescape( f[i++] );
+                long cpu = Long.parseLong( f[i++] );
+                long rss = Long.parseLong( f[i++] );
+                long read = Long.parseLong( f[i++] );
+                resources.add( new OneResourceAction.Usage( step, cpu, rss, read, Long.parseLong( f[i++] ) ) );
+            }
+        }
+        return new Entry( number, timestamp, node, items, phases, resources );
+    }
+
+    /**
+     * Escapes tabs, line breaks and backslashes. Null is written as a lone <code>\0</code>.
+     */
+    static String escape( String s ) {
+        if( s == null ) {
+            return "\\0";
+        }
+        StringBuilder sb = new StringBuilder( s.length() );
+        for( int i = 0 ; i < s.length() ; i++ ) {
+            char c = s.charAt( i );
+            switch( c ) {
+                case '\\': sb.append( "\\\\" ); break;
+                case '\t': sb.append( "\\t" ); break;
+                case '\n': sb.append( "\\n" ); break;
+                case '\r': sb.append( "\\r" ); break;
+                default: sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape( String s ) {
+        if( s.equals( "\\0" ) ) {
+            return null;
+        }
+        if( s.indexOf( '\\' ) < 0 ) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder( s.length() );
+        for( int i = 0 ; i < s.length() ; i++ ) {
+            char c = s.charAt( i );
+            if( c == '\\' && i + 1 < s.length() ) {
+                char n = s.charAt( ++i );
+                switch( n ) {
+                    case 't': sb.append( '\t' ); break;
+                    case 'n': sb.append( '\n' ); break;
+                    case 'r': sb.append( '\r' ); break;
+                    default: sb.append( n );
+                }
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+}
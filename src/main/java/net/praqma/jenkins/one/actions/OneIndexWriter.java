@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.util.DaemonThreadFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Updates the {@link OneHistoryIndex} of the projects and the {@link OneGlobalIndex} in the background, as builds
+ * complete or are deleted.
+ *
+ * The listeners are called on the executor thread of the build, which should not wait for the index files to be read
+ * or appended to. So they only hand the updates to this writer. The updates are applied one at a time, in the order
+ * they were handed over, so a build is always added before it is removed again. The indexes show a build a moment
+ * after it has completed.
+ *
+ * @author Praqma
+ */
+final class OneIndexWriter {
+
+    private static final Logger LOGGER = Logger.getLogger( OneIndexWriter.class.getName() );
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor( new DaemonThreadFactory() );
+
+    private OneIndexWriter() {
+    }
+
+    /**
+     * @param what what is updated, for the log
+     * @param update the update, applied after the ones submitted before it
+     */
+    static void submit( final String what, final Runnable update ) {
+        WRITER.execute( new Runnable() {
+            public void run() {
+                try {
+                    update.run();
+                } catch( RuntimeException e ) {
+                    LOGGER.log( Level.WARNING, "Unable to update the index with " + what, e );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Waits until the updates submitted so far have been applied. Used by the tests.
+     */
+    static void flush() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        WRITER.execute( new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        } );
+        done.await();
+    }
+}
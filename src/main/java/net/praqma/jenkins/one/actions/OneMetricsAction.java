@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.http.HttpServletResponse;
+import jenkins.model.Jenkins;
+import net.praqma.jenkins.one.events.EventJournal;
+import net.praqma.jenkins.one.events.EventPipeline;
+import net.praqma.jenkins.one.events.RunEvent;
+import net.praqma.jenkins.one.metrics.BuildMetrics;
+import net.praqma.jenkins.one.util.JsonWriter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * A root action is reachable from the root of Jenkins, here at <code>/one-metrics</code>. It has no icon, so it is not
+ * shown in the side panel.
+ *
+ * It exposes the {@link BuildMetrics} of the instance, at <code>/one-metrics/prometheus</code> for Prometheus to scrape
+ * and at <code>/one-metrics/json</code>. The Prometheus output also has the counters of the {@link EventPipeline}.
+ *
+ * The {@link EventJournal} can be replayed at <code>/one-metrics/journal</code>.
+ *
+ * All of them require the overall read permission. The series and events of a job are only shown to users who can
+ * read the job, those of the nodes to everybody.
+ *
+ * @author Praqma
+ */
+@Extension
+public class OneMetricsAction implements RootAction {
+
+    /**
+     * The default number of events returned from the journal
+     */
+    public static final long JOURNAL_LIMIT = 10000;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "One metrics";
+    }
+
+    public String getUrlName() {
+        return "one-metrics";
+    }
+
+    public void doPrometheus( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        Jenkins.getInstance().checkPermission( Jenkins.READ );
+        rsp.setContentType( "text/plain; version=0.0.4;charset=UTF-8" );
+        BuildMetrics.getInstance().writePrometheus( rsp.getWriter(), new ReadableJobs() );
+        EventPipeline.getInstance().writePrometheus( rsp.getWriter() );
+    }
+
+    public void doJson( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        Jenkins.getInstance().checkPermission( Jenkins.READ );
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        BuildMetrics.getInstance().writeJson( new JsonWriter( rsp.getWriter() ), new ReadableJobs() );
+    }
+
+    /**
+     * Streams the events of the journal as a JSON array, oldest first. The query parameters are all optional:
+     * <ul>
+     *     <li><code>from</code>: the earliest time to include, in milliseconds</li>
+     *     <li><code>to</code>: the latest time to include, in milliseconds</li>
+     *     <li><code>limit</code>: the maximum number of events, {@value #JOURNAL_LIMIT} by default</li>
+     * </ul>
+     */
+    public void doJournal( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        Jenkins.getInstance().checkPermission( Jenkins.READ );
+        if( !EventJournal.isEnabled() ) {
+            rsp.sendError( HttpServletResponse.SC_NOT_FOUND, "The journal is not enabled" );
+            return;
+        }
+        long from, to;
+        final long limit;
+        try {
+            from = getLongParameter( req, "from", 0 );
+            to = getLongParameter( req, "to", Long.MAX_VALUE );
+            limit = getLongParameter( req, "limit", JOURNAL_LIMIT );
+        } catch( NumberFormatException e ) {
+            rsp.sendError( HttpServletResponse.SC_BAD_REQUEST, "Parameters must be integers" );
+            return;
+        }
+
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        final Writer out = rsp.getWriter();
+        out.write( '[' );
+        final IOException[] failure = new IOException[1];
+        final ReadableJobs jobs = new ReadableJobs();
+        EventJournal.getInstance().scan( from, to, new EventJournal.Visitor() {
+            private long count;
+
+            public boolean visit( RunEvent event ) {
+                if( event.job != null && !jobs.accept( event.job ) ) {
+                    return true;
+                }
+                try {
+                    if( count > 0 ) {
+                        out.write( ",\n" );
+                    }
+                    out.write( event.toJson() );
+                } catch( IOException e ) {
+                    //The client went away
+                    failure[0] = e;
+                    return false;
+                }
+                return ++count < limit;
+            }
+        } );
+        if( failure[0] != null ) {
+            throw failure[0];
+        }
+        out.write( "]\n" );
+        out.flush();
+    }
+
+    private static long getLongParameter( StaplerRequest req, String name, long defaultValue ) {
+        String value = req.getParameter( name );
+        return value == null || value.length() == 0 ? defaultValue : Long.parseLong( value );
+    }
+}
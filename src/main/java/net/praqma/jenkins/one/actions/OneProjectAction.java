@@ -25,8 +25,19 @@ package net.praqma.jenkins.one.actions;
 
 
 import hudson.model.*;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpServletResponse;
+import net.praqma.jenkins.one.util.JsonWriter;
+import net.praqma.jenkins.one.util.Percentiles;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 /**
  * Class implementing actionable and ProminentProjectAction.
@@ -36,16 +47,327 @@ import java.util.List;
  * 
  * Opposite the build action(or just {@link Action}), the project action is NOT persisted.
  * 
+ * Jenkins asks for the project actions every time the job page is shown, so we hand out one instance per project
+ * through {@link #forProject(AbstractProject)}. The data shown by the views is computed once and kept in a {@link View},
+ * until the history index changes.
+ * 
  * @author Praqma
  */
 public class OneProjectAction extends Actionable implements ProminentProjectAction {
 
+    /**
+     * The number of builds shown on the project page
+     */
+    public static final int PAGE_SIZE = 2;
+
+    /**
+     * The default and maximum number of builds returned by {@link #doHistory(StaplerRequest, StaplerResponse)}
+     */
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    /**
+     * The number of builds the phase trends are computed over
+     */
+    public static final int TREND_BUILDS = 50;
+
+    private static final ConcurrentMap<String, OneProjectAction> ACTIONS = new ConcurrentHashMap<String, OneProjectAction>();
+
     public final AbstractProject<?,?> project;
+
+    private volatile View view;
+    private volatile Trends<PhaseTrend> phaseTrends;
+    private volatile Trends<ResourceTrend> resourceTrends;
     
     public OneProjectAction(AbstractProject<?,?> project) {
         this.project = project;
     }
 
+    /**
+     * @return the project action of the given project, created the first time it is asked for
+     */
+    public static OneProjectAction forProject( AbstractProject<?, ?> project ) {
+        String key = project.getFullName();
+        OneProjectAction action = ACTIONS.get( key );
+        if( action == null || action.project != project ) {
+            //Two threads may race here, which is harmless, one of them wins
+            action = new OneProjectAction( project );
+            ACTIONS.put( key, action );
+        }
+        return action;
+    }
+
+    /**
+     * Forgets the project action of a project, e.g. because it was renamed or deleted.
+     */
+    public static void evict( String fullName ) {
+        ACTIONS.remove( fullName );
+    }
+
+    /**
+     * Precomputed data for the views of a project.
+     */
+    public static class View {
+        private final long version;
+        private final List<OneBuildAction.Items> lastItems;
+        private final List<List<OneBuildAction.Items>> recentItems;
+
+        private View( long version, List<OneBuildAction.Items> lastItems, List<List<OneBuildAction.Items>> recentItems ) {
+            this.version = version;
+            this.lastItems = lastItems;
+            this.recentItems = Collections.unmodifiableList( recentItems );
+        }
+
+        /**
+         * @return the items of the last build having any, used by the floating box
+         */
+        public List<OneBuildAction.Items> getLastItems() {
+            return lastItems;
+        }
+
+        /**
+         * @return the items of the last {@link #PAGE_SIZE} builds having any, used by the project page
+         */
+        public List<List<OneBuildAction.Items>> getRecentItems() {
+            return recentItems;
+        }
+    }
+
+    /**
+     * Returns the data for the views. It is only computed again when a build has completed or been deleted since the last
+     * call.
+     *
+     * @return the view data
+     */
+    public View getView() {
+        OneHistoryIndex index = getIndex();
+        View current = view;
+        if( current != null && index.isReady() && current.version == index.getVersion() ) {
+            return current;
+        }
+
+        //Read the version before the data, so a change while computing makes us compute again next time
+        long version = index.isReady() ? index.getVersion() : -1;
+        List<List<OneBuildAction.Items>> recent = getItems( PAGE_SIZE );
+        List<OneBuildAction.Items> last = recent.isEmpty() ? Collections.<OneBuildAction.Items>emptyList() : recent.get( 0 );
+        current = new View( version, last, recent );
+        if( version >= 0 ) {
+            view = current;
+        }
+        return current;
+    }
+
+    /**
+     * Trends computed from the last builds, kept until the history index changes.
+     */
+    private static class Trends<T> {
+        private final long version;
+        private final List<T> rows;
+
+        private Trends( long version, List<T> rows ) {
+            this.version = version;
+            this.rows = Collections.unmodifiableList( rows );
+        }
+    }
+
+    /**
+     * The percentiles of the duration of one phase, over the last {@link #TREND_BUILDS} builds.
+     */
+    public static class PhaseTrend {
+        private final String phase;
+        private final Percentiles percentiles;
+
+        private PhaseTrend( String phase, Percentiles percentiles ) {
+            this.phase = phase;
+            this.percentiles = percentiles;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public int getCount() {
+            return percentiles.getCount();
+        }
+
+        public String getP50() {
+            return format( percentiles.getP50() );
+        }
+
+        public String getP95() {
+            return format( percentiles.getP95() );
+        }
+
+        public String getP99() {
+            return format( percentiles.getP99() );
+        }
+
+        private static String format( long nanos ) {
+            return String.format( "%.1f ms", nanos / 1e6 );
+        }
+    }
+
+    /**
+     * The timings are read from the {@link OneHistoryIndex}, no builds are loaded. While the index is being built there
+     * are no trends.
+     *
+     * @return the p50/p95/p99 of each phase recorded by {@link OneTimingAction}, over the last {@link #TREND_BUILDS}
+     * builds having timings
+     */
+    public List<PhaseTrend> getPhaseTrends() {
+        OneHistoryIndex index = getIndex();
+        if( !index.isReady() ) {
+            return Collections.emptyList();
+        }
+        long version = index.getVersion();
+        Trends<PhaseTrend> current = phaseTrends;
+        if( current != null && current.version == version ) {
+            return current.rows;
+        }
+
+        Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+        int count = 0;
+        for( OneHistoryIndex.Entry entry : index.getEntries() ) {
+            if( count == TREND_BUILDS ) {
+                break;
+            }
+            if( entry.getPhases().isEmpty() ) {
+                continue;
+            }
+            for( Map.Entry<String, Long> e : entry.getPhases().entrySet() ) {
+                List<Long> list = samples.get( e.getKey() );
+                if( list == null ) {
+                    list = new ArrayList<Long>();
+                    samples.put( e.getKey(), list );
+                }
+                list.add( e.getValue() );
+            }
+            count++;
+        }
+
+        List<PhaseTrend> rows = new ArrayList<PhaseTrend>( samples.size() );
+        for( Map.Entry<String, List<Long>> e : samples.entrySet() ) {
+            rows.add( new PhaseTrend( e.getKey(), new Percentiles( toArray( e.getValue() ) ) ) );
+        }
+        phaseTrends = new Trends<PhaseTrend>( version, rows );
+        return phaseTrends.rows;
+    }
+
+    /**
+     * The resources used by one build step, over the last {@link #TREND_BUILDS} builds.
+     */
+    public static class ResourceTrend {
+        private final String step;
+        private final Percentiles cpu;
+        private final Percentiles rss;
+        private final Percentiles io;
+
+        private ResourceTrend( String step, Percentiles cpu, Percentiles rss, Percentiles io ) {
+            this.step = step;
+            this.cpu = cpu;
+            this.rss = rss;
+            this.io = io;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public int getCount() {
+            return cpu.getCount();
+        }
+
+        public String getCpuP50() {
+            return String.format( "%.1f s", cpu.getP50() / 1e3 );
+        }
+
+        public String getCpuP95() {
+            return String.format( "%.1f s", cpu.getP95() / 1e3 );
+        }
+
+        public String getRssP95() {
+            return formatBytes( rss.getP95() );
+        }
+
+        public String getRssMax() {
+            return formatBytes( rss.getMax() );
+        }
+
+        public String getIoP50() {
+            return formatBytes( io.getP50() );
+        }
+
+        private static String formatBytes( long bytes ) {
+            return String.format( "%.1f MB", bytes / ( 1024.0 * 1024.0 ) );
+        }
+    }
+
+    /**
+     * Like the phase trends, these are read from the {@link OneHistoryIndex}.
+     *
+     * @return the cpu time, peak memory and I/O of each step recorded by {@link OneResourceAction}, over the last
+     * {@link #TREND_BUILDS} builds having any
+     */
+    public List<ResourceTrend> getResourceTrends() {
+        OneHistoryIndex index = getIndex();
+        if( !index.isReady() ) {
+            return Collections.emptyList();
+        }
+        long version = index.getVersion();
+        Trends<ResourceTrend> current = resourceTrends;
+        if( current != null && current.version == version ) {
+            return current.rows;
+        }
+
+        //The cpu time, peak and bytes of each step
+        Map<String, List<Long>[]> samples = new LinkedHashMap<String, List<Long>[]>();
+        int count = 0;
+        for( OneHistoryIndex.Entry entry : index.getEntries() ) {
+            if( count == TREND_BUILDS ) {
+                break;
+            }
+            if( entry.getResources().isEmpty() ) {
+                continue;
+            }
+            for( OneResourceAction.Usage usage : entry.getResources() ) {
+                List<Long>[] lists = samples.get( usage.getStep() );
+                if( lists == null ) {
+                    lists = newLists( 3 );
+                    samples.put( usage.getStep(), lists );
+                }
+                lists[0].add( usage.getCpuMillis() );
+                lists[1].add( usage.getPeakRss() );
+                lists[2].add( usage.getReadBytes() + usage.getWriteBytes() );
+            }
+            count++;
+        }
+
+        List<ResourceTrend> rows = new ArrayList<ResourceTrend>( samples.size() );
+        for( Map.Entry<String, List<Long>[]> e : samples.entrySet() ) {
+            List<Long>[] lists = e.getValue();
+            rows.add( new ResourceTrend( e.getKey(), new Percentiles( toArray( lists[0] ) ), new Percentiles( toArray( lists[1] ) ), new Percentiles( toArray( lists[2] ) ) ) );
+        }
+        resourceTrends = new Trends<ResourceTrend>( version, rows );
+        return resourceTrends.rows;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static List<Long>[] newLists( int n ) {
+        List<Long>[] lists = new List[n];
+        for( int i = 0 ; i < n ; i++ ) {
+            lists[i] = new ArrayList<Long>();
+        }
+        return lists;
+    }
+
+    private static long[] toArray( List<Long> list ) {
+        long[] array = new long[list.size()];
+        for( int i = 0 ; i < array.length ; i++ ) {
+            array[i] = list.get( i );
+        }
+        return array;
+    }
+
     @Override
     public synchronized List<Action> getActions() {
         return super.getActions();
@@ -85,13 +407,29 @@ public class OneProjectAction extends Actionable implements ProminentProjectActi
         return "oneprojectaction";
     }
 
+    /**
+     * @return the history index of this project
+     */
+    public OneHistoryIndex getIndex() {
+        return OneHistoryIndex.forProject( project );
+    }
+
     /**
      * 
      * @return the last build action associated with this project. 
      */
     public OneBuildAction getLastAction() {
+        OneHistoryIndex index = getIndex();
+        if( index.isReady() ) {
+            //Only the build we need is loaded
+            OneHistoryIndex.Entry last = index.getLast();
+            AbstractBuild<?, ?> build = last == null ? null : project.getBuildByNumber( last.number );
+            return build == null ? null : OneBuildAction.of( build );
+        }
+
+        //The index is being built, find it the slow way
         for( AbstractBuild<?, ?> b = project.getLastCompletedBuild() ; b != null ; b = b.getPreviousBuild() ) {
-            OneBuildAction action = b.getAction( OneBuildAction.class );
+            OneBuildAction action = OneBuildAction.of( b );
             if( action != null ) {
                 return action;
             }
@@ -107,10 +445,16 @@ public class OneProjectAction extends Actionable implements ProminentProjectActi
      * @return a List containing a list of Action items picked up during build 
      */
     public List<List<OneBuildAction.Items>> getItems( int number ) {
+        OneHistoryIndex index = getIndex();
+        if( index.isReady() ) {
+            return index.getItems( number );
+        }
+
+        //The index is being built, find them the slow way
         List<List<OneBuildAction.Items>> list = new ArrayList<List<OneBuildAction.Items>>( number );
 
         for( AbstractBuild<?, ?> b = project.getLastCompletedBuild() ; b != null ; b = b.getPreviousBuild() ) {
-            OneBuildAction action = b.getAction( OneBuildAction.class );
+            OneBuildAction action = OneBuildAction.of( b );
             if( action != null ) {
                 list.add( action.getItems() );
 
@@ -123,4 +467,175 @@ public class OneProjectAction extends Actionable implements ProminentProjectActi
         return list;
     }
 
+    /**
+     * Serves the item history as JSON at <code>jenkins/job/jobname/oneprojectaction/history</code>, newest build first.
+     *
+     * The query parameters are all optional:
+     * <ul>
+     *     <li><code>from</code>: the highest build number to include</li>
+     *     <li><code>to</code>: the lowest build number to include</li>
+     *     <li><code>limit</code>: the maximum number of builds to return, at most {@value #MAX_LIMIT}</li>
+     *     <li><code>cursor</code>: the <code>next</code> value of the previous page</li>
+     * </ul>
+     *
+     * The response is written as it is read from the index. The ETag and Last-Modified headers change whenever the
+     * index does, so clients polling with If-None-Match or If-Modified-Since get a 304 when nothing has changed.
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException
+     */
+    public void doHistory( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        OneHistoryIndex index = getIndex();
+        if( !index.isReady() ) {
+            rsp.setHeader( "Retry-After", "5" );
+            rsp.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The history index is being built" );
+            return;
+        }
+
+        int from, to, limit, cursor;
+        try {
+            from = getIntParameter( req, "from", Integer.MAX_VALUE );
+            to = getIntParameter( req, "to", 0 );
+            limit = Math.min( getIntParameter( req, "limit", DEFAULT_LIMIT ), MAX_LIMIT );
+            cursor = getIntParameter( req, "cursor", Integer.MAX_VALUE );
+        } catch( NumberFormatException e ) {
+            rsp.sendError( HttpServletResponse.SC_BAD_REQUEST, "Parameters must be integers" );
+            return;
+        }
+
+        //Both change whenever the index does. The modification time also tells instances apart across restarts.
+        long lastModified = index.getLastModified();
+        String etag = "\"" + Long.toHexString( lastModified ) + "-" + Long.toHexString( index.getVersion() ) + "\"";
+        rsp.setHeader( "ETag", etag );
+        rsp.setDateHeader( "Last-Modified", lastModified );
+
+        String ifNoneMatch = req.getHeader( "If-None-Match" );
+        long ifModifiedSince = req.getDateHeader( "If-Modified-Since" );
+        if( ifNoneMatch != null ? ifNoneMatch.equals( etag ) : ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000 ) {
+            rsp.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        JsonWriter json = new JsonWriter( rsp.getWriter() );
+        json.beginObject().name( "builds" ).beginArray();
+
+        int upper = Math.min( from, cursor == Integer.MAX_VALUE ? Integer.MAX_VALUE : cursor - 1 );
+        Integer next = null;
+        if( upper >= to && limit > 0 ) {
+            int count = 0;
+            int written = 0;
+            for( OneHistoryIndex.Entry entry : index.getEntries( upper, to ).values() ) {
+                //Builds with only timings have no history to show
+                if( !entry.hasItems() ) {
+                    continue;
+                }
+                if( count == limit ) {
+                    next = written;
+                    break;
+                }
+                writeEntry( json, entry );
+                written = entry.number;
+                count++;
+            }
+        }
+
+        json.endArray().name( "next" );
+        if( next != null ) {
+            json.value( next );
+        } else {
+            json.nullValue();
+        }
+        json.endObject().flush();
+    }
+
+    /**
+     * Finds the builds whose items mention the given words, see {@link OneSearchIndex}. Served as JSON at
+     * <code>jenkins/job/jobname/oneprojectaction/search?q=...</code>, newest build first.
+     *
+     * The query parameters are:
+     * <ul>
+     *     <li><code>q</code>: the words to look for</li>
+     *     <li><code>offset</code>: the number of matching builds to skip, optional</li>
+     *     <li><code>limit</code>: the maximum number of builds to return, at most {@value #MAX_LIMIT}, optional</li>
+     * </ul>
+     *
+     * The response has the total number of matching builds, the build numbers of the page and the offset of the next
+     * page, or null if this is the last.
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException
+     */
+    public void doSearch( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+        OneHistoryIndex index = getIndex();
+        if( !index.isReady() ) {
+            rsp.setHeader( "Retry-After", "5" );
+            rsp.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The history index is being built" );
+            return;
+        }
+
+        String query = req.getParameter( "q" );
+        if( query == null || query.trim().length() == 0 ) {
+            rsp.sendError( HttpServletResponse.SC_BAD_REQUEST, "The query parameter q is required" );
+            return;
+        }
+        int offset, limit;
+        try {
+            offset = Math.max( getIntParameter( req, "offset", 0 ), 0 );
+            limit = Math.max( Math.min( getIntParameter( req, "limit", DEFAULT_LIMIT ), MAX_LIMIT ), 0 );
+        } catch( NumberFormatException e ) {
+            rsp.sendError( HttpServletResponse.SC_BAD_REQUEST, "Parameters must be integers" );
+            return;
+        }
+
+        OneSearchIndex.Result result = index.getSearchIndex().search( query, offset, limit );
+
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        JsonWriter json = new JsonWriter( rsp.getWriter() );
+        json.beginObject();
+        json.name( "query" ).value( query );
+        json.name( "total" ).value( result.getTotal() );
+        json.name( "builds" ).beginArray();
+        int[] numbers = result.getNumbers();
+        for( int number : numbers ) {
+            json.value( number );
+        }
+        json.endArray().name( "next" );
+        if( offset + numbers.length < result.getTotal() ) {
+            json.value( offset + numbers.length );
+        } else {
+            json.nullValue();
+        }
+        json.endObject().flush();
+    }
+
+    private static int getIntParameter( StaplerRequest req, String name, int defaultValue ) {
+        String value = req.getParameter( name );
+        return value == null || value.length() == 0 ? defaultValue : Integer.parseInt( value );
+    }
+
+    private static void writeEntry( JsonWriter json, OneHistoryIndex.Entry entry ) throws IOException {
+        json.beginObject();
+        json.name( "number" ).value( entry.number );
+        json.name( "timestamp" ).value( entry.timestamp );
+        json.name( "node" ).value( entry.node );
+        json.name( "items" ).beginArray();
+        for( OneBuildAction.Items item : entry.getItems() ) {
+            json.beginObject();
+            json.name( "os" ).value( item.os );
+            json.name( "string" ).value( item.string );
+            json.name( "message" ).value( item.message );
+            json.name( "facts" ).beginObject();
+            for( Map.Entry<String, String> fact : item.getFacts().entrySet() ) {
+                json.name( fact.getKey() ).value( fact.getValue() );
+            }
+            json.endObject();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
 }
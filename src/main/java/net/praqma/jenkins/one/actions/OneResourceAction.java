@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The resources used by the processes of each build step, recorded by the
+ * {@link net.praqma.jenkins.one.build.ProcessProfiler} of {@link net.praqma.jenkins.one.build.OneBuildWrapper}.
+ *
+ * The steps are named like the steps of {@link OneTimingAction}, so the two can be shown side by side. Each step has
+ * the cpu time, the peak resident memory and the bytes read and written of the processes started by the step and their
+ * children. Like the timing action, the usage is persisted as parallel arrays.
+ *
+ * This action has no icon or page of its own. The trends are shown by {@link OneProjectAction}.
+ *
+ * @author Praqma
+ */
+public class OneResourceAction implements Action {
+
+    private String[] steps = new String[0];
+    private long[] cpuMillis = new long[0];
+    private long[] peakRss = new long[0];
+    private long[] readBytes = new long[0];
+    private long[] writeBytes = new long[0];
+
+    /**
+     * The usage of a single step
+     */
+    public static class Usage {
+        private final String step;
+        private final long cpuMillis;
+        private final long peakRss;
+        private final long readBytes;
+        private final long writeBytes;
+
+        public Usage( String step, long cpuMillis, long peakRss, long readBytes, long writeBytes ) {
+            this.step = step;
+            this.cpuMillis = cpuMillis;
+            this.peakRss = peakRss;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        /**
+         * @return the user and system cpu time in milliseconds
+         */
+        public long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        /**
+         * @return the peak resident memory in bytes
+         */
+        public long getPeakRss() {
+            return peakRss;
+        }
+
+        public long getReadBytes() {
+            return readBytes;
+        }
+
+        public long getWriteBytes() {
+            return writeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return step + ": cpu " + cpuMillis + " ms, peak rss " + peakRss + " bytes, read " + readBytes + " bytes, written " + writeBytes + " bytes";
+        }
+    }
+
+    /**
+     * @return the resource action of the build, adding one if there is none
+     */
+    public static OneResourceAction getOrCreate( AbstractBuild<?, ?> build ) {
+        OneResourceAction action = build.getAction( OneResourceAction.class );
+        if( action != null ) {
+            return action;
+        }
+        synchronized( build ) {
+            action = build.getAction( OneResourceAction.class );
+            if( action == null ) {
+                action = new OneResourceAction();
+                build.addAction( action );
+            }
+            return action;
+        }
+    }
+
+    /**
+     * Records the usage of a step. If the step has already been recorded, the cpu time and bytes are added up, and the
+     * largest peak is kept.
+     */
+    public synchronized void add( Usage usage ) {
+        for( int i = 0 ; i < steps.length ; i++ ) {
+            if( steps[i].equals( usage.step ) ) {
+                cpuMillis[i] += usage.cpuMillis;
+                peakRss[i] = Math.max( peakRss[i], usage.peakRss );
+                readBytes[i] += usage.readBytes;
+                writeBytes[i] += usage.writeBytes;
+                return;
+            }
+        }
+        int n = steps.length + 1;
+        steps = Arrays.copyOf( steps, n );
+        cpuMillis = Arrays.copyOf( cpuMillis, n );
+        peakRss = Arrays.copyOf( peakRss, n );
+        readBytes = Arrays.copyOf( readBytes, n );
+        writeBytes = Arrays.copyOf( writeBytes, n );
+        steps[n - 1] = usage.step;
+        cpuMillis[n - 1] = usage.cpuMillis;
+        peakRss[n - 1] = usage.peakRss;
+        readBytes[n - 1] = usage.readBytes;
+        writeBytes[n - 1] = usage.writeBytes;
+    }
+
+    /**
+     * @return the usage of every step, in the order the steps ended
+     */
+    public synchronized List<Usage> getUsage() {
+        List<Usage> list = new ArrayList<Usage>( steps.length );
+        for( int i = 0 ; i < steps.length ; i++ ) {
+            list.add( new Usage( steps[i], cpuMillis[i], peakRss[i], readBytes[i], writeBytes[i] ) );
+        }
+        return Collections.unmodifiableList( list );
+    }
+
+    protected Object readResolve() {
+        int n = steps == null ? -1 : steps.length;
+        if( n < 0 || cpuMillis == null || cpuMillis.length != n || peakRss == null || peakRss.length != n
+                || readBytes == null || readBytes.length != n || writeBytes == null || writeBytes.length != n ) {
+            steps = new String[0];
+            cpuMillis = new long[0];
+            peakRss = new long[0];
+            readBytes = new long[0];
+            writeBytes = new long[0];
+        }
+        return this;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "One resource action";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index of the items of a project, finding the builds whose items mention a word without loading any builds.
+ *
+ * The os, java version string and message of the items of each {@link OneHistoryIndex.Entry} are split into words,
+ * and every word points to the numbers of the builds having it. The index is built from the history index the first time
+ * a project is searched, and kept up to date by it from then on. It is only kept in memory, since it is cheap to build
+ * from the history index, which is.
+ *
+ * Deleted builds are only marked as such, and left out of the results. The history index drops the search index when
+ * more than half of the builds in it are deleted, so it is built anew the next time.
+ *
+ * A query is one or more words, and a build matches if its items have a word starting with each of them, ignoring case.
+ * "1.7" matches <code>java version "1.7.0_80"</code>, but "7.0" doesn't. Words are made of letters, digits, dots,
+ * underscores and dashes.
+ *
+ * @author Praqma
+ */
+public class OneSearchIndex {
+
+    /**
+     * A growing list of build numbers
+     */
+    private static class Postings {
+        private int[] numbers = new int[4];
+        private int size;
+
+        private void add( int number ) {
+            if( size == numbers.length ) {
+                numbers = Arrays.copyOf( numbers, size * 2 );
+            }
+            numbers[size++] = number;
+        }
+
+        private void addTo( BitSet set ) {
+            for( int i = 0 ; i < size ; i++ ) {
+                set.set( numbers[i] );
+            }
+        }
+    }
+
+    /**
+     * The result of a query, newest build first
+     */
+    public static class Result {
+        private final int total;
+        private final int[] numbers;
+
+        private Result( int total, int[] numbers ) {
+            this.total = total;
+            this.numbers = numbers;
+        }
+
+        /**
+         * @return the number of matching builds, also the ones not on this page
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the numbers of the matching builds on this page, newest first
+         */
+        public int[] getNumbers() {
+            return numbers.clone();
+        }
+    }
+
+    /**
+     * The number of bits counted at a time when skipping to a page
+     */
+    private static final int BLOCK = 4096;
+
+    private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+
+    /**
+     * The builds in the index which have not been deleted
+     */
+    private final BitSet live = new BitSet();
+    private int deleted;
+
+    /**
+     * Creates an index of the given entries.
+     */
+    OneSearchIndex( Collection<OneHistoryIndex.Entry> entries ) {
+        for( OneHistoryIndex.Entry entry : entries ) {
+            add( entry );
+        }
+    }
+
+    /**
+     * Adds the words of a build. A build already in the index, or without items, is not added.
+     */
+    synchronized void add( OneHistoryIndex.Entry entry ) {
+        if( !entry.hasItems() || live.get( entry.number ) ) {
+            return;
+        }
+        live.set( entry.number );
+        for( String word : getWords( entry ) ) {
+            Postings postings = words.get( word );
+            if( postings == null ) {
+                postings = new Postings();
+                words.put( word, postings );
+            }
+            postings.add( entry.number );
+        }
+    }
+
+    /**
+     * Marks a build as deleted.
+     *
+     * @return true if more than half of the builds in the index are deleted, and it should be built anew
+     */
+    synchronized boolean remove( int number ) {
+        if( live.get( number ) ) {
+            live.clear( number );
+            deleted++;
+        }
+        return deleted > 1000 && deleted > live.cardinality();
+    }
+
+    /**
+     * @param query the words to look for
+     * @param offset the number of matching builds to skip, newest first
+     * @param limit the maximum number of builds to return
+     * @return the matching builds, or no builds if the query has no words
+     */
+    public synchronized Result search( String query, int offset, int limit ) {
+        List<String> terms = tokenize( query );
+        if( terms.isEmpty() ) {
+            return new Result( 0, new int[0] );
+        }
+
+        BitSet matches = (BitSet) live.clone();
+        for( String term : terms ) {
+            //All words starting with the term
+            BitSet union = new BitSet();
+            for( Postings postings : words.subMap( term, term + Character.MAX_VALUE ).values() ) {
+                postings.addTo( union );
+            }
+            matches.and( union );
+            if( matches.isEmpty() ) {
+                break;
+            }
+        }
+
+        //BitSet can only be walked upwards, so the page is counted from the top
+        int total = matches.cardinality();
+        int skip = Math.max( total - offset - limit, 0 );
+        int count = Math.max( Math.min( limit, total - offset ), 0 );
+        int[] numbers = new int[count];
+        int bit = count > 0 ? nth( matches, skip ) : -1;
+        for( int i = count - 1 ; i >= 0 ; i-- ) {
+            numbers[i] = bit;
+            bit = matches.nextSetBit( bit + 1 );
+        }
+        return new Result( total, numbers );
+    }
+
+    /**
+     * Finds the n-th set bit, counting from 0, skipping whole blocks of bits where it can.
+     */
+    private static int nth( BitSet set, int n ) {
+        int from = 0;
+        int length = set.length();
+        while( from + BLOCK < length ) {
+            int count = set.get( from, from + BLOCK ).cardinality();
+            if( count > n ) {
+                break;
+            }
+            n -= count;
+            from += BLOCK;
+        }
+        int bit = set.nextSetBit( from );
+        for( int i = 0 ; i < n ; i++ ) {
+            bit = set.nextSetBit( bit + 1 );
+        }
+        return bit;
+    }
+
+    private static Set<String> getWords( OneHistoryIndex.Entry entry ) {
+        Set<String> set = new HashSet<String>();
+        for( OneBuildAction.Items item : entry.getItems() ) {
+            set.addAll( tokenize( item.os ) );
+            set.addAll( tokenize( item.string ) );
+            set.addAll( tokenize( item.message ) );
+        }
+        return set;
+    }
+
+    /**
+     * @return the words of the text, lower case
+     */
+    static List<String> tokenize( String text ) {
+        List<String> list = new ArrayList<String>();
+        if( text == null ) {
+            return list;
+        }
+        int start = -1;
+        for( int i = 0 ; i <= text.length() ; i++ ) {
+            char c = i < text.length() ? text.charAt( i ) : ' ';
+            boolean part = Character.isLetterOrDigit( c ) || c == '.' || c == '_' || c == '-';
+            if( part && start < 0 ) {
+                start = i;
+            } else if( !part && start >= 0 ) {
+                String word = trim( text.substring( start, i ) );
+                if( word.length() > 0 ) {
+                    list.add( word.toLowerCase( Locale.ENGLISH ) );
+                }
+                start = -1;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Strips the punctuation ending a sentence, e.g. the dot of "Done."
+     */
+    private static String trim( String word ) {
+        int end = word.length();
+        while( end > 0 && !Character.isLetterOrDigit( word.charAt( end - 1 ) ) ) {
+            end--;
+        }
+        return word.substring( 0, end );
+    }
+
+    /**
+     * @return the number of distinct words, for diagnostics
+     */
+    public synchronized int getWordCount() {
+        return words.size();
+    }
+
+    /**
+     * @return the number of builds whose words are in the index, for diagnostics
+     */
+    public synchronized int getBuildCount() {
+        return live.cardinality();
+    }
+}
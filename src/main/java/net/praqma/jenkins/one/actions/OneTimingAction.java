@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The time spent in each phase of a build, recorded by {@link net.praqma.jenkins.one.build.OneBuildWrapper}.
+ *
+ * The phases are the checkout, the wait for a permit to build, the build phase as a whole, each process started by the
+ * build steps, numbered in the order they were started, and the teardown, which covers the post build steps. Durations are measured with
+ * {@link System#nanoTime()} and persisted as two parallel arrays, which keeps the build record small.
+ *
+ * This action has no icon or page of its own. The trends are shown by {@link OneProjectAction}.
+ *
+ * @author Praqma
+ */
+public class OneTimingAction implements Action {
+
+    public static final String CHECKOUT = "checkout";
+    public static final String THROTTLE = "throttle";
+    public static final String BUILD = "build";
+    public static final String STEP = "step ";
+    public static final String TEARDOWN = "teardown";
+
+    private String[] phases = new String[0];
+    private long[] durations = new long[0];
+
+    /**
+     * Start times of the phases in progress, only while building
+     */
+    private transient Map<String, Long> running;
+    private transient int steps;
+
+    /**
+     * @return the timing action of the build, adding one if there is none
+     */
+    public static OneTimingAction getOrCreate( AbstractBuild<?, ?> build ) {
+        OneTimingAction action = build.getAction( OneTimingAction.class );
+        if( action != null ) {
+            return action;
+        }
+        synchronized( build ) {
+            action = build.getAction( OneTimingAction.class );
+            if( action == null ) {
+                action = new OneTimingAction();
+                build.addAction( action );
+            }
+            return action;
+        }
+    }
+
+    public synchronized void start( String phase ) {
+        if( running == null ) {
+            running = new HashMap<String, Long>();
+        }
+        running.put( phase, System.nanoTime() );
+    }
+
+    /**
+     * Ends a phase started with {@link #start(String)}. Does nothing if the phase isn't running.
+     */
+    public synchronized void stop( String phase ) {
+        Long started = running == null ? null : running.remove( phase );
+        if( started != null ) {
+            add( phase, System.nanoTime() - started );
+        }
+    }
+
+    public synchronized boolean isRunning( String phase ) {
+        return running != null && running.containsKey( phase );
+    }
+
+    /**
+     * @return the name of the next build step, "step 1", "step 2" and so on
+     */
+    public synchronized String nextStep() {
+        return STEP + ( ++steps );
+    }
+
+    /**
+     * Records the duration of a phase. If the phase has already been recorded, the durations are added up.
+     * @param phase the name of the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public synchronized void add( String phase, long nanos ) {
+        for( int i = 0 ; i < phases.length ; i++ ) {
+            if( phases[i].equals( phase ) ) {
+                durations[i] += nanos;
+                return;
+            }
+        }
+        phases = Arrays.copyOf( phases, phases.length + 1 );
+        durations = Arrays.copyOf( durations, durations.length + 1 );
+        phases[phases.length - 1] = phase;
+        durations[durations.length - 1] = nanos;
+    }
+
+    /**
+     * @return the durations in nanoseconds, by phase, in the order the phases ended
+     */
+    public synchronized Map<String, Long> getDurations() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for( int i = 0 ; i < phases.length ; i++ ) {
+            map.put( phases[i], durations[i] );
+        }
+        return Collections.unmodifiableMap( map );
+    }
+
+    protected Object readResolve() {
+        if( phases == null || durations == null || phases.length != durations.length ) {
+            phases = new String[0];
+            durations = new long[0];
+        }
+        return this;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "One timing action";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
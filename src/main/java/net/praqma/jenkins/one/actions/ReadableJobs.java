@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import hudson.model.Item;
+import java.util.HashMap;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import net.praqma.jenkins.one.metrics.BuildMetrics;
+
+/**
+ * Accepts the jobs the current user can read, by their full names. Jobs that no longer exist are left out. Each job
+ * is only looked up once, so a filter should not outlive the request it was made for.
+ *
+ * @author Praqma
+ */
+class ReadableJobs implements BuildMetrics.JobFilter {
+
+    private final Map<String, Boolean> readable = new HashMap<String, Boolean>();
+
+    public boolean accept( String job ) {
+        Boolean result = readable.get( job );
+        if( result == null ) {
+            Item item = Jenkins.getInstance().getItemByFullName( job );
+            result = item != null && item.hasPermission( Item.READ );
+            readable.put( job, result );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.util.DaemonThreadFactory;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An output stream collecting many small writes into fewer large ones, used by {@link OneBuildWrapper} to decorate
+ * the build log.
+ *
+ * The build log is printed to with println, and the print stream flushes on every line, so every line becomes a write
+ * of its own. This stream therefore doesn't pass on {@link #flush()} right away. Instead, the buffered bytes are
+ * written when the buffer is full, or when the oldest of them has waited for the window, whichever comes first. The
+ * log is never more than the window behind.
+ *
+ * The stream sits on the master, in front of the log file of the build, so what it saves are writes to that file. It
+ * does not save round trips over the remoting channel: the output of a process on an agent is sent to the master as
+ * it is produced, and only reaches this stream once it has arrived.
+ *
+ * Everything is written in order, and {@link #drain()} and {@link #close()} write all that is buffered. Jenkins closes
+ * the log when the build is done, also when it is aborted. If a write from the timer fails, the failure is thrown from
+ * the next call.
+ *
+ * @author Praqma
+ */
+public class CoalescingOutputStream extends FilterOutputStream {
+
+    private static final Logger logger = Logger.getLogger( CoalescingOutputStream.class.getName() );
+
+    /**
+     * Used when no buffer size is given
+     */
+    public static final int DEFAULT_SIZE = 8192;
+
+    /**
+     * Used when no window is given, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW = 200;
+
+    /**
+     * One thread writes the buffers of all streams whose window has passed
+     */
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory() );
+
+    private final byte[] buffer;
+    private final long window;
+    private int count;
+    private boolean scheduled;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param out the stream to write to
+     * @param size the size of the buffer in bytes, {@link #DEFAULT_SIZE} if 0 or less
+     * @param window the time in milliseconds bytes may wait in the buffer, {@link #DEFAULT_WINDOW} if 0 or less
+     */
+    public CoalescingOutputStream( OutputStream out, int size, long window ) {
+        super( out );
+        this.buffer = new byte[size > 0 ? size : DEFAULT_SIZE];
+        this.window = window > 0 ? window : DEFAULT_WINDOW;
+    }
+
+    @Override
+    public synchronized void write( int b ) throws IOException {
+        ensureOpen();
+        if( count == buffer.length ) {
+            writeBuffer();
+        }
+        buffer[count++] = (byte) b;
+        schedule();
+    }
+
+    @Override
+    public synchronized void write( byte[] b, int off, int len ) throws IOException {
+        ensureOpen();
+        if( len > buffer.length - count ) {
+            writeBuffer();
+        }
+        if( len >= buffer.length ) {
+            //Larger than the buffer, nothing to gain from copying it
+            out.write( b, off, len );
+            return;
+        }
+        System.arraycopy( b, off, buffer, count, len );
+        count += len;
+        schedule();
+    }
+
+    /**
+     * Does not write anything, the buffer is written within the window anyway. See {@link #drain()}.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+    }
+
+    /**
+     * Writes and flushes everything buffered right away.
+     */
+    public synchronized void drain() throws IOException {
+        ensureOpen();
+        writeBuffer();
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if( closed ) {
+            return;
+        }
+        try {
+            writeBuffer();
+            out.flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if( closed ) {
+            throw new IOException( "Stream closed" );
+        }
+        if( failure != null ) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if( count > 0 ) {
+            out.write( buffer, 0, count );
+            count = 0;
+        }
+    }
+
+    /**
+     * Makes sure the buffer is written within the window. Only the first byte of an empty buffer starts the clock.
+     */
+    private void schedule() {
+        if( !scheduled && count > 0 ) {
+            scheduled = true;
+            timer.schedule( new Runnable() {
+                public void run() {
+                    synchronized( CoalescingOutputStream.this ) {
+                        scheduled = false;
+                        if( closed ) {
+                            return;
+                        }
+                        try {
+                            writeBuffer();
+                            out.flush();
+                        } catch( IOException e ) {
+                            logger.log( Level.FINE, "Unable to write the buffer", e );
+                            failure = e;
+                        }
+                    }
+                }
+            }, window, TimeUnit.MILLISECONDS );
+        }
+    }
+}
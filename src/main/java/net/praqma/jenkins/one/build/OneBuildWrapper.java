@@ -25,26 +25,100 @@ package net.praqma.jenkins.one.build;
 
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
 import hudson.tasks.BuildWrapper;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import net.praqma.jenkins.one.actions.OneResourceAction;
+import net.praqma.jenkins.one.actions.OneTimingAction;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
  * This class wraps all build steps in the Build phase.
  * 
+ * The wrapper records how long the checkout, the build phase, each process started by the build steps and the teardown
+ * take, in a {@link OneTimingAction} on the build.
+ * 
+ * Optionally, a {@link WorkspaceSnapshot} is restored into a missing or empty workspace before the checkout, and
+ * refreshed after a successful build. Builds on fresh agents then update an existing checkout with warm caches, rather
+ * than starting from nothing.
+ * 
+ * The number of builds in their build phase at the same time can be limited per node, and for all nodes of a label
+ * together, with a {@link PermitPool}. Builds doing heavy I/O then wait for each other, rather than all slowing down.
+ * 
+ * On Linux nodes, the cpu time, peak memory and I/O of the processes of each build step can be sampled from /proc by a
+ * {@link ProcessProfiler}, and recorded in a {@link OneResourceAction} on the build. Steps whose processes were never
+ * waited for are ended at the teardown, or when the build completes, so no sampling goes on after the build.
+ * 
+ * The build log can be decorated with a {@link CoalescingOutputStream}, so chatty builds write their log file on the
+ * master in fewer and larger writes. The output of processes on agents still travels over the channel as before. The
+ * log is drained at the teardown, and closed by Jenkins when the build is done or aborted.
+ * 
  * @author Praqma
  */
 public class OneBuildWrapper extends BuildWrapper {
 
+    public final boolean snapshot;
+    public final String snapshotExcludes;
+    public final int maxPerNode;
+    public final String throttleLabel;
+    public final int maxPerLabel;
+    public final boolean bufferLog;
+    public final int logBufferSize;
+    public final int logWindow;
+    public final boolean profile;
+    public final int profileInterval;
+
+    /**
+     * The buffered logs of the builds in progress, so they can be drained at the teardown
+     */
+    private static final Map<AbstractBuild<?, ?>, CoalescingOutputStream> logs = Collections.synchronizedMap(new WeakHashMap<AbstractBuild<?, ?>, CoalescingOutputStream>());
+
+    /**
+     * The step timers of the builds in progress, so the steps still open can be ended with the build
+     */
+    private static final Map<AbstractBuild<?, ?>, StepTimer> timers = Collections.synchronizedMap(new WeakHashMap<AbstractBuild<?, ?>, StepTimer>());
+
     /**
      * Required data-bound constructor.
      * 
+     * @param snapshot whether to restore and refresh a snapshot of the workspace
+     * @param snapshotExcludes Ant patterns of files to leave out of the snapshot
+     * @param maxPerNode the maximum number of builds in their build phase on a node, 0 for no limit
+     * @param throttleLabel a label whose nodes share the permits given by maxPerLabel
+     * @param maxPerLabel the maximum number of builds in their build phase on the nodes of the label, 0 for no limit
+     * @param bufferLog whether to coalesce the writes to the build log
+     * @param logBufferSize the size of the log buffer in bytes, 0 for the default
+     * @param logWindow the time in milliseconds the log may be behind, 0 for the default
+     * @param profile whether to sample the resources used by the processes of the build steps
+     * @param profileInterval the time in milliseconds between samples, 0 for the default
      */
     @DataBoundConstructor
-    public OneBuildWrapper() { }
+    public OneBuildWrapper(boolean snapshot, String snapshotExcludes, int maxPerNode, String throttleLabel, int maxPerLabel, boolean bufferLog, int logBufferSize, int logWindow, boolean profile, int profileInterval) {
+        this.snapshot = snapshot;
+        this.snapshotExcludes = snapshotExcludes;
+        this.maxPerNode = maxPerNode;
+        this.throttleLabel = Util.fixEmptyAndTrim(throttleLabel);
+        this.maxPerLabel = maxPerLabel;
+        this.bufferLog = bufferLog;
+        this.logBufferSize = logBufferSize;
+        this.logWindow = logWindow;
+        this.profile = profile;
+        this.profileInterval = profileInterval;
+    }
     
     public static final class DescriptorImpl extends Descriptor<BuildWrapper> {
 
@@ -71,6 +145,15 @@ public class OneBuildWrapper extends BuildWrapper {
     @Override
     public void preCheckout(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
         listener.getLogger().println("In Pre-Checkout - BuildWrapper");
+        OneTimingAction.getOrCreate(build).start(OneTimingAction.CHECKOUT);
+        if(snapshot) {
+            try {
+                WorkspaceSnapshot.restore(build, listener);
+            } catch(IOException e) {
+                //The checkout will bring the workspace up to date anyway
+                e.printStackTrace(listener.error("Unable to restore the workspace snapshot"));
+            }
+        }
         super.preCheckout(build, launcher, listener);
     }
 
@@ -90,14 +173,190 @@ public class OneBuildWrapper extends BuildWrapper {
     @Override
     public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
         listener.getLogger().println("In Build - BuildWrapper");
+        OneTimingAction timing = OneTimingAction.getOrCreate(build);
+        timing.stop(OneTimingAction.CHECKOUT);
+        if(maxPerNode > 0 || maxPerLabel > 0) {
+            timing.start(OneTimingAction.THROTTLE);
+            try {
+                throttle(build, listener);
+            } catch(InterruptedException e) {
+                PermitPool.releaseAll(build);
+                throw e;
+            }
+            timing.stop(OneTimingAction.THROTTLE);
+        }
+        timing.start(OneTimingAction.BUILD);
         return new OneEnvironment();
     }
+
+    /**
+     * Takes a permit of the node, then of the label. Always in that order, so two builds can't wait for each other.
+     */
+    private void throttle(AbstractBuild<?, ?> build, BuildListener listener) throws InterruptedException {
+        Node node = build.getBuiltOn();
+        if(node == null) {
+            return;
+        }
+        if(maxPerNode > 0) {
+            String name = node.getNodeName().length() == 0 ? "master" : node.getNodeName();
+            PermitPool.acquire(build, "node " + name, maxPerNode, listener);
+        }
+        if(maxPerLabel > 0 && throttleLabel != null) {
+            Label label = Label.get(throttleLabel);
+            if(label != null && label.contains(node)) {
+                PermitPool.acquire(build, "label " + throttleLabel, maxPerLabel, listener);
+            }
+        }
+    }
+
+    /**
+     * Decorates the launcher used throughout the build. This is called before the checkout, so processes started by the
+     * SCM also go through the returned launcher.
+     * 
+     * @param build
+     * @param launcher the launcher to decorate
+     * @param listener
+     * @return the decorated launcher
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    @Override
+    public Launcher decorateLauncher(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+        ProcessProfiler profiler = profile ? new ProcessProfiler(launcher, OneResourceAction.getOrCreate(build), profileInterval) : null;
+        StepTimer timer = new StepTimer(OneTimingAction.getOrCreate(build), profiler);
+        timers.put(build, timer);
+        return new OneLauncher(launcher, Collections.<OneLauncher.ProcListener>singletonList(timer));
+    }
+
+    /**
+     * Ends the steps of the build whose processes have not been waited for, killed or found to be dead, e.g. left
+     * running in the background. Their timings end and their profiles stop sampling. Called at the teardown, and by
+     * {@link net.praqma.jenkins.one.listeners.OneRunListener} when the build completes, in case there was no teardown.
+     * 
+     * @param build the build
+     */
+    public static void endSteps(AbstractBuild<?, ?> build) {
+        StepTimer timer = timers.remove(build);
+        if(timer != null) {
+            timer.endAll();
+        }
+    }
+
+    /**
+     * Decorates the build log. This is called before anything is written to it.
+     * 
+     * @param build
+     * @param logger the log of the build
+     * @return the log, buffered if configured to
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    @Override
+    public OutputStream decorateLogger(AbstractBuild build, OutputStream logger) throws IOException, InterruptedException {
+        if(!bufferLog) {
+            return logger;
+        }
+        CoalescingOutputStream out = new CoalescingOutputStream(logger, logBufferSize, logWindow);
+        logs.put(build, out);
+        return out;
+    }
+
+    /**
+     * Writes what is buffered of the log of the build, if it is buffered.
+     */
+    private static void drainLog(AbstractBuild<?, ?> build) {
+        CoalescingOutputStream out = logs.remove(build);
+        if(out != null) {
+            try {
+                out.drain();
+            } catch(IOException e) {
+                //The log is closed already, there is nowhere to report this
+            }
+        }
+    }
+
+    /**
+     * Times each process started in the build phase as a step of its own, and profiles it if there is a profiler.
+     */
+    private static class StepTimer implements OneLauncher.ProcListener {
+        private final OneTimingAction timing;
+        private final ProcessProfiler profiler;
+        private final Set<Step> open = new LinkedHashSet<Step>();
+
+        private StepTimer(OneTimingAction timing, ProcessProfiler profiler) {
+            this.timing = timing;
+            this.profiler = profiler;
+        }
+
+        public Object onStarted(Launcher.ProcStarter starter) {
+            if(!timing.isRunning(OneTimingAction.BUILD)) {
+                return null;
+            }
+            String name = timing.nextStep();
+            timing.start(name);
+            Step step = new Step(name, profiler != null ? profiler.start(starter, name) : null);
+            synchronized(open) {
+                open.add(step);
+            }
+            return step;
+        }
+
+        public void onFinished(Object token, int exitCode) {
+            Step step = (Step) token;
+            synchronized(open) {
+                if(!open.remove(step)) {
+                    //Ended already by endAll
+                    return;
+                }
+            }
+            timing.stop(step.name);
+            if(step.profile != null) {
+                step.profile.stop();
+            }
+        }
+
+        private void endAll() {
+            List<Step> steps;
+            synchronized(open) {
+                steps = new ArrayList<Step>(open);
+            }
+            for(Step step : steps) {
+                onFinished(step, -1);
+            }
+        }
+    }
+
+    private static class Step {
+        private final String name;
+        private final ProcessProfiler.Profile profile;
+
+        private Step(String name, ProcessProfiler.Profile profile) {
+            this.name = name;
+            this.profile = profile;
+        }
+    }
    
     public class OneEnvironment extends Environment {
 
         @Override
         public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
             listener.getLogger().println("In Build - BuildWrapper - Tearing Down");
+            //The teardown phase ends when the build completes, see OneRunListener
+            OneTimingAction timing = OneTimingAction.getOrCreate(build);
+            timing.stop(OneTimingAction.BUILD);
+            timing.start(OneTimingAction.TEARDOWN);
+            PermitPool.releaseAll(build);
+            endSteps(build);
+            //The result is still null if nothing has failed
+            if(snapshot && (build.getResult() == null || build.getResult().isBetterOrEqualTo(Result.SUCCESS))) {
+                try {
+                    WorkspaceSnapshot.save(build, snapshotExcludes, listener);
+                } catch(IOException e) {
+                    //The snapshot is an optimization, it must not fail the build
+                    e.printStackTrace(listener.error("Unable to save the workspace snapshot"));
+                }
+            }
+            drainLog(build);
             return super.tearDown(build, listener);
         }
         
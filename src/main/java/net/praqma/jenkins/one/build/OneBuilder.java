@@ -23,15 +23,32 @@
  */
 package net.praqma.jenkins.one.build;
 
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.FreeStyleProject;
+import hudson.model.JDK;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import jenkins.model.Jenkins;
 import net.praqma.jenkins.one.actions.OneBuildAction;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -52,13 +69,46 @@ import org.kohsuke.stapler.StaplerRequest;
  */
 public class OneBuilder extends Builder {
 
+    /**
+     * The time in seconds the build step waits for the probe, if no deadline is configured
+     */
+    public static final int DEFAULT_DEADLINE = 120;
+
     public final String message;
     public final boolean remoteOperation;
+    public final boolean probeSystem;
+    public final boolean probeDisk;
+    public final String tools;
+    public final int probeTimeout;
+    public final int deadline;
+    public final boolean fallbackToCache;
+    public final String diagnostics;
+    public final String patterns;
 
+    /**
+     * @param message the message added to the items of this build step
+     * @param remoteOperation perform the probe on the slave
+     * @param probeSystem collect architecture, cpu count and memory
+     * @param probeDisk collect the free space of the workspace
+     * @param tools commands printing tool versions, one per line
+     * @param probeTimeout the time in seconds each probe is allowed to run, 0 for the default
+     * @param deadline the time in seconds to wait for the whole remote call, 0 for the default
+     * @param fallbackToCache use the last known result if the deadline passes
+     * @param diagnostics diagnostic commands, one per line, see {@link StreamingRemoteOperation}
+     * @param patterns the facts to extract from the output of the diagnostic commands, as name=pattern, one per line
+     */
     @DataBoundConstructor
-    public OneBuilder( String message, boolean remoteOperation ) {
+    public OneBuilder( String message, boolean remoteOperation, boolean probeSystem, boolean probeDisk, String tools, int probeTimeout, int deadline, boolean fallbackToCache, String diagnostics, String patterns ) {
         this.message = message;
         this.remoteOperation = remoteOperation;
+        this.probeSystem = probeSystem;
+        this.probeDisk = probeDisk;
+        this.tools = tools;
+        this.probeTimeout = probeTimeout;
+        this.deadline = deadline;
+        this.fallbackToCache = fallbackToCache;
+        this.diagnostics = diagnostics;
+        this.patterns = patterns;
     }
 
     /**
@@ -83,36 +133,156 @@ public class OneBuilder extends Builder {
         //Print to the console
         listener.getLogger().println("In Build - OneBuilder");
 
-        String[] str = null;
+        //The node we are probing, either the one the build runs on, or the master
+        Node node = remoteOperation ? build.getBuiltOn() : null;
+        if( node == null ) {
+            node = Jenkins.getInstance();
+        }
+        final RemoteOperation operation = new RemoteOperation( getJavaHome( build, node, listener ), probeSystem, probeDisk, getToolList( tools ), TimeUnit.SECONDS.toMillis( probeTimeout ) );
+        final FilePath workspace = build.getWorkspace();
+
+        //Probing the same node for the same facts gives the same result, so the probe is only performed if it isn't cached
+        int seconds = deadline > 0 ? deadline : DEFAULT_DEADLINE;
+        //The probe and the diagnostics together must finish by then
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( seconds );
+        ProbeResult result;
+        try {
+            result = ProbeCache.getInstance().get( node.getNodeName(), operation.getCacheKey(), new Callable<ProbeResult>() {
+                public ProbeResult call() throws Exception {
+                    //Value [remoteOperation] from build step configuration 'Perform on slave'
+                    if( remoteOperation ) {
+                        //Tell jenkins to act upon the current workspace (Can be remote, or local), without blocking the channel
+                        Future<ProbeResult> future = workspace.actAsync( operation );
+                        try {
+                            return future.get();
+                        } catch( InterruptedException e ) {
+                            //We were cancelled, so cancel the remote call as well, which destroys the processes it started
+                            future.cancel( true );
+                            throw e;
+                        }
+                    } else {
+                        //Else, force this to be performed on master, regardless.
+                        return operation.invoke( null, null );
+                    }
+                }
+            }, TimeUnit.SECONDS.toMillis( seconds ) );
+        } catch( TimeoutException e ) {
+            ProbeResult last = fallbackToCache ? ProbeCache.getInstance().getLastKnown( node.getNodeName(), operation.getCacheKey() ) : null;
+            if( last == null ) {
+                throw new AbortException( String.format( "The probe did not finish within %d seconds", seconds ) );
+            }
+            listener.getLogger().println( String.format( "The probe did not finish within %d seconds, using the last known result", seconds ) );
+            result = last;
+        }
 
-        //Value [remoteOperation] from build step configuration 'Perform on slave'
-        if( remoteOperation ) {
-            //Tell jenkins to act upon the current workspace (Can be remote, or local)
-            str = build.getWorkspace().act( new RemoteOperation() );
-        } else {
-            //Else, force this to be performed on master, regardless.
-            str = new RemoteOperation().invoke( null, null );
+        //Diagnostics are never cached, their output is streamed to the console while they run
+        Map<String, String> facts = result.getFacts();
+        List<String> commands = getToolList( diagnostics );
+        if( !commands.isEmpty() ) {
+            facts = new LinkedHashMap<String, String>( facts );
+            facts.putAll( diagnose( commands, workspace, listener, end, seconds ) );
         }
 
         /**
          * This is where we add our build action to the build.
-         * We only do this if we haven't previously added one.
+         * We only do this if we haven't previously added one, also when other steps are doing the same concurrently.
          */
-        OneBuildAction action = build.getAction( OneBuildAction.class );
-        if( action == null ) {
-            action = new OneBuildAction();
-            build.addAction( action );
-        }
+        OneBuildAction action = OneBuildAction.getOrCreate( build );
 
         /**
          * Let's add an item to action
          */
-        action.addItems( str[0], str[1], message );
+        action.addItems( result.getOs(), result.getJavaVersion(), message, facts );
         listener.getLogger().println( "Added items" );
 
         return true;
     }
 
+    /**
+     * Runs the diagnostic commands one at a time, on the slave if configured to. Only the lines matching the patterns are
+     * sent back, and they are printed to the console as they arrive.
+     *
+     * Like the probe, the diagnostics never keep the build step waiting past its deadline, also not if the channel
+     * hangs. No command is allowed to run longer than the time left, and the remote call is cancelled when the deadline
+     * passes. The remaining commands are then skipped.
+     *
+     * @param end the time in milliseconds the deadline of the step passes
+     * @param seconds the deadline of the step, for the console
+     * @return the facts found by the commands run
+     */
+    private Map<String, String> diagnose( List<String> commands, FilePath workspace, BuildListener listener, long end, int seconds ) throws IOException, InterruptedException {
+        List<StreamingRemoteOperation.Extractor> extractors;
+        try {
+            extractors = StreamingRemoteOperation.Extractor.parse( patterns );
+        } catch( IllegalArgumentException e ) {
+            throw new AbortException( "Invalid diagnostic patterns: " + e.getMessage() );
+        }
+
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        OutputStream out = new RemoteOutputStream( listener.getLogger() );
+        long timeout = probeTimeout > 0 ? TimeUnit.SECONDS.toMillis( probeTimeout ) : RemoteOperation.DEFAULT_TIMEOUT;
+        for( String command : commands ) {
+            long remaining = end - System.currentTimeMillis();
+            if( remaining <= 0 ) {
+                listener.getLogger().println( String.format( "The deadline of %d seconds has passed, skipping %s", seconds, command ) );
+                continue;
+            }
+            listener.getLogger().println( "Running " + command );
+            StreamingRemoteOperation operation = new StreamingRemoteOperation( command, extractors, out, Math.min( timeout, remaining ) );
+            if( !remoteOperation ) {
+                facts.putAll( operation.invoke( null, null ) );
+                continue;
+            }
+
+            //Without blocking the channel, and cancelled like the probe, which destroys the process
+            Future<LinkedHashMap<String, String>> future = workspace.actAsync( operation );
+            try {
+                facts.putAll( future.get( remaining, TimeUnit.MILLISECONDS ) );
+            } catch( TimeoutException e ) {
+                future.cancel( true );
+                listener.getLogger().println( String.format( "%s did not finish within the deadline of %d seconds", command, seconds ) );
+            } catch( InterruptedException e ) {
+                future.cancel( true );
+                throw e;
+            } catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+                if( cause instanceof IOException ) {
+                    throw (IOException) cause;
+                }
+                throw new IOException( "Unable to run " + command, cause );
+            }
+        }
+        return facts;
+    }
+
+    /**
+     * Finds the home of the JDK configured for the project, as seen from the given node.
+     *
+     * @return the JDK home, or null if the project uses the default JDK
+     */
+    private String getJavaHome( AbstractBuild<?, ?> build, Node node, TaskListener listener ) throws IOException, InterruptedException {
+        JDK jdk = build.getProject().getJDK();
+        if( jdk == null ) {
+            return null;
+        }
+        return jdk.forNode( node, listener ).getHome();
+    }
+
+    /**
+     * @param tools tool version commands, one per line
+     * @return the commands, skipping blank lines
+     */
+    static List<String> getToolList( String tools ) {
+        List<String> list = new ArrayList<String>();
+        if( tools != null ) {
+            for( String line : tools.split( "\\r?\\n" ) ) {
+                if( line.trim().length() > 0 ) {
+                    list.add( line.trim() );
+                }
+            }
+        }
+        return list;
+    }
     
     /**
      * Required static constructor. This is used to create 'One Project Builder' BuildStep in the list-box item on your jobs
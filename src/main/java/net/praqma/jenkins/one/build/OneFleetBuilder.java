@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import antlr.ANTLRException;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import jenkins.model.Jenkins;
+import net.praqma.jenkins.one.actions.OneBuildAction;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A builder probing every online node, or every online node matching a label, rather than only the one the build runs on.
+ *
+ * The {@link RemoteOperation} is sent to the nodes concurrently, but never to more than {@link #maxConcurrency} at a
+ * time. Each node gets {@link #nodeTimeout} seconds to answer. Nodes that fail or time out are reported, and make the
+ * build unstable, but the results of the others are kept. All results are added to the {@link OneBuildAction} of the
+ * build at once, with the name of the node as the {@link ProbeResult#NODE} fact.
+ *
+ * If the build is aborted, the remote calls still running are cancelled, which destroys the processes they started on
+ * the nodes.
+ *
+ * @author Praqma
+ */
+public class OneFleetBuilder extends Builder {
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final int DEFAULT_TIMEOUT = 60;
+
+    public final String message;
+    public final String label;
+    public final int maxConcurrency;
+    public final int nodeTimeout;
+    public final boolean probeSystem;
+    public final String tools;
+
+    /**
+     * @param message the message added to the items
+     * @param label a label expression selecting the nodes to probe, all online nodes if blank
+     * @param maxConcurrency the maximum number of nodes probed at the same time, 0 for the default
+     * @param nodeTimeout the time in seconds each node is given, 0 for the default
+     * @param probeSystem collect architecture, cpu count and memory
+     * @param tools commands printing tool versions, one per line
+     */
+    @DataBoundConstructor
+    public OneFleetBuilder( String message, String label, int maxConcurrency, int nodeTimeout, boolean probeSystem, String tools ) {
+        this.message = message;
+        this.label = label;
+        this.maxConcurrency = maxConcurrency;
+        this.nodeTimeout = nodeTimeout;
+        this.probeSystem = probeSystem;
+        this.tools = tools;
+    }
+
+    @Override
+    public boolean perform( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener ) throws InterruptedException, IOException {
+        listener.getLogger().println( "In Build - OneFleetBuilder" );
+
+        List<Node> nodes = getNodes();
+        if( nodes.isEmpty() ) {
+            listener.getLogger().println( "No online nodes to probe" );
+            return true;
+        }
+
+        final RemoteOperation operation = new RemoteOperation( null, probeSystem, false, OneBuilder.getToolList( tools ), 0 );
+        final long timeout = TimeUnit.SECONDS.toMillis( nodeTimeout > 0 ? nodeTimeout : DEFAULT_TIMEOUT );
+        int threads = Math.min( maxConcurrency > 0 ? maxConcurrency : DEFAULT_CONCURRENCY, nodes.size() );
+        listener.getLogger().println( String.format( "Probing %d nodes, %d at a time", nodes.size(), threads ) );
+
+        //Each thread waits for one node at a time, which bounds the number of calls in flight
+        ExecutorService executor = Executors.newFixedThreadPool( threads, new DaemonThreadFactory() );
+        Map<Node, Future<ProbeResult>> futures = new LinkedHashMap<Node, Future<ProbeResult>>();
+        final List<Future<ProbeResult>> remotes = Collections.synchronizedList( new ArrayList<Future<ProbeResult>>() );
+        try {
+            for( final Node node : nodes ) {
+                futures.put( node, executor.submit( new Callable<ProbeResult>() {
+                    public ProbeResult call() throws Exception {
+                        FilePath root = node.getRootPath();
+                        if( root == null ) {
+                            throw new IOException( "The node is offline" );
+                        }
+                        Future<ProbeResult> future = root.actAsync( operation );
+                        remotes.add( future );
+                        try {
+                            return future.get( timeout, TimeUnit.MILLISECONDS );
+                        } catch( TimeoutException e ) {
+                            future.cancel( true );
+                            throw e;
+                        } catch( InterruptedException e ) {
+                            //Aborted, cancel the remote call as well
+                            future.cancel( true );
+                            throw e;
+                        }
+                    }
+                } ) );
+            }
+
+            List<OneBuildAction.Items> items = new ArrayList<OneBuildAction.Items>( nodes.size() );
+            int failures = 0;
+            for( Map.Entry<Node, Future<ProbeResult>> entry : futures.entrySet() ) {
+                String name = getName( entry.getKey() );
+                try {
+                    ProbeResult result = entry.getValue().get();
+                    Map<String, String> facts = new LinkedHashMap<String, String>();
+                    facts.put( ProbeResult.NODE, name );
+                    facts.putAll( result.getFacts() );
+                    items.add( new OneBuildAction.Items( result.getOs(), result.getJavaVersion(), message, facts ) );
+                } catch( ExecutionException e ) {
+                    failures++;
+                    Throwable cause = e.getCause();
+                    listener.getLogger().println( String.format( "Unable to probe %s: %s", name, cause instanceof TimeoutException ? "timed out" : cause ) );
+                }
+            }
+
+            OneBuildAction.getOrCreate( build ).addItems( items );
+            listener.getLogger().println( String.format( "Probed %d of %d nodes", nodes.size() - failures, nodes.size() ) );
+            if( failures == nodes.size() ) {
+                build.setResult( Result.FAILURE );
+            } else if( failures > 0 ) {
+                build.setResult( Result.UNSTABLE );
+            }
+        } finally {
+            executor.shutdownNow();
+            //When aborted, the calls in flight must not keep running on the nodes. Calls that are done are left alone.
+            synchronized( remotes ) {
+                for( Future<ProbeResult> remote : remotes ) {
+                    remote.cancel( true );
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the online nodes matching the label, or all online nodes if there is no label
+     * @throws AbortException if the label can't be parsed
+     */
+    private List<Node> getNodes() throws AbortException {
+        Label l = null;
+        if( label != null && label.trim().length() > 0 ) {
+            try {
+                l = Label.parseExpression( label );
+            } catch( ANTLRException e ) {
+                throw new AbortException( "Invalid label expression " + label + ": " + e.getMessage() );
+            }
+        }
+
+        List<Node> nodes = new ArrayList<Node>();
+        for( Computer computer : Jenkins.getInstance().getComputers() ) {
+            Node node = computer.getNode();
+            if( node != null && computer.isOnline() && ( l == null || l.contains( node ) ) ) {
+                nodes.add( node );
+            }
+        }
+        return nodes;
+    }
+
+    private static String getName( Node node ) {
+        return node.getNodeName().length() == 0 ? "master" : node.getNodeName();
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        /**
+         * Probing the fleet doesn't depend on the project type, so it can be used anywhere.
+         */
+        @Override
+        public boolean isApplicable( Class<? extends AbstractProject> proj ) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "One Fleet Builder";
+        }
+    }
+}
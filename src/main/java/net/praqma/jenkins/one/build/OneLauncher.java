@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.remoting.Channel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Launcher} decorating the launcher of a build, so we are told whenever a process is started and when it
+ * has finished. {@link OneBuildWrapper} returns it from {@link hudson.tasks.BuildWrapper#decorateLauncher}, which means all
+ * processes of the build, including the ones started by the SCM and by the build steps, go through it.
+ *
+ * A process is considered finished when somebody has waited for it with {@link Proc#join()}, killed it, or found it no
+ * longer alive. If it can't be started at all, the listeners are told right away, with an exit code of -1.
+ *
+ * @author Praqma
+ */
+public class OneLauncher extends Launcher {
+
+    /**
+     * Told about every process started through the launcher
+     */
+    public interface ProcListener {
+
+        /**
+         * Called before the process is started. The listener may modify the starter, e.g. add environment variables.
+         * @param starter the process about to be started
+         * @return an object handed back to {@link #onFinished(Object, int)}, or null if the listener is not interested in this process
+         */
+        Object onStarted( ProcStarter starter ) throws IOException, InterruptedException;
+
+        /**
+         * @param token the object returned by {@link #onStarted(ProcStarter)}
+         * @param exitCode the exit code, or -1 if the process was killed
+         */
+        void onFinished( Object token, int exitCode );
+    }
+
+    private final Launcher inner;
+    private final List<ProcListener> listeners;
+
+    public OneLauncher( Launcher inner, List<ProcListener> listeners ) {
+        super( inner );
+        this.inner = inner;
+        this.listeners = new ArrayList<ProcListener>( listeners );
+    }
+
+    @Override
+    public Proc launch( ProcStarter starter ) throws IOException {
+        Object[] tokens = new Object[listeners.size()];
+        try {
+            for( int i = 0 ; i < tokens.length ; i++ ) {
+                tokens[i] = listeners.get( i ).onStarted( starter );
+            }
+            return new TrackedProc( inner.launch( starter ), tokens );
+        } catch( InterruptedException e ) {
+            finished( tokens, -1 );
+            throw new IOException( "Interrupted while starting a process", e );
+        } catch( IOException e ) {
+            //E.g. the command was not found, so there will never be a process to wait for
+            finished( tokens, -1 );
+            throw e;
+        } catch( RuntimeException e ) {
+            finished( tokens, -1 );
+            throw e;
+        }
+    }
+
+    /**
+     * Tells the listeners which returned a token that the process has finished.
+     */
+    private void finished( Object[] tokens, int exitCode ) {
+        for( int i = 0 ; i < tokens.length ; i++ ) {
+            if( tokens[i] != null ) {
+                listeners.get( i ).onFinished( tokens[i], exitCode );
+            }
+        }
+    }
+
+    @Override
+    public Channel launchChannel( String[] cmd, OutputStream out, FilePath workDir, Map<String, String> envVars ) throws IOException, InterruptedException {
+        return inner.launchChannel( cmd, out, workDir, envVars );
+    }
+
+    @Override
+    public void kill( Map<String, String> modelEnvVars ) throws IOException, InterruptedException {
+        inner.kill( modelEnvVars );
+    }
+
+    @Override
+    public boolean isUnix() {
+        return inner.isUnix();
+    }
+
+    /**
+     * Delegates everything to the real process, and tells the listeners once it has finished.
+     */
+    private class TrackedProc extends Proc {
+        private final Proc proc;
+        private final Object[] tokens;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private TrackedProc( Proc proc, Object[] tokens ) {
+            this.proc = proc;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean isAlive() throws IOException, InterruptedException {
+            if( proc.isAlive() ) {
+                return true;
+            }
+            //Callers polling the process may never join it, it has ended so this doesn't wait
+            if( !finished.get() ) {
+                finished( proc.join() );
+            }
+            return false;
+        }
+
+        @Override
+        public void kill() throws IOException, InterruptedException {
+            try {
+                proc.kill();
+            } finally {
+                finished( -1 );
+            }
+        }
+
+        @Override
+        public int join() throws IOException, InterruptedException {
+            int exitCode = proc.join();
+            finished( exitCode );
+            return exitCode;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return proc.getStdout();
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return proc.getStderr();
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return proc.getStdin();
+        }
+
+        private void finished( int exitCode ) {
+            if( finished.compareAndSet( false, true ) ) {
+                OneLauncher.this.finished( tokens, exitCode );
+            }
+        }
+    }
+}
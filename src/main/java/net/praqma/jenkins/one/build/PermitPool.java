@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named pools of permits, used by the {@link OneBuildWrapper} to limit how many builds run their build phase on a node,
+ * or on the nodes of a label, at the same time.
+ *
+ * Each pool is a fair {@link Semaphore}, so builds get their permits in the order they asked for them. The permits
+ * held by a build are remembered, so they can be released when the build phase ends, and at the latest when the build
+ * completes, even if the build was aborted before its teardown.
+ *
+ * A pool is known by the name of its node or label only. When a build asks for it with another number of permits,
+ * because the configuration changed, the pool is resized: builds holding permits keep them, and new builds wait until
+ * the pool is below its new size. A pool exists only while builds hold or wait for its permits, so the pools of nodes
+ * and labels that are gone don't stay around.
+ *
+ * @author Praqma
+ */
+public class PermitPool {
+
+    /**
+     * Guarded by itself, as are the users of the pools in it
+     */
+    private static final Map<String, Pool> POOLS = new HashMap<String, Pool>();
+
+    private static final ConcurrentMap<Run<?, ?>, List<Pool>> HELD = new ConcurrentHashMap<Run<?, ?>, List<Pool>>();
+
+    private PermitPool() {
+    }
+
+    /**
+     * A semaphore that knows its size, and can be resized while its permits are held
+     */
+    static final class Pool extends Semaphore {
+        final String name;
+        private volatile int permits;
+
+        /**
+         * The builds holding or waiting for a permit
+         */
+        private int users;
+
+        private Pool( String name, int permits ) {
+            super( permits, true );
+            this.name = name;
+            this.permits = permits;
+        }
+
+        int getPermits() {
+            return permits;
+        }
+
+        /**
+         * Permits already taken are not revoked, if there are too many the pool goes below zero until they are released.
+         */
+        private void resize( int permits ) {
+            if( permits > this.permits ) {
+                release( permits - this.permits );
+            } else if( permits < this.permits ) {
+                reducePermits( this.permits - permits );
+            }
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * @return the pool of the given name, or null if no build holds or waits for its permits
+     */
+    static Pool get( String name ) {
+        synchronized( POOLS ) {
+            return POOLS.get( name );
+        }
+    }
+
+    /**
+     * @return the pool of the given name, created or resized to the given number of permits, with one more user
+     */
+    static Pool join( String name, int permits ) {
+        synchronized( POOLS ) {
+            Pool pool = POOLS.get( name );
+            if( pool == null ) {
+                pool = new Pool( name, permits );
+                POOLS.put( name, pool );
+            } else if( pool.permits != permits ) {
+                pool.resize( permits );
+            }
+            pool.users++;
+            return pool;
+        }
+    }
+
+    /**
+     * Removes a user from a pool, and the pool once it has none
+     */
+    static void leave( Pool pool ) {
+        synchronized( POOLS ) {
+            if( --pool.users == 0 ) {
+                POOLS.remove( pool.name );
+            }
+        }
+    }
+
+    /**
+     * Waits for a permit of a pool, logging how long it took if it wasn't available at once.
+     * @param run the build asking for the permit
+     * @param name the name of the pool, e.g. "node linux-01"
+     * @param permits the size of the pool
+     * @param listener the listener of the build
+     * @throws InterruptedException if the build is aborted while waiting
+     */
+    public static void acquire( Run<?, ?> run, String name, int permits, BuildListener listener ) throws InterruptedException {
+        Pool pool = join( name, permits );
+        boolean acquired = false;
+        try {
+            if( !pool.tryAcquire() ) {
+                listener.getLogger().println( String.format( "Waiting for one of the %d permits of %s, %d builds are waiting", permits, name, pool.getQueueLength() + 1 ) );
+                long start = System.nanoTime();
+                pool.acquire();
+                listener.getLogger().println( String.format( "Got a permit of %s after %d ms", name, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+            }
+            acquired = true;
+        } finally {
+            if( !acquired ) {
+                leave( pool );
+            }
+        }
+
+        List<Pool> held = HELD.get( run );
+        if( held == null ) {
+            List<Pool> fresh = new CopyOnWriteArrayList<Pool>();
+            held = HELD.putIfAbsent( run, fresh );
+            if( held == null ) {
+                held = fresh;
+            }
+        }
+        held.add( pool );
+    }
+
+    /**
+     * Releases all permits held by a build. Does nothing if it holds none.
+     */
+    public static void releaseAll( Run<?, ?> run ) {
+        List<Pool> held = HELD.remove( run );
+        if( held != null ) {
+            for( Pool pool : held ) {
+                pool.release();
+                leave( pool );
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.util.DaemonThreadFactory;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A per-node cache of {@link RemoteOperation} results.
+ *
+ * Probing a node means starting a new JVM on it, which is expensive compared to the information we get back. The result
+ * rarely changes, so we keep it for a while, keyed by the node name and what was probed (see
+ * {@link RemoteOperation#getCacheKey()}). Note that this also applies to volatile facts like free disk space, which are
+ * as old as the cached result.
+ *
+ * Entries expire after {@link #TTL} milliseconds, and are dropped when the node reconnects or its configuration changes
+ * (see {@link net.praqma.jenkins.one.listeners.OneComputerListener}). Concurrent builds asking for the same key while a
+ * probe is running wait for that probe, instead of starting their own.
+ *
+ * Probes run on a thread of the cache, so callers can stop waiting when their deadline has passed. The probe is then
+ * cancelled, which also interrupts the remote call. The last successful result is kept after expiry, for callers
+ * who would rather have an old result than none, see {@link #getLastKnown(String, String)}.
+ *
+ * The time to live can be set with the system property <code>net.praqma.jenkins.one.build.ProbeCache.ttl</code>, in
+ * milliseconds. A value of 0 disables caching, but in-flight probes are still shared.
+ *
+ * @author Praqma
+ */
+public final class ProbeCache {
+
+    public static long TTL = Long.getLong( ProbeCache.class.getName() + ".ttl", TimeUnit.MINUTES.toMillis( 10 ) );
+
+    private static final ProbeCache INSTANCE = new ProbeCache();
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final ConcurrentMap<Key, ProbeResult> lastKnown = new ConcurrentHashMap<Key, ProbeResult>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool( new DaemonThreadFactory() );
+
+    private ProbeCache() {
+    }
+
+    public static ProbeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached result for the given node and operation, or runs the loader if there is none, or it has expired.
+     * If another thread is already running the loader for the same key, we wait for its result.
+     *
+     * The loader is run on another thread. If it is interrupted, it should cancel whatever it is waiting for.
+     *
+     * @param node the name of the node, "" for the master
+     * @param operation the key of the operation, see {@link RemoteOperation#getCacheKey()}
+     * @param loader performs the actual probe
+     * @param timeout the maximum time in milliseconds to wait for the probe, 0 or less to wait forever
+     * @return the probe result
+     * @throws IOException if the probe failed
+     * @throws TimeoutException if the probe didn't finish in time. The probe has been cancelled.
+     * @throws InterruptedException
+     */
+    public ProbeResult get( String node, String operation, Callable<ProbeResult> loader, long timeout ) throws IOException, InterruptedException, TimeoutException {
+        Key key = new Key( node, operation );
+
+        while( true ) {
+            Entry entry = entries.get( key );
+            if( entry == null || entry.isExpired() ) {
+                Entry fresh = new Entry( key, loader );
+                boolean won = entry == null ? entries.putIfAbsent( key, fresh ) == null : entries.replace( key, entry, fresh );
+                if( !won ) {
+                    /* Somebody else got there first, use theirs */
+                    continue;
+                }
+                executor.execute( fresh );
+                entry = fresh;
+            }
+
+            try {
+                return timeout > 0 ? entry.get( timeout, TimeUnit.MILLISECONDS ) : entry.get();
+            } catch( TimeoutException e ) {
+                /* A probe that hangs for one build hangs for all, so give up on it */
+                entry.cancel( true );
+                entries.remove( key, entry );
+                throw e;
+            } catch( CancellationException e ) {
+                entries.remove( key, entry );
+                throw new TimeoutException( "Probing " + key + " was cancelled after timing out for another build" );
+            } catch( ExecutionException e ) {
+                /* Never cache failures */
+                entries.remove( key, entry );
+                Throwable cause = e.getCause();
+                if( cause instanceof IOException ) {
+                    throw (IOException) cause;
+                } else if( cause instanceof InterruptedException ) {
+                    throw (InterruptedException) cause;
+                } else if( cause instanceof RuntimeException ) {
+                    throw (RuntimeException) cause;
+                } else if( cause instanceof Error ) {
+                    throw (Error) cause;
+                }
+                throw new IOException( "Probing " + key + " failed", cause );
+            }
+        }
+    }
+
+    /**
+     * @param node the name of the node, "" for the master
+     * @param operation the key of the operation, see {@link RemoteOperation#getCacheKey()}
+     * @return the last successful result, even if it has expired, or null if there is none
+     */
+    public ProbeResult getLastKnown( String node, String operation ) {
+        return lastKnown.get( new Key( node, operation ) );
+    }
+
+    /**
+     * Drops all entries for the given node.
+     * @param node the name of the node, "" for the master
+     */
+    public void invalidate( String node ) {
+        for( Iterator<Key> it = entries.keySet().iterator() ; it.hasNext() ; ) {
+            if( it.next().node.equals( node ) ) {
+                it.remove();
+            }
+        }
+        for( Iterator<Key> it = lastKnown.keySet().iterator() ; it.hasNext() ; ) {
+            if( it.next().node.equals( node ) ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public void invalidateAll() {
+        entries.clear();
+        lastKnown.clear();
+    }
+
+    private static final class Key {
+        private final String node;
+        private final String operation;
+
+        private Key( String node, String operation ) {
+            this.node = node == null ? "" : node;
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if( !( o instanceof Key ) ) {
+                return false;
+            }
+            Key other = (Key) o;
+            return node.equals( other.node ) && operation.equals( other.operation );
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * node.hashCode() + operation.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return ( node.isEmpty() ? "(master)" : node ) + ":" + operation;
+        }
+    }
+
+    /**
+     * A probe, which may still be running. The expiry time is set when it completes.
+     */
+    private final class Entry extends FutureTask<ProbeResult> {
+        private final Key key;
+        private volatile long expires = Long.MAX_VALUE;
+
+        private Entry( Key key, Callable<ProbeResult> loader ) {
+            super( loader );
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            expires = System.currentTimeMillis() + TTL;
+            if( !isCancelled() ) {
+                try {
+                    lastKnown.put( key, get() );
+                } catch( ExecutionException e ) {
+                    /* Failed, nothing to remember */
+                } catch( InterruptedException e ) {
+                    /* Can't happen, we are done */
+                }
+            }
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+}
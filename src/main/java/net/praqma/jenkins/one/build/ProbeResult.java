@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of a {@link RemoteOperation}. All facts collected on the node in one go, sent back to the master as one
+ * object.
+ *
+ * Besides the operating system and the java version, which are always probed, the result holds a map of named facts.
+ * The names used are the constants in this class, and {@link #TOOL_PREFIX} followed by the command for tool versions.
+ * Facts found by a {@link StreamingRemoteOperation} are named {@link #DIAGNOSTIC_PREFIX} followed by the extractor name.
+ *
+ * @author Praqma
+ */
+public class ProbeResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OS_ARCH = "os.arch";
+    public static final String OS_VERSION = "os.version";
+    public static final String CPUS = "cpus";
+    public static final String MEMORY_TOTAL = "memory.total";
+    public static final String MEMORY_FREE = "memory.free";
+    public static final String DISK_FREE = "disk.free";
+    public static final String TOOL_PREFIX = "tool:";
+    public static final String DIAGNOSTIC_PREFIX = "diag:";
+    public static final String NODE = "node";
+
+    public static final String UNKNOWN = "Unknown";
+
+    private final String os;
+    private final String javaVersion;
+    private final LinkedHashMap<String, String> facts;
+
+    public ProbeResult( String os, String javaVersion, Map<String, String> facts ) {
+        this.os = os;
+        this.javaVersion = javaVersion;
+        this.facts = new LinkedHashMap<String, String>( facts );
+    }
+
+    /**
+     * @return the name of the operating system
+     */
+    public String getOs() {
+        return os;
+    }
+
+    /**
+     * @return the first line printed by java -version, or {@link #UNKNOWN}
+     */
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    /**
+     * @return all additional facts in the order they were requested
+     */
+    public Map<String, String> getFacts() {
+        return Collections.unmodifiableMap( facts );
+    }
+
+    public String getFact( String name ) {
+        return facts.get( name );
+    }
+
+    @Override
+    public String toString() {
+        return "OS: " + os + ", Java: " + javaVersion + ", Facts: " + facts;
+    }
+}
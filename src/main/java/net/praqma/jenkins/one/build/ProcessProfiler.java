@@ -0,0 +1,504 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.Launcher;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.praqma.jenkins.one.actions.OneResourceAction;
+
+/**
+ * Samples the resources used by the processes of a build step from /proc, on Linux nodes.
+ *
+ * Every process started through the {@link OneLauncher} gets an environment variable, {@link #COOKIE}, with a value of
+ * its own. Children inherit the environment, so the processes of a step, and all they start, are the ones with the
+ * cookie in /proc/[pid]/environ. This is the same trick Jenkins uses to kill the processes of a build.
+ *
+ * Reading the environment of every process on the node at each sample is costly on busy nodes, so that is only done
+ * until the processes of the step are found. From then on, only the processes found by the previous sample, if they
+ * still have the cookie, and their descendants are looked at, from /proc/[pid]/task/[tid]/children, or from the
+ * parents in /proc/[pid]/stat on kernels without it. A process leaving the tree, by daemonizing, before a sample has
+ * seen it is missed. Once no process of the step is left, the whole of /proc is scanned again.
+ *
+ * While the step runs, the master asks the node for the usage of those processes at a fixed interval. For each process
+ * the largest values seen are kept, the cpu time (utime and stime of /proc/[pid]/stat), the bytes read and written
+ * (/proc/[pid]/io, if readable) and the peak resident memory (VmHWM of /proc/[pid]/status). When the step ends, the cpu
+ * time and bytes of all processes are added up, and the peak is the largest of the peaks of the single processes and
+ * the resident memory of all of them together at a sample. Usage after the last sample of a process is not seen, so
+ * short processes are under counted, more so with a long interval.
+ *
+ * Nodes without /proc are not sampled after the first attempt.
+ *
+ * @author Praqma
+ */
+public class ProcessProfiler {
+
+    private static final Logger logger = Logger.getLogger( ProcessProfiler.class.getName() );
+
+    /**
+     * The environment variable marking the processes of a step
+     */
+    public static final String COOKIE = "ONE_PROFILE_ID";
+
+    /**
+     * Used when no interval is given, in milliseconds
+     */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    /**
+     * The shortest interval allowed, in milliseconds
+     */
+    public static final long MIN_INTERVAL = 100;
+
+    /**
+     * Clock ticks per second of the times in /proc/[pid]/stat. This is 100 on all Linux platforms Jenkins runs on.
+     */
+    static final long TICKS = 100;
+
+    private static final ScheduledExecutorService sampler = Executors.newScheduledThreadPool( 2, new DaemonThreadFactory() );
+
+    /**
+     * The indexes of the values of a process, as returned from the node
+     */
+    static final int CPU = 0, RSS = 1, HWM = 2, READ = 3, WRITE = 4, VALUES = 5;
+
+    private final VirtualChannel channel;
+    private final OneResourceAction action;
+    private final long interval;
+    private volatile boolean unsupported;
+
+    /**
+     * @param launcher the launcher of the build, telling where the processes run
+     * @param action where the usage of each step is recorded
+     * @param interval the time between samples in milliseconds, {@link #DEFAULT_INTERVAL} if 0 or less
+     */
+    public ProcessProfiler( Launcher launcher, OneResourceAction action, long interval ) {
+        this.channel = launcher.getChannel();
+        this.action = action;
+        this.interval = interval > 0 ? Math.max( interval, MIN_INTERVAL ) : DEFAULT_INTERVAL;
+        this.unsupported = !launcher.isUnix();
+    }
+
+    /**
+     * Marks the process about to be started and starts sampling.
+     *
+     * @param starter the process about to be started
+     * @param step the name of the step the process belongs to
+     * @return the profile of the process, or null if the node can't be sampled
+     */
+    public Profile start( Launcher.ProcStarter starter, String step ) {
+        if( unsupported || channel == null ) {
+            return null;
+        }
+        String cookie = UUID.randomUUID().toString();
+        String[] envs = starter.envs();
+        envs = envs == null ? new String[1] : Arrays.copyOf( envs, envs.length + 1 );
+        envs[envs.length - 1] = COOKIE + "=" + cookie;
+        starter.envs( envs );
+
+        Profile profile = new Profile( step, cookie );
+        profile.future = sampler.scheduleWithFixedDelay( profile, 0, interval, TimeUnit.MILLISECONDS );
+        return profile;
+    }
+
+    /**
+     * The usage of the processes of one step, sampled until {@link #stop()} is called.
+     */
+    public class Profile implements Runnable {
+        private final String step;
+        private final String cookie;
+        private final Map<Integer, long[]> processes = new HashMap<Integer, long[]>();
+        private long peakTotal;
+        private volatile ScheduledFuture<?> future;
+        private boolean stopped;
+
+        /**
+         * The pids found by the last sample. Samples never overlap, so this is only used by one thread at a time.
+         */
+        private int[] known = new int[0];
+
+        private Profile( String step, String cookie ) {
+            this.step = step;
+            this.cookie = cookie;
+        }
+
+        public void run() {
+            Map<Integer, long[]> sample;
+            try {
+                sample = channel.call( new Sample( cookie, known ) );
+            } catch( Exception e ) {
+                //E.g. the node went away, the process will soon be finished as well
+                logger.log( Level.FINE, "Unable to sample the processes of " + step, e );
+                return;
+            }
+            if( sample == null ) {
+                unsupported = true;
+                cancel();
+                return;
+            }
+            int[] pids = new int[sample.size()];
+            int i = 0;
+            for( Integer pid : sample.keySet() ) {
+                pids[i++] = pid;
+            }
+            known = pids;
+            add( sample );
+        }
+
+        private synchronized void add( Map<Integer, long[]> sample ) {
+            if( stopped ) {
+                return;
+            }
+            long total = 0;
+            for( Map.Entry<Integer, long[]> e : sample.entrySet() ) {
+                long[] values = e.getValue();
+                total += values[RSS];
+                long[] max = processes.get( e.getKey() );
+                if( max == null ) {
+                    processes.put( e.getKey(), values.clone() );
+                } else {
+                    for( int i = 0 ; i < VALUES ; i++ ) {
+                        max[i] = Math.max( max[i], values[i] );
+                    }
+                }
+            }
+            peakTotal = Math.max( peakTotal, total );
+        }
+
+        private void cancel() {
+            ScheduledFuture<?> f = future;
+            if( f != null ) {
+                f.cancel( false );
+            }
+        }
+
+        /**
+         * Stops sampling and records the usage of the step.
+         */
+        public void stop() {
+            cancel();
+            OneResourceAction.Usage usage;
+            synchronized( this ) {
+                if( stopped ) {
+                    return;
+                }
+                stopped = true;
+                long cpu = 0, peak = peakTotal, read = 0, write = 0;
+                for( long[] values : processes.values() ) {
+                    cpu += values[CPU];
+                    peak = Math.max( peak, values[HWM] );
+                    read += values[READ];
+                    write += values[WRITE];
+                }
+                usage = new OneResourceAction.Usage( step, cpu * 1000 / TICKS, peak, read, write );
+            }
+            action.add( usage );
+        }
+    }
+
+    /**
+     * Executed on the node. Finds the processes with the cookie and reads their usage.
+     */
+    static class Sample implements Callable<HashMap<Integer, long[]>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String proc;
+        private final String cookie;
+        private final int[] known;
+
+        /**
+         * @param cookie the value of {@link #COOKIE} of the step
+         * @param known the pids found by the previous sample, the whole of /proc is scanned if there are none
+         */
+        Sample( String cookie, int[] known ) {
+            this( new File( "/proc" ), cookie, known );
+        }
+
+        Sample( File proc, String cookie, int[] known ) {
+            this.proc = proc.getPath();
+            this.cookie = cookie;
+            this.known = known;
+        }
+
+        /**
+         * @return the values of each process by pid, or null if there is no /proc
+         */
+        public HashMap<Integer, long[]> call() throws IOException {
+            File proc = new File( this.proc );
+            if( !new File( proc, "self/stat" ).exists() ) {
+                return null;
+            }
+            byte[] marker = ( COOKIE + "=" + cookie ).getBytes( "UTF-8" );
+            HashMap<Integer, long[]> result = new HashMap<Integer, long[]>();
+            if( known.length == 0 ) {
+                String[] names = proc.list();
+                if( names == null ) {
+                    return result;
+                }
+                for( String name : names ) {
+                    if( isPid( name ) && hasCookie( new File( proc, name ), marker ) ) {
+                        add( result, proc, Integer.valueOf( name ) );
+                    }
+                }
+                return result;
+            }
+
+            //The known processes still having the cookie, as the pids may have been reused, and all below them
+            LinkedList<Integer> queue = new LinkedList<Integer>();
+            for( int pid : known ) {
+                if( hasCookie( new File( proc, Integer.toString( pid ) ), marker ) ) {
+                    queue.add( pid );
+                }
+            }
+            Map<Integer, List<Integer>> parents = null;
+            while( !queue.isEmpty() ) {
+                Integer pid = queue.removeFirst();
+                if( result.containsKey( pid ) || !add( result, proc, pid ) ) {
+                    continue;
+                }
+                List<Integer> children = children( new File( proc, pid.toString() ) );
+                if( children == null ) {
+                    if( parents == null ) {
+                        parents = parents( proc );
+                    }
+                    children = parents.get( pid );
+                }
+                if( children != null ) {
+                    queue.addAll( children );
+                }
+            }
+            return result;
+        }
+
+        private static boolean isPid( String name ) {
+            return name.length() > 0 && Character.isDigit( name.charAt( 0 ) );
+        }
+
+        private static boolean hasCookie( File dir, byte[] marker ) {
+            try {
+                return contains( readAll( new File( dir, "environ" ) ), marker );
+            } catch( IOException e ) {
+                //The process is gone, or belongs to someone else
+                return false;
+            }
+        }
+
+        /**
+         * @return whether the process could be read
+         */
+        private static boolean add( Map<Integer, long[]> result, File proc, Integer pid ) {
+            try {
+                result.put( pid, read( new File( proc, pid.toString() ) ) );
+                return true;
+            } catch( IOException e ) {
+                //The process is gone
+            } catch( RuntimeException e ) {
+                //Unexpected contents
+            }
+            return false;
+        }
+
+        /**
+         * @return the children of all threads of the process, or null if the kernel doesn't list them
+         */
+        static List<Integer> children( File dir ) {
+            String[] tasks = new File( dir, "task" ).list();
+            if( tasks == null || tasks.length == 0 ) {
+                return null;
+            }
+            List<Integer> children = new ArrayList<Integer>();
+            for( String task : tasks ) {
+                String pids;
+                try {
+                    pids = new String( readAll( new File( dir, "task/" + task + "/children" ) ), "UTF-8" ).trim();
+                } catch( IOException e ) {
+                    if( !new File( dir, "task/" + task ).exists() ) {
+                        //The thread ended
+                        continue;
+                    }
+                    return null;
+                }
+                if( pids.length() > 0 ) {
+                    for( String pid : pids.split( "\\s+" ) ) {
+                        children.add( Integer.valueOf( pid ) );
+                    }
+                }
+            }
+            return children;
+        }
+
+        /**
+         * @return the children of each process, from the parent pid in /proc/[pid]/stat
+         */
+        static Map<Integer, List<Integer>> parents( File proc ) {
+            Map<Integer, List<Integer>> parents = new HashMap<Integer, List<Integer>>();
+            String[] names = proc.list();
+            if( names == null ) {
+                return parents;
+            }
+            for( String name : names ) {
+                if( !isPid( name ) ) {
+                    continue;
+                }
+                try {
+                    Integer parent = Integer.valueOf( statFields( readLine( new File( proc, name + "/stat" ) ) )[1] );
+                    List<Integer> children = parents.get( parent );
+                    if( children == null ) {
+                        children = new ArrayList<Integer>();
+                        parents.put( parent, children );
+                    }
+                    children.add( Integer.valueOf( name ) );
+                } catch( IOException e ) {
+                    //The process is gone
+                } catch( RuntimeException e ) {
+                    //Unexpected contents
+                }
+            }
+            return parents;
+        }
+
+        /**
+         * The command name in parentheses may contain spaces, the fields are counted from after it, starting with the
+         * state.
+         */
+        private static String[] statFields( String stat ) {
+            return stat.substring( stat.lastIndexOf( ')' ) + 2 ).split( " " );
+        }
+
+        static long[] read( File dir ) throws IOException {
+            long[] values = new long[VALUES];
+
+            String[] fields = statFields( readLine( new File( dir, "stat" ) ) );
+            values[CPU] = Long.parseLong( fields[11] ) + Long.parseLong( fields[12] );
+
+            for( String line : readLines( new File( dir, "status" ) ) ) {
+                if( line.startsWith( "VmRSS:" ) ) {
+                    values[RSS] = kiloBytes( line );
+                } else if( line.startsWith( "VmHWM:" ) ) {
+                    values[HWM] = kiloBytes( line );
+                }
+            }
+
+            try {
+                for( String line : readLines( new File( dir, "io" ) ) ) {
+                    if( line.startsWith( "read_bytes:" ) ) {
+                        values[READ] = Long.parseLong( line.substring( 11 ).trim() );
+                    } else if( line.startsWith( "write_bytes:" ) ) {
+                        values[WRITE] = Long.parseLong( line.substring( 12 ).trim() );
+                    }
+                }
+            } catch( IOException e ) {
+                //Not readable without the right capabilities on some kernels
+            }
+            return values;
+        }
+
+        private static long kiloBytes( String line ) {
+            String[] parts = line.substring( line.indexOf( ':' ) + 1 ).trim().split( "\\s+" );
+            return Long.parseLong( parts[0] ) * 1024;
+        }
+
+        private static String readLine( File file ) throws IOException {
+            BufferedReader reader = new BufferedReader( new FileReader( file ) );
+            try {
+                String line = reader.readLine();
+                if( line == null ) {
+                    throw new IOException( "Empty " + file );
+                }
+                return line;
+            } finally {
+                reader.close();
+            }
+        }
+
+        private static String[] readLines( File file ) throws IOException {
+            return new String( readAll( file ), "UTF-8" ).split( "\n" );
+        }
+
+        /**
+         * Files in /proc report a size of 0, so they are read until the end
+         */
+        private static byte[] readAll( File file ) throws IOException {
+            InputStream in = new FileInputStream( file );
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while( ( read = in.read( buffer ) ) != -1 ) {
+                    out.write( buffer, 0, read );
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * @return whether the NUL separated environment has the given variable
+         */
+        static boolean contains( byte[] environ, byte[] marker ) {
+            int start = 0;
+            while( start + marker.length <= environ.length ) {
+                boolean match = true;
+                for( int i = 0 ; i < marker.length ; i++ ) {
+                    if( environ[start + i] != marker[i] ) {
+                        match = false;
+                        break;
+                    }
+                }
+                int end = start + marker.length;
+                if( match && ( end == environ.length || environ[end] == 0 ) ) {
+                    return true;
+                }
+                while( start < environ.length && environ[start] != 0 ) {
+                    start++;
+                }
+                start++;
+            }
+            return false;
+        }
+    }
+}
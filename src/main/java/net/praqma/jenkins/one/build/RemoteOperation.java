@@ -2,52 +2,237 @@ package net.praqma.jenkins.one.build;
 
 import hudson.FilePath;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.QuotedStringTokenizer;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import net.praqma.util.execute.CommandLine;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Class representing a remote file operation. Whenever Jenkins acts() upon it's workspace 
+ * Class representing a remote file operation. Whenever Jenkins acts() upon it's workspace
  * the method invoke() is called on the machine executing the job (Either the remote or the master).
  *
  * The class can have a constructor with parameters. These parameters are serialized and available
  * on the remote.
- * 
+ *
+ * Starting a JVM for every build is expensive, so {@link OneBuilder} goes through the {@link ProbeCache} rather than
+ * acting upon this directly.
+ *
+ * All requested facts are collected in a single call. The commands (java -version and the tool versions) are started
+ * at the same time on the remote, each with the same timeout, so the call takes as long as the slowest of them.
+ * If the call is cancelled, the waiting thread is interrupted and all processes started are destroyed.
+ *
  * @author cwolfgang
  *         Date: 22-02-13
  *         Time: 11:09
- * 
+ *
  */
-public class RemoteOperation implements FilePath.FileCallable<String[]> {
+public class RemoteOperation implements FilePath.FileCallable<ProbeResult> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Used when no timeout is given
+     */
+    public static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis( 30 );
+
+    private final String javaHome;
+    private final boolean system;
+    private final boolean disk;
+    private final List<String> tools;
+    private final long timeout;
+
+    /**
+     * Probes the java found on the PATH of the executing machine.
+     */
+    public RemoteOperation() {
+        this( null );
+    }
+
+    /**
+     * @param javaHome the home directory of the JDK to probe, as seen from the executing machine. If null, the java found on the PATH is used.
+     */
+    public RemoteOperation( String javaHome ) {
+        this( javaHome, false, false, Collections.<String>emptyList(), 0 );
+    }
+
+    /**
+     * @param javaHome the home directory of the JDK to probe, as seen from the executing machine. If null, the java found on the PATH is used.
+     * @param system whether to collect architecture, cpu count and memory
+     * @param disk whether to collect the free space of the workspace
+     * @param tools commands printing tool versions, e.g. "git --version". The first line of output is collected.
+     * @param timeout the time in milliseconds each command is allowed to run. If 0 or less, {@link #DEFAULT_TIMEOUT} is used.
+     */
+    public RemoteOperation( String javaHome, boolean system, boolean disk, List<String> tools, long timeout ) {
+        this.javaHome = javaHome;
+        this.system = system;
+        this.disk = disk;
+        this.tools = new ArrayList<String>( tools );
+        this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * @return a key identifying what this operation probes, used for caching the result
+     */
+    public String getCacheKey() {
+        return javaHome + "|" + system + "|" + disk + "|" + tools;
+    }
 
     /**
      * This class implements {@link FilePath.FileCallable}. The invoke method is executed either on the master or the remote.
-     * 
+     *
      * If the File parameter f is null, then this is a local operation (Master). If not, this will get executed on the assigned slave.
-     * 
+     *
      * The returned value MUST be {@link Serializable} if the task is ever going be executed remotely.
-     * 
+     *
      * @param f the remote workspace (or null if not remote)
      * @param channel the remote channel (or null if not remote)
-     * @return a String[] containing information about the current OS and the installed java version
+     * @return a {@link ProbeResult} containing information about the current OS, the installed java version and the requested facts
      * @throws IOException
-     * @throws InterruptedException 
+     * @throws InterruptedException
      */
     @Override
-    public String[]invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
-        
-        //Read command line output into a list of strings.
-        List<String> list = CommandLine.getInstance().run( "java -version" ).stdoutList;
-
-        //Get the operating system name
-        String os = System.getProperty( "os.name" );
-
-        if( list != null && !list.isEmpty() ) {
-            return new String[] { os, list.get( 0 ) };
-        } else {
-            return new String[] { os, "Unknown" };
+    public ProbeResult invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+
+        //Start all commands at once, java first
+        List<CommandProbe> probes = new ArrayList<CommandProbe>( tools.size() + 1 );
+        probes.add( new CommandProbe( Arrays.asList( getJavaCommand(), "-version" ) ) );
+        for( String tool : tools ) {
+            probes.add( new CommandProbe( Arrays.asList( QuotedStringTokenizer.tokenize( tool ) ) ) );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( probes.size(), new DaemonThreadFactory() );
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>( probes.size() );
+            for( CommandProbe probe : probes ) {
+                futures.add( executor.submit( probe ) );
+            }
+
+            Map<String, String> facts = new LinkedHashMap<String, String>();
+
+            //Collect the cheap facts while the commands are running
+            if( system ) {
+                facts.put( ProbeResult.OS_ARCH, System.getProperty( "os.arch" ) );
+                facts.put( ProbeResult.OS_VERSION, System.getProperty( "os.version" ) );
+                facts.put( ProbeResult.CPUS, Integer.toString( Runtime.getRuntime().availableProcessors() ) );
+                OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+                if( bean instanceof com.sun.management.OperatingSystemMXBean ) {
+                    com.sun.management.OperatingSystemMXBean sun = (com.sun.management.OperatingSystemMXBean) bean;
+                    facts.put( ProbeResult.MEMORY_TOTAL, Long.toString( sun.getTotalPhysicalMemorySize() ) );
+                    facts.put( ProbeResult.MEMORY_FREE, Long.toString( sun.getFreePhysicalMemorySize() ) );
+                }
+            }
+
+            if( disk ) {
+                facts.put( ProbeResult.DISK_FREE, Long.toString( ( f != null ? f : new File( "." ) ).getUsableSpace() ) );
+            }
+
+            //All commands were started at the same time, so they share the deadline
+            long deadline = System.currentTimeMillis() + timeout;
+            String javaVersion = await( probes.get( 0 ), futures.get( 0 ), deadline );
+            for( int i = 1 ; i < probes.size() ; i++ ) {
+                facts.put( ProbeResult.TOOL_PREFIX + tools.get( i - 1 ), await( probes.get( i ), futures.get( i ), deadline ) );
+            }
+
+            //Get the operating system name
+            return new ProbeResult( System.getProperty( "os.name" ), javaVersion, facts );
+        } finally {
+            executor.shutdownNow();
+            for( CommandProbe probe : probes ) {
+                probe.destroy();
+            }
+        }
+    }
+
+    private String await( CommandProbe probe, Future<String> future, long deadline ) throws InterruptedException {
+        try {
+            return future.get( Math.max( deadline - System.currentTimeMillis(), 0 ), TimeUnit.MILLISECONDS );
+        } catch( TimeoutException e ) {
+            probe.destroy();
+            future.cancel( true );
+            return ProbeResult.UNKNOWN + " (timed out)";
+        } catch( ExecutionException e ) {
+            return ProbeResult.UNKNOWN;
+        }
+    }
+
+    /**
+     * Starts a command with its error output redirected to its standard output.
+     *
+     * This is where the processes are created, so the benchmarks can replace it with a stub and measure the rest of the
+     * operation on its own.
+     */
+    protected Process start( List<String> command ) throws IOException {
+        return new ProcessBuilder( command ).redirectErrorStream( true ).start();
+    }
+
+    private String getJavaCommand() {
+        if( javaHome == null ) {
+            return "java";
+        }
+        return new File( new File( javaHome, "bin" ), "java" ).getPath();
+    }
+
+    /**
+     * Runs a command and returns the first non-empty line of output. The process can be destroyed from another thread,
+     * which is how timeouts are enforced, since reading from a process can't be interrupted.
+     */
+    private class CommandProbe implements Callable<String> {
+        private final List<String> command;
+        private volatile Process process;
+        private volatile boolean destroyed;
+
+        private CommandProbe( List<String> command ) {
+            this.command = command;
+        }
+
+        public String call() throws IOException {
+            //java -version prints to stderr
+            process = start( command );
+            if( destroyed ) {
+                process.destroy();
+            }
+            process.getOutputStream().close();
+
+            //Read everything, so the process never blocks on a full pipe
+            BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+            try {
+                String first = null;
+                String line;
+                while( ( line = reader.readLine() ) != null ) {
+                    if( first == null && line.trim().length() > 0 ) {
+                        first = line.trim();
+                    }
+                }
+                return first != null ? first : ProbeResult.UNKNOWN;
+            } finally {
+                reader.close();
+            }
+        }
+
+        private void destroy() {
+            destroyed = true;
+            Process p = process;
+            if( p != null ) {
+                p.destroy();
+            }
         }
     }
 }
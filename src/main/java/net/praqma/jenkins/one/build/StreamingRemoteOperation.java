@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.QuotedStringTokenizer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a single diagnostic command on the executing machine and streams what it finds back while it runs.
+ *
+ * {@link RemoteOperation} keeps the first line of a few small commands and returns everything in one response, which
+ * is fine for version strings, but not for commands printing megabytes. Here the output is read line by line on the
+ * remote, and each line is matched against a list of {@link Extractor}s. Only the matching lines are written to the
+ * given stream, which is normally a {@link hudson.remoting.RemoteOutputStream} on the build log, so they show up on the
+ * master as soon as they are printed. Everything else is dropped on the remote.
+ *
+ * The remote never holds more than one line, and lines longer than {@link #MAX_LINE} characters are cut. The first
+ * match of each extractor is returned as a fact named {@link ProbeResult#DIAGNOSTIC_PREFIX} followed by the extractor
+ * name, so the facts can be added to the build like the ones from {@link RemoteOperation}.
+ *
+ * @author Praqma
+ */
+public class StreamingRemoteOperation implements FilePath.FileCallable<LinkedHashMap<String, String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of characters kept of a line, the rest of the line is skipped
+     */
+    public static final int MAX_LINE = Integer.getInteger( StreamingRemoteOperation.class.getName() + ".maxLine", 8192 );
+
+    private final String command;
+    private final List<Extractor> extractors;
+    private final OutputStream out;
+    private final long timeout;
+
+    /**
+     * @param command the command to run, parsed like the tool commands of {@link RemoteOperation}
+     * @param extractors the patterns to look for in the output
+     * @param out where the matching lines are written, must be remotable if the operation is executed on a slave
+     * @param timeout the time in milliseconds the command is allowed to run. If 0 or less, {@link RemoteOperation#DEFAULT_TIMEOUT} is used.
+     */
+    public StreamingRemoteOperation( String command, List<Extractor> extractors, OutputStream out, long timeout ) {
+        this.command = command;
+        this.extractors = new ArrayList<Extractor>( extractors );
+        this.out = out;
+        this.timeout = timeout > 0 ? timeout : RemoteOperation.DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Runs the command and waits at most the timeout for it to finish. If the command times out or the call is
+     * cancelled, the process is destroyed, and the facts found so far are returned or the interruption is passed on.
+     *
+     * @param f the remote workspace (or null if not remote)
+     * @param channel the remote channel (or null if not remote)
+     * @return the first match of every extractor, {@link ProbeResult#UNKNOWN} for those not matching anything
+     */
+    @Override
+    public LinkedHashMap<String, String> invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+        final Writer writer = new OutputStreamWriter( out, "UTF-8" );
+        final LinkedHashMap<String, String> facts = new LinkedHashMap<String, String>();
+        final Process process = start( Arrays.asList( QuotedStringTokenizer.tokenize( command ) ), f );
+        process.getOutputStream().close();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor( new DaemonThreadFactory() );
+        try {
+            //Read on another thread, since reading from a process can't be interrupted
+            Future<Long> future = executor.submit( new Callable<Long>() {
+                public Long call() throws IOException {
+                    return scan( new InputStreamReader( process.getInputStream() ), writer, facts );
+                }
+            } );
+
+            long lines;
+            try {
+                lines = future.get( timeout, TimeUnit.MILLISECONDS );
+            } catch( TimeoutException e ) {
+                process.destroy();
+                writer.write( String.format( "%s: timed out after %d ms%n", command, timeout ) );
+                lines = -1;
+            } catch( ExecutionException e ) {
+                throw new IOException( "Failed reading the output of " + command, e.getCause() );
+            } catch( InterruptedException e ) {
+                process.destroy();
+                throw e;
+            }
+
+            if( lines >= 0 ) {
+                writer.write( String.format( "%s: %d lines read, exit code %d%n", command, lines, process.waitFor() ) );
+            }
+            writer.flush();
+        } finally {
+            executor.shutdownNow();
+            process.destroy();
+        }
+
+        //Facts are only set by the reading thread, which is done or abandoned by now
+        LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+        synchronized( facts ) {
+            for( Extractor extractor : extractors ) {
+                String value = facts.get( extractor.name );
+                result.put( ProbeResult.DIAGNOSTIC_PREFIX + extractor.name, value != null ? value : ProbeResult.UNKNOWN );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads all lines, writes the matching ones and records the first match of every extractor.
+     *
+     * @return the number of lines read
+     */
+    long scan( Reader reader, Writer writer, LinkedHashMap<String, String> facts ) throws IOException {
+        try {
+            char[] buffer = new char[4096];
+            StringBuilder line = new StringBuilder();
+            long lines = 0;
+            int read;
+            while( ( read = reader.read( buffer ) ) != -1 ) {
+                for( int i = 0 ; i < read ; i++ ) {
+                    char c = buffer[i];
+                    if( c == '\n' ) {
+                        match( line, writer, facts );
+                        line.setLength( 0 );
+                        lines++;
+                    } else if( c != '\r' && line.length() < MAX_LINE ) {
+                        line.append( c );
+                    }
+                }
+            }
+            if( line.length() > 0 ) {
+                match( line, writer, facts );
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void match( CharSequence line, Writer writer, LinkedHashMap<String, String> facts ) throws IOException {
+        boolean matched = false;
+        for( Extractor extractor : extractors ) {
+            Matcher matcher = extractor.pattern.matcher( line );
+            if( matcher.find() ) {
+                matched = true;
+                synchronized( facts ) {
+                    if( !facts.containsKey( extractor.name ) ) {
+                        facts.put( extractor.name, ( matcher.groupCount() > 0 ? matcher.group( 1 ) : matcher.group() ).trim() );
+                    }
+                }
+            }
+        }
+
+        //Flush every line, so it is sent right away rather than when the command is done
+        if( matched ) {
+            writer.append( line ).append( '\n' );
+            writer.flush();
+        }
+    }
+
+    /**
+     * Starts the command in the given directory with its error output redirected to its standard output.
+     */
+    protected Process start( List<String> command, File dir ) throws IOException {
+        return new ProcessBuilder( command ).directory( dir ).redirectErrorStream( true ).start();
+    }
+
+    /**
+     * A named pattern. If the pattern has a group, the first group of the first match is the value, otherwise the
+     * whole match is.
+     */
+    public static class Extractor implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final Pattern pattern;
+
+        public Extractor( String name, String pattern ) {
+            this.name = name;
+            this.pattern = Pattern.compile( pattern );
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Parses extractors given as name=pattern, one per line. Blank lines are skipped.
+         *
+         * @throws IllegalArgumentException if a line has no name or an invalid pattern
+         */
+        public static List<Extractor> parse( String patterns ) {
+            List<Extractor> list = new ArrayList<Extractor>();
+            if( patterns != null ) {
+                for( String line : patterns.split( "\\r?\\n" ) ) {
+                    if( line.trim().length() == 0 ) {
+                        continue;
+                    }
+                    int eq = line.indexOf( '=' );
+                    if( eq <= 0 ) {
+                        throw new IllegalArgumentException( "Expected name=pattern, got " + line.trim() );
+                    }
+                    list.add( new Extractor( line.substring( 0, eq ).trim(), line.substring( eq + 1 ).trim() ) );
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + pattern.pattern();
+        }
+    }
+}
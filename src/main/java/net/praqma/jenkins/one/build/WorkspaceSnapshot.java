@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * A compressed copy of the workspace of a project, kept on the master, so builds on fresh agents can start from the
+ * files of an earlier build instead of an empty workspace.
+ *
+ * The snapshot is a gzipped tar file, <code>one-snapshot.tar.gz</code> in the project directory. It is compressed and
+ * decompressed on the agent, so only compressed data is sent over the channel. Compression favours speed over size.
+ *
+ * @author Praqma
+ */
+public class WorkspaceSnapshot {
+
+    public static final String FILE_NAME = "one-snapshot.tar.gz";
+
+    /**
+     * The snapshot is refreshed at most this often, in minutes. Can be changed with the system property
+     * <code>net.praqma.jenkins.one.build.WorkspaceSnapshot.maxAge</code>.
+     */
+    public static final long MAX_AGE = Long.getLong( WorkspaceSnapshot.class.getName() + ".maxAge", 60 );
+
+    private WorkspaceSnapshot() {
+    }
+
+    private static File getFile( AbstractBuild<?, ?> build ) {
+        return new File( build.getProject().getRootDir(), FILE_NAME );
+    }
+
+    /**
+     * Restores the snapshot into the workspace of the build, if there is a snapshot and the workspace is missing or empty.
+     * @return true if the snapshot was restored
+     */
+    public static boolean restore( AbstractBuild<?, ?> build, BuildListener listener ) throws IOException, InterruptedException {
+        FilePath workspace = build.getWorkspace();
+        File file = getFile( build );
+        if( workspace == null || !file.exists() ) {
+            return false;
+        }
+        if( workspace.exists() && !workspace.list().isEmpty() ) {
+            listener.getLogger().println( "The workspace is not empty, not restoring the snapshot" );
+            return false;
+        }
+
+        long start = System.nanoTime();
+        workspace.mkdirs();
+        InputStream in = new BufferedInputStream( new FileInputStream( file ) );
+        try {
+            workspace.untarFrom( in, FilePath.TarCompression.GZIP );
+        } finally {
+            in.close();
+        }
+        listener.getLogger().println( String.format( "Restored the workspace snapshot of %d KB in %d ms", file.length() / 1024, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+        return true;
+    }
+
+    /**
+     * Replaces the snapshot with the current workspace of the build, unless the snapshot is less than {@link #MAX_AGE}
+     * minutes old.
+     * @param excludes comma or line separated Ant patterns of files not to include, or null
+     * @return true if the snapshot was replaced
+     */
+    public static boolean save( AbstractBuild<?, ?> build, String excludes, BuildListener listener ) throws IOException, InterruptedException {
+        FilePath workspace = build.getWorkspace();
+        File file = getFile( build );
+        if( workspace == null || !workspace.exists() ) {
+            return false;
+        }
+        if( file.exists() && System.currentTimeMillis() - file.lastModified() < TimeUnit.MINUTES.toMillis( MAX_AGE ) ) {
+            return false;
+        }
+
+        //Written next to the snapshot and renamed, so concurrent builds and restores never see half a file
+        long start = System.nanoTime();
+        File tmp = File.createTempFile( "one-snapshot", ".tmp", file.getParentFile() );
+        try {
+            OutputStream out = new FileOutputStream( tmp );
+            try {
+                workspace.act( new Writer( new RemoteOutputStream( out ), excludes ) );
+            } finally {
+                out.close();
+            }
+            if( !tmp.renameTo( file ) ) {
+                //Not atomic, but renaming onto an existing file fails on Windows
+                file.delete();
+                if( !tmp.renameTo( file ) ) {
+                    throw new IOException( "Unable to rename " + tmp + " to " + file );
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+        listener.getLogger().println( String.format( "Saved a workspace snapshot of %d KB in %d ms", file.length() / 1024, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+        return true;
+    }
+
+    /**
+     * Tars and compresses the workspace on the agent, writing to the master through a remote stream.
+     */
+    private static class Writer implements FilePath.FileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final OutputStream out;
+        private final String excludes;
+
+        private Writer( OutputStream out, String excludes ) {
+            this.out = out;
+            this.excludes = excludes;
+        }
+
+        public Integer invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+            OutputStream gzip = new GZIPOutputStream( out, 65536 ) {
+                {
+                    def.setLevel( Deflater.BEST_SPEED );
+                }
+            };
+            try {
+                return new FilePath( f ).tar( gzip, new Excludes( f, excludes ) );
+            } finally {
+                gzip.close();
+            }
+        }
+    }
+
+    /**
+     * Accepts the files not matching any of the patterns, relative to the workspace
+     */
+    private static class Excludes implements FileFilter {
+        private final String base;
+        private final List<String> patterns = new ArrayList<String>();
+
+        private Excludes( File workspace, String excludes ) {
+            this.base = workspace.getAbsolutePath();
+            if( excludes != null ) {
+                for( String pattern : excludes.split( "[,\\n]" ) ) {
+                    if( pattern.trim().length() > 0 ) {
+                        patterns.add( pattern.trim() );
+                    }
+                }
+            }
+        }
+
+        public boolean accept( File file ) {
+            if( patterns.isEmpty() ) {
+                return true;
+            }
+            String path = file.getAbsolutePath();
+            String relative = path.length() > base.length() ? path.substring( base.length() + 1 ).replace( '\\', '/' ) : "";
+            for( String pattern : patterns ) {
+                if( SelectorUtils.matchPath( pattern, relative ) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import hudson.model.Result;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import jenkins.model.Jenkins;
+
+/**
+ * A journal of all {@link RunEvent}s of the instance, so months of build activity can be analyzed by reading a few
+ * compact files from start to end, instead of loading every build.
+ *
+ * The journal is a directory of segment files, <code>one-journal/journal-n.seg</code> in the Jenkins home directory.
+ * Segments have a fixed size, 16 MB unless the system property
+ * <code>net.praqma.jenkins.one.events.EventJournal.segmentSize</code> says otherwise. They are memory-mapped, and
+ * records are appended to the newest until it is full, after which a new one is started. Nothing is ever changed once
+ * written.
+ *
+ * Each record is its length, a CRC32 of its contents and the contents. The length is written last and the mapped
+ * pages are forced to disk after each batch, so a crash leaves at most a record that doesn't check out at the end of
+ * the newest segment. Reading stops there, and the next record written overwrites it.
+ *
+ * Each segment is mapped once, when the journal is opened or the segment is started, and scans read through views of
+ * that mapping, so reading the journal maps nothing new. Deleted segments are unmapped once nothing refers to them.
+ *
+ * The oldest segments are deleted when a new one is started, once there are more than
+ * <code>net.praqma.jenkins.one.events.EventJournal.maxSegments</code>, 32 by default, or once all their events are
+ * older than <code>net.praqma.jenkins.one.events.EventJournal.maxAgeDays</code>, 90 by default. Either is unlimited
+ * if set to 0.
+ *
+ * The journal is an {@link EventSink} of the {@link EventPipeline}, so it is written in the background. It is off unless
+ * the system property <code>net.praqma.jenkins.one.events.EventJournal.enabled</code> is true.
+ *
+ * @author Praqma
+ */
+public class EventJournal implements EventSink {
+
+    private static final Logger LOGGER = Logger.getLogger( EventJournal.class.getName() );
+
+    public static final String DIR_NAME = "one-journal";
+
+    public static final int SEGMENT_SIZE = Integer.getInteger( EventJournal.class.getName() + ".segmentSize", 16 * 1024 * 1024 );
+
+    public static final int MAX_SEGMENTS = Integer.getInteger( EventJournal.class.getName() + ".maxSegments", 32 );
+
+    public static final int MAX_AGE_DAYS = Integer.getInteger( EventJournal.class.getName() + ".maxAgeDays", 90 );
+
+    /**
+     * "ONEJ"
+     */
+    private static final int MAGIC = 0x4f4e454a;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+
+    /**
+     * Events may be written slightly out of order by concurrent consumers, so segments are skipped with some slack
+     */
+    private static final long SLACK = TimeUnit.MINUTES.toMillis( 1 );
+
+    /**
+     * Indexed by the code written for a result
+     */
+    private static final Result[] RESULTS = { Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED };
+
+    private static final FilenameFilter SEGMENTS = new FilenameFilter() {
+        public boolean accept( File dir, String name ) {
+            return name.startsWith( "journal-" ) && name.endsWith( ".seg" );
+        }
+    };
+
+    private static volatile EventJournal instance;
+
+    /**
+     * Called for each event found by {@link EventJournal#scan(long, long, Visitor)}
+     */
+    public interface Visitor {
+        /**
+         * @return false to stop the scan
+         */
+        boolean visit( RunEvent event );
+    }
+
+    private static class Segment {
+        private final File file;
+        /**
+         * The mapping of the whole segment, or null if it isn't one of ours. Never moved, it is only read through
+         * duplicates.
+         */
+        private final ByteBuffer buffer;
+        /**
+         * The time of the first event, or {@link Long#MAX_VALUE} while there is none
+         */
+        private volatile long firstTime = Long.MAX_VALUE;
+
+        private Segment( File file, ByteBuffer buffer ) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return a view of the segment positioned after the header, or null if it isn't a segment of ours
+         */
+        private ByteBuffer view() {
+            if( buffer == null ) {
+                return null;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position( HEADER );
+            return view;
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxAge;
+
+    private volatile Segment[] segments;
+    private MappedByteBuffer active;
+    private int activeNumber;
+
+    /**
+     * @param dir the directory of the segments
+     * @param segmentSize the size of a segment in bytes
+     * @param maxSegments the number of segments to keep, 0 for no limit
+     * @param maxAge the age in milliseconds after which events are deleted, 0 for no limit
+     */
+    public EventJournal( File dir, int segmentSize, int maxSegments, long maxAge ) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the journal of this instance
+     */
+    public static EventJournal getInstance() {
+        EventJournal journal = instance;
+        if( journal == null ) {
+            synchronized( EventJournal.class ) {
+                journal = instance;
+                if( journal == null ) {
+                    journal = instance = new EventJournal( new File( Jenkins.getInstance().getRootDir(), DIR_NAME ), SEGMENT_SIZE,
+                            MAX_SEGMENTS, TimeUnit.DAYS.toMillis( MAX_AGE_DAYS ) );
+                }
+            }
+        }
+        return journal;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean( EventJournal.class.getName() + ".enabled" );
+    }
+
+    /**
+     * Finds the existing segments, and the end of the newest one.
+     */
+    private synchronized void open() throws IOException {
+        if( segments != null ) {
+            return;
+        }
+        if( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException( "Unable to create " + dir );
+        }
+        File[] files = dir.listFiles( SEGMENTS );
+        Arrays.sort( files );
+        List<Segment> list = new ArrayList<Segment>( files.length + 1 );
+        for( int i = 0 ; i < files.length ; i++ ) {
+            //The newest is written to, so it is mapped for that
+            ByteBuffer buffer = map( files[i], i + 1 < files.length ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE );
+            Segment segment = new Segment( files[i], buffer );
+            ByteBuffer view = segment.view();
+            RunEvent first = view == null ? null : next( view );
+            if( first != null ) {
+                segment.firstTime = first.time;
+            }
+            list.add( segment );
+        }
+        segments = list.toArray( new Segment[list.size()] );
+
+        if( files.length == 0 ) {
+            roll( 1 );
+        } else {
+            Segment last = segments[segments.length - 1];
+            activeNumber = Integer.parseInt( last.file.getName().substring( "journal-".length(), last.file.getName().length() - ".seg".length() ) );
+            active = (MappedByteBuffer) last.buffer;
+            if( active == null ) {
+                //Not a segment of ours, leave it be
+                roll( activeNumber + 1 );
+                return;
+            }
+            active.position( HEADER );
+            while( next( active ) != null ) {
+                /* Skip to the end of the valid records */
+            }
+            int end = active.position();
+            if( active.remaining() >= 4 && active.getInt( end ) != 0 ) {
+                LOGGER.warning( "Found an incomplete record at the end of " + last.file + ", it is discarded" );
+                while( active.hasRemaining() ) {
+                    active.put( (byte) 0 );
+                }
+                active.position( end );
+            }
+            expire();
+        }
+    }
+
+    /**
+     * Maps a segment, with the position after the header. Creates it if it doesn't exist.
+     * @return the segment, or null if it isn't a journal segment
+     */
+    private MappedByteBuffer map( File file, FileChannel.MapMode mode ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw" );
+        try {
+            boolean fresh = raf.length() == 0;
+            if( fresh && mode == FileChannel.MapMode.READ_ONLY ) {
+                return null;
+            }
+            //The mapping stays valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map( mode, 0, fresh ? segmentSize : raf.length() );
+            if( fresh ) {
+                buffer.putInt( MAGIC ).putInt( VERSION );
+            } else if( buffer.getInt() != MAGIC || buffer.getInt() != VERSION ) {
+                return null;
+            }
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void roll( int number ) throws IOException {
+        if( active != null ) {
+            active.force();
+        }
+        File file = new File( dir, String.format( "journal-%010d.seg", number ) );
+        active = map( file, FileChannel.MapMode.READ_WRITE );
+        active.force();
+        activeNumber = number;
+        Segment[] current = segments;
+        Segment[] next = Arrays.copyOf( current, current.length + 1 );
+        next[current.length] = new Segment( file, active );
+        segments = next;
+        expire();
+    }
+
+    /**
+     * Deletes the oldest segments while there are too many, or all their events are too old. The newest is never
+     * deleted. Scans already reading a deleted segment keep their view of it.
+     */
+    private void expire() {
+        Segment[] current = segments;
+        long cutoff = System.currentTimeMillis() - maxAge;
+        int drop = 0;
+        while( drop < current.length - 1 ) {
+            boolean tooMany = maxSegments > 0 && current.length - drop > maxSegments;
+            //The events of a segment are older than the first event of the next
+            long newer = current[drop + 1].firstTime;
+            boolean tooOld = maxAge > 0 && newer != Long.MAX_VALUE && newer < cutoff;
+            if( !tooMany && !tooOld ) {
+                break;
+            }
+            File file = current[drop].file;
+            if( !file.delete() && file.exists() ) {
+                LOGGER.warning( "Unable to delete the old journal segment " + file + ", trying again later" );
+                break;
+            }
+            drop++;
+        }
+        if( drop > 0 ) {
+            segments = Arrays.copyOfRange( current, drop, current.length );
+        }
+    }
+
+    public synchronized void write( List<RunEvent> events ) throws IOException {
+        open();
+        for( RunEvent event : events ) {
+            append( event );
+        }
+        active.force();
+    }
+
+    private void append( RunEvent event ) throws IOException {
+        byte[] payload = encode( event );
+        if( payload.length + 8 > segmentSize - HEADER ) {
+            throw new IOException( "An event of " + payload.length + " bytes is too large for the journal" );
+        }
+        if( active.remaining() < payload.length + 8 ) {
+            roll( activeNumber + 1 );
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( payload );
+        int position = active.position();
+        active.putInt( position + 4, (int) crc.getValue() );
+        active.position( position + 8 );
+        active.put( payload );
+        //The length makes the record visible, so it goes last
+        active.putInt( position, payload.length );
+
+        Segment segment = segments[segments.length - 1];
+        if( segment.firstTime == Long.MAX_VALUE ) {
+            segment.firstTime = event.time;
+        }
+    }
+
+    /**
+     * Reads the next record of a segment.
+     * @return the event, or null at the end of the valid records, leaving the position there
+     */
+    private static RunEvent next( ByteBuffer buffer ) {
+        int position = buffer.position();
+        if( buffer.remaining() < 8 ) {
+            return null;
+        }
+        int length = buffer.getInt( position );
+        if( length <= 0 || length > buffer.remaining() - 8 ) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.position( position + 8 );
+        buffer.get( payload );
+        CRC32 crc = new CRC32();
+        crc.update( payload );
+        if( (int) crc.getValue() != buffer.getInt( position + 4 ) ) {
+            buffer.position( position );
+            return null;
+        }
+        return decode( payload );
+    }
+
+    /**
+     * Calls the visitor with each event between the two times, both inclusive, in the order they were written.
+     */
+    public void scan( long from, long to, Visitor visitor ) throws IOException {
+        Segment[] current;
+        Segment newest;
+        int end;
+        synchronized( this ) {
+            open();
+            current = segments;
+            newest = current[current.length - 1];
+            end = active.position();
+        }
+
+        for( int i = 0 ; i < current.length ; i++ ) {
+            Segment segment = current[i];
+            if( i + 1 < current.length && current[i + 1].firstTime != Long.MAX_VALUE && current[i + 1].firstTime < from - SLACK ) {
+                //Everything in this segment is older
+                continue;
+            }
+            if( segment.firstTime != Long.MAX_VALUE && segment.firstTime - SLACK > to ) {
+                return;
+            }
+            ByteBuffer buffer = segment.view();
+            if( buffer == null ) {
+                continue;
+            }
+            if( segment == newest ) {
+                //Don't read what is being written
+                buffer.limit( end );
+            }
+            RunEvent event;
+            while( ( event = next( buffer ) ) != null ) {
+                if( event.time >= from && event.time <= to && !visitor.visit( event ) ) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return up to the given number of events between the two times, both inclusive, in the order they were written
+     */
+    public List<RunEvent> query( long from, long to, final int limit ) throws IOException {
+        final List<RunEvent> events = new ArrayList<RunEvent>();
+        scan( from, to, new Visitor() {
+            public boolean visit( RunEvent event ) {
+                events.add( event );
+                return events.size() < limit;
+            }
+        } );
+        return events;
+    }
+
+    private static byte[] encode( RunEvent event ) throws IOException {
+        byte[] job = bytes( event.job );
+        byte[] node = bytes( event.node );
+        ByteBuffer buffer = ByteBuffer.allocate( 1 + 8 + 4 + 8 + 1 + 4 + length( job ) + 4 + length( node ) );
+        buffer.put( (byte) event.type.ordinal() );
+        buffer.putLong( event.time );
+        buffer.putInt( event.number );
+        buffer.putLong( event.duration );
+        buffer.put( (byte) ( event.result == null ? -1 : Arrays.asList( RESULTS ).indexOf( event.result ) ) );
+        put( buffer, job );
+        put( buffer, node );
+        return buffer.array();
+    }
+
+    private static RunEvent decode( byte[] payload ) {
+        ByteBuffer buffer = ByteBuffer.wrap( payload );
+        RunEvent.Type type = RunEvent.Type.values()[buffer.get()];
+        long time = buffer.getLong();
+        int number = buffer.getInt();
+        long duration = buffer.getLong();
+        int result = buffer.get();
+        String job = string( buffer );
+        String node = string( buffer );
+        return new RunEvent( type, time, job, number, node, result < 0 ? null : RESULTS[result], duration );
+    }
+
+    private static byte[] bytes( String s ) throws IOException {
+        return s == null ? null : s.getBytes( "UTF-8" );
+    }
+
+    private static int length( byte[] bytes ) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * Writes the length, -1 for null, and the bytes
+     */
+    private static void put( ByteBuffer buffer, byte[] bytes ) {
+        buffer.putInt( bytes == null ? -1 : bytes.length );
+        if( bytes != null ) {
+            buffer.put( bytes );
+        }
+    }
+
+    private static String string( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if( length < 0 ) {
+            return null;
+        }
+        try {
+            String s = new String( buffer.array(), buffer.position(), length, "UTF-8" );
+            buffer.position( buffer.position() + length );
+            return s;
+        } catch( UnsupportedEncodingException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "journal " + dir;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import hudson.util.DaemonThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.praqma.jenkins.one.metrics.StripedCounter;
+
+/**
+ * Delivers {@link RunEvent}s to {@link EventSink}s in the background, so the build threads publishing them never wait
+ * for a file or a socket.
+ *
+ * Publishing puts the event in a {@link RingBuffer} and returns. Background consumers take the events out in batches
+ * and hand them to each sink. With more than one consumer, batches may reach the sinks out of order.
+ *
+ * A consumer that finds the buffer empty waits until it is woken up by the next event published. Publishing only takes
+ * the lock to do so when a consumer is actually waiting, so a busy pipeline never locks. The consumers are started by
+ * the first event published, and never if there are no sinks.
+ *
+ * What happens when the buffer fills up is decided by the {@link Policy}. Every event is counted as published,
+ * dropped, sampled away, delivered or failed, and the counts are exposed by the
+ * {@link net.praqma.jenkins.one.actions.OneMetricsAction}.
+ *
+ * The pipeline is configured with system properties, all prefixed with <code>net.praqma.jenkins.one.events.EventPipeline</code>:
+ * <ul>
+ *     <li><code>.file</code>: a file to append the events to, besides the {@link EventJournal}</li>
+ *     <li><code>.port</code>: a port on the local machine to send the events to</li>
+ *     <li><code>.capacity</code>: the size of the buffer, 8192 by default</li>
+ *     <li><code>.consumers</code>: the number of background consumers, 1 by default</li>
+ *     <li><code>.policy</code>: DROP, BLOCK or SAMPLE, DROP by default</li>
+ *     <li><code>.sampleRate</code>: with SAMPLE, one in this many events are kept under pressure, 10 by default</li>
+ * </ul>
+ * If the journal is not enabled and there is no file or port, there are no sinks, and nothing is published.
+ *
+ * @author Praqma
+ */
+public class EventPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger( EventPipeline.class.getName() );
+
+    private static final String PREFIX = EventPipeline.class.getName();
+
+    /**
+     * What to do with an event when the buffer is full
+     */
+    public enum Policy {
+        /**
+         * Throw it away
+         */
+        DROP,
+        /**
+         * Wait for room in the buffer, slowing down the build publishing it
+         */
+        BLOCK,
+        /**
+         * Keep only one in {@link #getSampleRate()} events once the buffer is half full, and drop when it is full
+         */
+        SAMPLE
+    }
+
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Creates the instance the first time it is asked for, rather than when the class is loaded
+     */
+    private static class Holder {
+        private static final EventPipeline INSTANCE = new EventPipeline(
+                createSinks(), Integer.getInteger( PREFIX + ".capacity", 8192 ), Integer.getInteger( PREFIX + ".consumers", 1 ),
+                readPolicy(), Integer.getInteger( PREFIX + ".sampleRate", 10 ) );
+    }
+
+    private final List<EventSink> sinks;
+    private final RingBuffer<RunEvent> buffer;
+    private final int consumers;
+    private final Policy policy;
+    private final int sampleRate;
+
+    private final StripedCounter published = new StripedCounter();
+    private final StripedCounter dropped = new StripedCounter();
+    private final StripedCounter sampled = new StripedCounter();
+    private final StripedCounter delivered = new StripedCounter();
+    private final StripedCounter failed = new StripedCounter();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Consumers wait for events, and blocked producers for room, on these. Each is only signalled if somebody is
+     * counted as waiting for it.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger idleConsumers = new AtomicInteger();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+
+    private volatile boolean started;
+
+    public EventPipeline( List<EventSink> sinks, int capacity, int consumers, Policy policy, int sampleRate ) {
+        this.sinks = Collections.unmodifiableList( new ArrayList<EventSink>( sinks ) );
+        this.buffer = new RingBuffer<RunEvent>( capacity );
+        this.consumers = Math.max( 1, consumers );
+        this.policy = policy;
+        this.sampleRate = Math.max( 1, sampleRate );
+    }
+
+    public static EventPipeline getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static List<EventSink> createSinks() {
+        List<EventSink> sinks = new ArrayList<EventSink>();
+        if( EventJournal.isEnabled() ) {
+            sinks.add( EventJournal.getInstance() );
+        }
+        String file = System.getProperty( PREFIX + ".file" );
+        if( file != null && file.length() > 0 ) {
+            sinks.add( new FileSink( new File( file ) ) );
+        }
+        Integer port = Integer.getInteger( PREFIX + ".port" );
+        if( port != null ) {
+            sinks.add( new SocketSink( port ) );
+        }
+        return sinks;
+    }
+
+    private static Policy readPolicy() {
+        String policy = System.getProperty( PREFIX + ".policy", Policy.DROP.name() );
+        try {
+            return Policy.valueOf( policy.toUpperCase() );
+        } catch( IllegalArgumentException e ) {
+            LOGGER.warning( "Unknown policy " + policy + ", dropping events when the buffer is full" );
+            return Policy.DROP;
+        }
+    }
+
+    public boolean isEnabled() {
+        return !sinks.isEmpty();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Hands an event to the pipeline. Only waits if the buffer is full and the policy is {@link Policy#BLOCK}.
+     * @return true if the event was accepted
+     */
+    public boolean publish( RunEvent event ) {
+        if( !isEnabled() ) {
+            return false;
+        }
+        if( !started ) {
+            start();
+        }
+        published.increment();
+
+        if( policy == Policy.SAMPLE && buffer.size() >= buffer.capacity() / 2 && sequence.incrementAndGet() % sampleRate != 0 ) {
+            sampled.increment();
+            return false;
+        }
+
+        if( buffer.offer( event ) ) {
+            signal( idleConsumers, notEmpty );
+            return true;
+        }
+        if( policy == Policy.BLOCK ) {
+            try {
+                awaitRoom( event );
+                signal( idleConsumers, notEmpty );
+                return true;
+            } catch( InterruptedException e ) {
+                //Let the build see it was interrupted
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Waits until the event fits in the buffer, and adds it.
+     */
+    private void awaitRoom( RunEvent event ) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            //Counted before trying again, so a consumer making room after this sees us and signals
+            blockedProducers.incrementAndGet();
+            try {
+                while( !buffer.offer( event ) ) {
+                    notFull.await();
+                }
+            } finally {
+                blockedProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the buffer is not empty.
+     */
+    private void awaitEvents() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            //Counted before looking again, so a producer adding after this sees us and signals
+            idleConsumers.incrementAndGet();
+            try {
+                while( buffer.size() == 0 ) {
+                    notEmpty.await();
+                }
+            } finally {
+                idleConsumers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up the threads waiting on the condition, if any are counted as waiting.
+     */
+    private void signal( AtomicInteger waiting, Condition condition ) {
+        if( waiting.get() > 0 ) {
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true once the consumers are running
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    private synchronized void start() {
+        if( started || sinks.isEmpty() ) {
+            return;
+        }
+        ThreadFactory factory = new DaemonThreadFactory();
+        for( int i = 0 ; i < consumers ; i++ ) {
+            Thread thread = factory.newThread( new Consumer() );
+            thread.setName( "One event pipeline consumer " + ( i + 1 ) );
+            thread.start();
+        }
+        started = true;
+    }
+
+    /**
+     * Takes events out of the buffer in batches, waiting for more when there are none.
+     */
+    private class Consumer implements Runnable {
+        public void run() {
+            List<RunEvent> batch = new ArrayList<RunEvent>( BATCH_SIZE );
+            while( true ) {
+                if( buffer.drainTo( batch, BATCH_SIZE ) == 0 ) {
+                    try {
+                        awaitEvents();
+                    } catch( InterruptedException e ) {
+                        LOGGER.fine( "Event pipeline consumer interrupted, stopping" );
+                        return;
+                    }
+                    continue;
+                }
+                //Room was made, so producers blocked on a full buffer may go on
+                signal( blockedProducers, notFull );
+                for( EventSink sink : sinks ) {
+                    try {
+                        sink.write( batch );
+                        delivered.add( batch.size() );
+                    } catch( IOException e ) {
+                        failed.add( batch.size() );
+                        LOGGER.log( Level.FINE, "Unable to deliver " + batch.size() + " events to " + sink, e );
+                    } catch( RuntimeException e ) {
+                        failed.add( batch.size() );
+                        LOGGER.log( Level.WARNING, "Unable to deliver " + batch.size() + " events to " + sink, e );
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    /**
+     * @return the number of events delivered, counted once per sink
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * @return the number of events that could not be delivered, counted once per sink
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Writes the counters in the Prometheus text exposition format
+     */
+    public void writePrometheus( Writer out ) throws IOException {
+        write( out, "one_events_published_total", "Events published by the run listener", getPublished() );
+        write( out, "one_events_dropped_total", "Events dropped because the buffer was full", getDropped() );
+        write( out, "one_events_sampled_total", "Events left out by sampling", getSampled() );
+        write( out, "one_events_delivered_total", "Events delivered, per sink", getDelivered() );
+        write( out, "one_events_failed_total", "Events that could not be delivered, per sink", getFailed() );
+        out.write( "# HELP one_events_buffered Events waiting in the buffer\n" );
+        out.write( "# TYPE one_events_buffered gauge\n" );
+        out.write( "one_events_buffered " + buffer.size() + "\n" );
+        out.flush();
+    }
+
+    private static void write( Writer out, String name, String help, long value ) throws IOException {
+        out.write( "# HELP " + name + " " + help + "\n" );
+        out.write( "# TYPE " + name + " counter\n" );
+        out.write( name + " " + value + "\n" );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Appends events to a file, one line of JSON each. The file is kept open, and flushed after each batch.
+ *
+ * @author Praqma
+ */
+public class FileSink implements EventSink {
+
+    private final File file;
+    private Writer writer;
+
+    public FileSink( File file ) {
+        this.file = file;
+    }
+
+    public synchronized void write( List<RunEvent> events ) throws IOException {
+        if( writer == null ) {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ), "UTF-8" ), 65536 );
+        }
+        try {
+            for( RunEvent event : events ) {
+                writer.write( event.toJson() );
+                writer.write( '\n' );
+            }
+            writer.flush();
+        } catch( IOException e ) {
+            //Open the file again next time
+            close();
+            throw e;
+        }
+    }
+
+    private void close() {
+        try {
+            writer.close();
+        } catch( IOException e ) {
+            /* Already failing */
+        }
+        writer = null;
+    }
+
+    @Override
+    public String toString() {
+        return "file " + file;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue that any number of threads can add to and take from without locking.
+ *
+ * Each slot has a sequence number telling whether it is free for the producer at a given position, or holds an element
+ * for the consumer at that position. Producers and consumers claim positions by advancing the tail and the head with
+ * compare-and-set, and hand the slot over by publishing the next sequence number. Adding to a full queue fails at
+ * once, it never waits.
+ *
+ * @author Praqma
+ */
+public class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     */
+    public RingBuffer( int capacity ) {
+        int size = 1;
+        while( size < capacity ) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>( size );
+        this.sequences = new AtomicLongArray( size );
+        for( int i = 0 ; i < size ; i++ ) {
+            sequences.set( i, i );
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of elements, which may already have changed
+     */
+    public int size() {
+        return (int) Math.max( 0, Math.min( tail.get() - head.get(), capacity() ) );
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer( E element ) {
+        while( true ) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get( index ) - position;
+            if( difference == 0 ) {
+                if( tail.compareAndSet( position, position + 1 ) ) {
+                    elements.lazySet( index, element );
+                    sequences.set( index, position + 1 );
+                    return true;
+                }
+            } else if( difference < 0 ) {
+                //The consumer hasn't freed the slot a lap ago
+                return false;
+            }
+            //Another producer took the position, try the next
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the queue is empty
+     */
+    public E poll() {
+        while( true ) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get( index ) - ( position + 1 );
+            if( difference == 0 ) {
+                if( head.compareAndSet( position, position + 1 ) ) {
+                    E element = elements.get( index );
+                    elements.lazySet( index, null );
+                    sequences.set( index, position + capacity() );
+                    return element;
+                }
+            } else if( difference < 0 ) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Moves up to the given number of elements to the list, oldest first.
+     * @return the number of elements moved
+     */
+    public int drainTo( List<? super E> list, int max ) {
+        int count = 0;
+        E element;
+        while( count < max && ( element = poll() ) != null ) {
+            list.add( element );
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import hudson.model.Result;
+import hudson.model.Run;
+import java.io.IOException;
+import java.io.StringWriter;
+import net.praqma.jenkins.one.util.JsonWriter;
+
+/**
+ * Something that happened to a build, as published by the {@link net.praqma.jenkins.one.listeners.OneRunListener}.
+ *
+ * Events are created on the build thread, so they only copy what the run already knows. Formatting them is left to
+ * the background consumers.
+ *
+ * @author Praqma
+ */
+public class RunEvent {
+
+    /**
+     * New types go at the end, the {@link EventJournal} stores them by their position
+     */
+    public enum Type {
+        STARTED, COMPLETED, DELETED, SETUP
+    }
+
+    public final Type type;
+    /**
+     * When the event happened, in milliseconds
+     */
+    public final long time;
+    public final String job;
+    public final int number;
+    public final String node;
+    /**
+     * The result, or null if the build has none yet
+     */
+    public final Result result;
+    /**
+     * The duration in milliseconds, 0 until the build has completed
+     */
+    public final long duration;
+
+    public RunEvent( Type type, long time, String job, int number, String node, Result result, long duration ) {
+        this.type = type;
+        this.time = time;
+        this.job = job;
+        this.number = number;
+        this.node = node;
+        this.result = result;
+        this.duration = duration;
+    }
+
+    public static RunEvent of( Type type, Run<?, ?> run, String node ) {
+        return new RunEvent( type, System.currentTimeMillis(), run.getParent().getFullName(), run.getNumber(), node, run.getResult(), run.getDuration() );
+    }
+
+    /**
+     * @return the event as a single line of JSON
+     */
+    public String toJson() {
+        StringWriter out = new StringWriter( 160 );
+        try {
+            JsonWriter json = new JsonWriter( out );
+            json.beginObject();
+            json.name( "type" ).value( type.name() );
+            json.name( "time" ).value( time );
+            json.name( "job" ).value( job );
+            json.name( "number" ).value( number );
+            json.name( "node" ).value( node );
+            json.name( "result" );
+            if( result != null ) {
+                json.value( result.toString() );
+            } else {
+                json.nullValue();
+            }
+            json.name( "duration" ).value( duration );
+            json.endObject().flush();
+        } catch( IOException e ) {
+            /* A StringWriter doesn't throw */
+            throw new IllegalStateException( e );
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Sends events to a port on the local machine, one line of JSON each, e.g. to a log shipper listening there. The
+ * connection is made when the first batch is sent, and made again after it fails.
+ *
+ * @author Praqma
+ */
+public class SocketSink implements EventSink {
+
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    private final int port;
+    private Socket socket;
+    private Writer writer;
+
+    public SocketSink( int port ) {
+        this.port = port;
+    }
+
+    public synchronized void write( List<RunEvent> events ) throws IOException {
+        if( socket == null ) {
+            Socket s = new Socket();
+            try {
+                s.connect( new InetSocketAddress( InetAddress.getByName( null ), port ), CONNECT_TIMEOUT );
+                writer = new BufferedWriter( new OutputStreamWriter( s.getOutputStream(), "UTF-8" ), 65536 );
+            } catch( IOException e ) {
+                s.close();
+                throw e;
+            }
+            socket = s;
+        }
+        try {
+            for( RunEvent event : events ) {
+                writer.write( event.toJson() );
+                writer.write( '\n' );
+            }
+            writer.flush();
+        } catch( IOException e ) {
+            close();
+            throw e;
+        }
+    }
+
+    private void close() {
+        try {
+            socket.close();
+        } catch( IOException e ) {
+            /* Already failing */
+        }
+        socket = null;
+        writer = null;
+    }
+
+    @Override
+    public String toString() {
+        return "port " + port;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.listeners;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import java.io.IOException;
+import net.praqma.jenkins.one.build.ProbeCache;
+
+/**
+ * A computer listener is notified whenever a node comes online, goes offline or is reconfigured.
+ *
+ * We use it to throw away cached probe results for nodes that may have changed since we last looked at them. A slave
+ * that reconnects may have been reinstalled, or have gotten a new JDK.
+ *
+ * @author Praqma
+ */
+@Extension
+public class OneComputerListener extends ComputerListener {
+
+    /**
+     * Called when a slave is connected, and before any build is scheduled on it.
+     * @param c the computer that came online
+     * @param listener the log of the connection
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Override
+    public void onOnline( Computer c, TaskListener listener ) throws IOException, InterruptedException {
+        ProbeCache.getInstance().invalidate( c.getName() );
+    }
+
+    /**
+     * @param c the computer that went offline
+     */
+    @Override
+    public void onOffline( Computer c ) {
+        ProbeCache.getInstance().invalidate( c.getName() );
+    }
+
+    /**
+     * Called when a node is added, removed or reconfigured. We don't know which one, so everything goes.
+     */
+    @Override
+    public void onConfigurationChange() {
+        ProbeCache.getInstance().invalidateAll();
+    }
+}
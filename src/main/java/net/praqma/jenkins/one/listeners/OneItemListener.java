@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.listeners;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import net.praqma.jenkins.one.actions.OneHistoryIndex;
+import net.praqma.jenkins.one.actions.OneProjectAction;
+import net.praqma.jenkins.one.metrics.BuildMetrics;
+
+/**
+ * An item listener is notified when jobs are created, renamed or deleted.
+ *
+ * Our per-project data is cached by the full name of the project, so it must be forgotten when the name changes.
+ *
+ * @author Praqma
+ */
+@Extension
+public class OneItemListener extends ItemListener {
+
+    @Override
+    public void onRenamed( Item item, String oldName, String newName ) {
+        String parent = item.getParent().getFullName();
+        String oldFullName = parent.length() == 0 ? oldName : parent + "/" + oldName;
+        OneHistoryIndex.evict( oldFullName );
+        OneHistoryIndex.evict( item.getFullName() );
+        OneProjectAction.evict( oldFullName );
+        OneProjectAction.evict( item.getFullName() );
+        BuildMetrics.getInstance().evictJob( oldFullName );
+    }
+
+    @Override
+    public void onDeleted( Item item ) {
+        OneHistoryIndex.evict( item.getFullName() );
+        OneProjectAction.evict( item.getFullName() );
+        BuildMetrics.getInstance().evictJob( item.getFullName() );
+    }
+}
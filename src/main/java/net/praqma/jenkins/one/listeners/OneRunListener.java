@@ -5,6 +5,16 @@ import hudson.Launcher;
 import hudson.model.*;
 import hudson.model.listeners.RunListener;
 import java.io.IOException;
+import java.util.logging.Logger;
+import net.praqma.jenkins.one.actions.OneBuildAction;
+import net.praqma.jenkins.one.actions.OneGlobalIndex;
+import net.praqma.jenkins.one.actions.OneHistoryIndex;
+import net.praqma.jenkins.one.actions.OneTimingAction;
+import net.praqma.jenkins.one.build.OneBuildWrapper;
+import net.praqma.jenkins.one.build.PermitPool;
+import net.praqma.jenkins.one.events.EventPipeline;
+import net.praqma.jenkins.one.events.RunEvent;
+import net.praqma.jenkins.one.metrics.BuildMetrics;
 
 /**
  * 
@@ -13,17 +23,35 @@ import java.io.IOException;
  * 
  * This is extremely useful for writing a plugin that monitors usage of a given plugin for example. 
  * 
+ * We use it to keep the {@link OneHistoryIndex} of each project and the {@link OneGlobalIndex} up to date, as builds
+ * complete or are deleted, and to feed the instance-wide {@link BuildMetrics}. These listeners run on the executor
+ * thread of the build. Recording the metrics takes no locks and does no I/O, and events for other systems are handed
+ * to the {@link EventPipeline}, which delivers them in the background. The updates of the indexes, when a build
+ * completes or is deleted, are handed to a background writer as well, which reads and appends to their files. Only
+ * the items of the build are written on this thread, once, when it completes.
+ * 
+ * The listener is called for every build on the instance, also of projects not using this plugin, so it writes nothing
+ * to the build logs. What it is called with is logged at FINE.
+ * 
  * @author cwolfgang
  */
+@Extension
 public class OneRunListener extends RunListener<Run> {
 
+    private static final Logger LOGGER = Logger.getLogger( OneRunListener.class.getName() );
+
     /**
      * @param run
      * @param listener 
      */
     @Override
     public void onStarted( Run run, TaskListener listener ) {
-        listener.getLogger().println( "One Run Listener - OnStarted" );        
+        LOGGER.fine( "One Run Listener - OnStarted " + run );
+
+        Executor executor = run.getExecutor();
+        String node = getNodeName( run );
+        BuildMetrics.getInstance().started( run.getParent().getFullName(), node, executor != null ? executor.getTimeSpentInQueue() : 0 );
+        EventPipeline.getInstance().publish( RunEvent.of( RunEvent.Type.STARTED, run, node ) );
     }
 
     /**
@@ -33,7 +61,62 @@ public class OneRunListener extends RunListener<Run> {
      */
     @Override
     public void onCompleted( Run run, TaskListener listener ) {
-        listener.getLogger().println( "One Run Listener - OnCompleted" );
+        LOGGER.fine( "One Run Listener - OnCompleted " + run );
+
+        //The teardown phase started by the OneBuildWrapper ends here
+        OneTimingAction timing = run.getAction( OneTimingAction.class );
+        if( timing != null ) {
+            timing.stop( OneTimingAction.TEARDOWN );
+        }
+
+        //The duration is set just before the listeners are called, but fall back to the elapsed time anyway
+        long duration = run.getDuration() > 0 ? run.getDuration() : System.currentTimeMillis() - run.getTimeInMillis();
+        String node = getNodeName( run );
+        BuildMetrics.getInstance().completed( run.getParent().getFullName(), node, run.getResult(), duration );
+        EventPipeline.getInstance().publish( RunEvent.of( RunEvent.Type.COMPLETED, run, node ) );
+
+        if( run instanceof AbstractBuild ) {
+            OneHistoryIndex.onCompleted( (AbstractBuild<?, ?>) run );
+            OneGlobalIndex.onCompleted( (AbstractBuild<?, ?>) run );
+        }
+
+        //In case the build was aborted before the OneBuildWrapper could release its permits and end its steps
+        PermitPool.releaseAll( run );
+        if( run instanceof AbstractBuild ) {
+            OneBuildWrapper.endSteps( (AbstractBuild<?, ?>) run );
+        }
+
+        //No more items are added, so they no longer need to be held on to
+        OneBuildAction action = OneBuildAction.of( run );
+        if( action != null ) {
+            action.release();
+        }
+    }
+
+    /**
+     * @return the name of the node the run is executing on, "master" for the master
+     */
+    private static String getNodeName( Run run ) {
+        String name = null;
+        Executor executor = run.getExecutor();
+        if( executor != null ) {
+            name = executor.getOwner().getName();
+        } else if( run instanceof AbstractBuild ) {
+            name = ( (AbstractBuild<?, ?>) run ).getBuiltOnStr();
+        }
+        return name == null || name.length() == 0 ? "master" : name;
+    }
+
+    /**
+     * Called when a build is deleted, either by a user or by the log rotator.
+     * @param run 
+     */
+    @Override
+    public void onDeleted( Run run ) {
+        EventPipeline.getInstance().publish( RunEvent.of( RunEvent.Type.DELETED, run, null ) );
+        if( run instanceof AbstractBuild ) {
+            OneHistoryIndex.onDeleted( (AbstractBuild<?, ?>) run );
+        }
     }
     
     /**
@@ -47,7 +130,8 @@ public class OneRunListener extends RunListener<Run> {
      */
     @Override
     public Environment setUpEnvironment( AbstractBuild build, Launcher launcher, BuildListener listener ) throws IOException, InterruptedException {
-        listener.getLogger().println( "One Run Listener - OnSetupEnv" );
+        LOGGER.fine( "One Run Listener - OnSetupEnv " + build );
+        EventPipeline.getInstance().publish( RunEvent.of( RunEvent.Type.SETUP, build, getNodeName( build ) ) );
 
         return super.setUpEnvironment(build, launcher, listener);
     }
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import hudson.model.Result;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.praqma.jenkins.one.util.JsonWriter;
+
+/**
+ * Instance-wide build metrics: builds started, builds completed by result, queue time and duration, both per job and per node.
+ *
+ * Recording happens on the executor thread of every build, so it must be cheap. A series is looked up in a
+ * {@link ConcurrentHashMap}, which doesn't lock for keys already present, and updated through {@link StripedCounter}s
+ * and {@link Histogram}s, which never block. Only the first build of a job or on a node creates its series. Nothing is
+ * written to disk.
+ *
+ * The metrics are read by {@link net.praqma.jenkins.one.actions.OneMetricsAction}, as Prometheus text or JSON.
+ *
+ * @author Praqma
+ */
+public class BuildMetrics {
+
+    /**
+     * Indexed by {@link Result#ordinal}
+     */
+    public static final Result[] RESULTS = { Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED };
+
+    private static final BuildMetrics INSTANCE = new BuildMetrics();
+
+    private final ConcurrentMap<String, Series> jobs = new ConcurrentHashMap<String, Series>();
+    private final ConcurrentMap<String, Series> nodes = new ConcurrentHashMap<String, Series>();
+
+    /**
+     * Decides which jobs are written, e.g. only those the current user may see.
+     */
+    public interface JobFilter {
+        boolean accept( String job );
+    }
+
+    /**
+     * Writes all jobs
+     */
+    public static final JobFilter ALL_JOBS = new JobFilter() {
+        public boolean accept( String job ) {
+            return true;
+        }
+    };
+
+    public static BuildMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The metrics of a single job or node.
+     */
+    public static class Series {
+        private final StripedCounter started = new StripedCounter();
+        private final StripedCounter[] completed = new StripedCounter[RESULTS.length];
+        private final Histogram queue = new Histogram();
+        private final Histogram duration = new Histogram();
+
+        Series() {
+            for( int i = 0 ; i < completed.length ; i++ ) {
+                completed[i] = new StripedCounter();
+            }
+        }
+
+        public long getStarted() {
+            return started.sum();
+        }
+
+        public long getCompleted( Result result ) {
+            return completed[result.ordinal].sum();
+        }
+
+        public Histogram getQueue() {
+            return queue;
+        }
+
+        public Histogram getDuration() {
+            return duration;
+        }
+    }
+
+    /**
+     * Records a build leaving the queue.
+     *
+     * @param job the full name of the job
+     * @param node the name of the node the build runs on
+     * @param queueMillis the time the build spent waiting for an executor
+     */
+    public void started( String job, String node, long queueMillis ) {
+        Series j = series( jobs, job );
+        Series n = series( nodes, node );
+        j.started.increment();
+        n.started.increment();
+        j.queue.record( queueMillis );
+        n.queue.record( queueMillis );
+    }
+
+    /**
+     * Records a build completing.
+     *
+     * @param job the full name of the job
+     * @param node the name of the node the build ran on
+     * @param result the result of the build, or null if it has none
+     * @param durationMillis the duration of the build
+     */
+    public void completed( String job, String node, Result result, long durationMillis ) {
+        int ordinal = result != null && result.ordinal < RESULTS.length ? result.ordinal : Result.NOT_BUILT.ordinal;
+        Series j = series( jobs, job );
+        Series n = series( nodes, node );
+        j.completed[ordinal].increment();
+        n.completed[ordinal].increment();
+        j.duration.record( durationMillis );
+        n.duration.record( durationMillis );
+    }
+
+    /**
+     * Forgets the metrics of a job, e.g. because it was renamed or deleted.
+     */
+    public void evictJob( String job ) {
+        jobs.remove( job );
+    }
+
+    /**
+     * @return the series of all jobs, sorted by name
+     */
+    public Map<String, Series> getJobs() {
+        return new TreeMap<String, Series>( jobs );
+    }
+
+    /**
+     * @return the series of the jobs accepted by the filter, sorted by name
+     */
+    public Map<String, Series> getJobs( JobFilter filter ) {
+        Map<String, Series> map = new TreeMap<String, Series>();
+        for( Map.Entry<String, Series> e : jobs.entrySet() ) {
+            if( filter.accept( e.getKey() ) ) {
+                map.put( e.getKey(), e.getValue() );
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the series of all nodes, sorted by name
+     */
+    public Map<String, Series> getNodes() {
+        return new TreeMap<String, Series>( nodes );
+    }
+
+    private static Series series( ConcurrentMap<String, Series> map, String key ) {
+        Series series = map.get( key );
+        if( series == null ) {
+            Series created = new Series();
+            series = map.putIfAbsent( key, created );
+            if( series == null ) {
+                series = created;
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Writes the metrics of the nodes, and of the jobs accepted by the filter, in the Prometheus text exposition format,
+     * version 0.0.4. Times are in seconds.
+     */
+    public void writePrometheus( Writer out, JobFilter filter ) throws IOException {
+        writePrometheus( out, "job", getJobs( filter ) );
+        writePrometheus( out, "node", getNodes() );
+        out.flush();
+    }
+
+    private static void writePrometheus( Writer out, String label, Map<String, Series> series ) throws IOException {
+        String prefix = "one_" + label + "_";
+
+        out.write( "# HELP " + prefix + "builds_started_total Builds started, per " + label + "\n" );
+        out.write( "# TYPE " + prefix + "builds_started_total counter\n" );
+        for( Map.Entry<String, Series> e : series.entrySet() ) {
+            out.write( prefix + "builds_started_total{" + label + "=\"" + escape( e.getKey() ) + "\"} " + e.getValue().getStarted() + "\n" );
+        }
+
+        out.write( "# HELP " + prefix + "builds_completed_total Builds completed, per " + label + " and result\n" );
+        out.write( "# TYPE " + prefix + "builds_completed_total counter\n" );
+        for( Map.Entry<String, Series> e : series.entrySet() ) {
+            for( Result result : RESULTS ) {
+                out.write( prefix + "builds_completed_total{" + label + "=\"" + escape( e.getKey() ) + "\",result=\"" + result + "\"} " + e.getValue().getCompleted( result ) + "\n" );
+            }
+        }
+
+        writeHistogram( out, prefix + "queue_seconds", "Time spent waiting for an executor, per " + label, label, series, true );
+        writeHistogram( out, prefix + "duration_seconds", "Build duration, per " + label, label, series, false );
+    }
+
+    private static void writeHistogram( Writer out, String name, String help, String label, Map<String, Series> series, boolean queue ) throws IOException {
+        out.write( "# HELP " + name + " " + help + "\n" );
+        out.write( "# TYPE " + name + " histogram\n" );
+        for( Map.Entry<String, Series> e : series.entrySet() ) {
+            Histogram histogram = queue ? e.getValue().getQueue() : e.getValue().getDuration();
+            String labels = label + "=\"" + escape( e.getKey() ) + "\"";
+            long[] bounds = histogram.getBounds();
+            long[] counts = histogram.getCounts();
+            long cumulative = 0;
+            for( int i = 0 ; i < counts.length ; i++ ) {
+                cumulative += counts[i];
+                String le = i < bounds.length ? seconds( bounds[i] ) : "+Inf";
+                out.write( name + "_bucket{" + labels + ",le=\"" + le + "\"} " + cumulative + "\n" );
+            }
+            out.write( name + "_sum{" + labels + "} " + seconds( histogram.getSum() ) + "\n" );
+            out.write( name + "_count{" + labels + "} " + cumulative + "\n" );
+        }
+    }
+
+    private static String seconds( long millis ) {
+        return Double.toString( millis / 1000.0 );
+    }
+
+    /**
+     * Escapes a label value, as required by the Prometheus text format
+     */
+    static String escape( String value ) {
+        StringBuilder sb = new StringBuilder( value.length() );
+        for( int i = 0 ; i < value.length() ; i++ ) {
+            char c = value.charAt( i );
+            switch( c ) {
+                case '\\':
+                    sb.append( "\\\\" );
+                    break;
+                case '"':
+                    sb.append( "\\\"" );
+                    break;
+                case '\n':
+                    sb.append( "\\n" );
+                    break;
+                default:
+                    sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the metrics of the nodes, and of the jobs accepted by the filter, as JSON. Times are in milliseconds,
+     * bucket counts are not cumulative and have one more entry than the bounds, for the values above the last bound.
+     */
+    public void writeJson( JsonWriter json, JobFilter filter ) throws IOException {
+        json.beginObject();
+        json.name( "jobs" );
+        writeJson( json, getJobs( filter ) );
+        json.name( "nodes" );
+        writeJson( json, getNodes() );
+        json.endObject().flush();
+    }
+
+    private static void writeJson( JsonWriter json, Map<String, Series> series ) throws IOException {
+        json.beginObject();
+        for( Map.Entry<String, Series> e : series.entrySet() ) {
+            json.name( e.getKey() ).beginObject();
+            json.name( "started" ).value( e.getValue().getStarted() );
+            json.name( "completed" ).beginObject();
+            for( Result result : RESULTS ) {
+                json.name( result.toString() ).value( e.getValue().getCompleted( result ) );
+            }
+            json.endObject();
+            json.name( "queue" );
+            writeJson( json, e.getValue().getQueue() );
+            json.name( "duration" );
+            writeJson( json, e.getValue().getDuration() );
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    private static void writeJson( JsonWriter json, Histogram histogram ) throws IOException {
+        json.beginObject();
+        json.name( "bounds" ).beginArray();
+        for( long bound : histogram.getBounds() ) {
+            json.value( bound );
+        }
+        json.endArray();
+        long count = 0;
+        json.name( "counts" ).beginArray();
+        for( long c : histogram.getCounts() ) {
+            json.value( c );
+            count += c;
+        }
+        json.endArray();
+        json.name( "sum" ).value( histogram.getSum() );
+        json.name( "count" ).value( count );
+        json.endObject();
+    }
+}
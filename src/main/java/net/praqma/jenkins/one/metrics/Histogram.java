@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed buckets, recorded the same lock-free, striped way as {@link StripedCounter}.
+ *
+ * The bucket bounds are given in milliseconds and are inclusive upper bounds, like the <code>le</code> label of a
+ * Prometheus histogram. A last, unbounded bucket catches everything above.
+ *
+ * @author Praqma
+ */
+public class Histogram {
+
+    /**
+     * From a tenth of a second to an hour, the range of queue times and build durations we care about.
+     */
+    public static final long[] DEFAULT_BOUNDS = { 100, 500, 1000, 5000, 10000, 30000, 60000, 300000, 600000, 1800000, 3600000 };
+
+    private final long[] bounds;
+    private final int width;
+
+    /**
+     * Per stripe: one cell per bucket, then the sum. Padded to whole cache lines.
+     */
+    private final AtomicLongArray cells;
+
+    public Histogram() {
+        this( DEFAULT_BOUNDS );
+    }
+
+    public Histogram( long[] bounds ) {
+        this.bounds = bounds.clone();
+        int cellsPerStripe = bounds.length + 2;
+        this.width = ( cellsPerStripe + StripedCounter.PADDING - 1 ) / StripedCounter.PADDING * StripedCounter.PADDING;
+        this.cells = new AtomicLongArray( StripedCounter.STRIPES * width );
+    }
+
+    /**
+     * @param millis the value to record, in milliseconds
+     */
+    public void record( long millis ) {
+        int bucket = 0;
+        while( bucket < bounds.length && millis > bounds[bucket] ) {
+            bucket++;
+        }
+        int base = StripedCounter.stripe() * width;
+        cells.getAndIncrement( base + bucket );
+        cells.getAndAdd( base + bounds.length + 1, millis );
+    }
+
+    /**
+     * @return the upper bounds of the buckets in milliseconds, not including the unbounded one
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return the number of values in each bucket, the last one being unbounded. Not cumulative.
+     */
+    public long[] getCounts() {
+        long[] counts = new long[bounds.length + 1];
+        for( int s = 0 ; s < StripedCounter.STRIPES ; s++ ) {
+            for( int b = 0 ; b < counts.length ; b++ ) {
+                counts[b] += cells.get( s * width + b );
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the sum of all values recorded, in milliseconds
+     */
+    public long getSum() {
+        long sum = 0;
+        for( int s = 0 ; s < StripedCounter.STRIPES ; s++ ) {
+            sum += cells.get( s * width + bounds.length + 1 );
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without contending on a single memory location.
+ *
+ * The count is spread over a number of stripes, picked by the id of the adding thread. Each stripe sits on its own cache
+ * line, so threads on different cores don't invalidate each others caches. Adding is a single atomic operation and
+ * never blocks. Reading sums up the stripes, and is not atomic with respect to concurrent adds.
+ *
+ * @author Praqma
+ */
+public class StripedCounter {
+
+    /**
+     * Longs per cache line. Stripes are this far apart.
+     */
+    static final int PADDING = 8;
+
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray( STRIPES * PADDING );
+
+    public void increment() {
+        add( 1 );
+    }
+
+    public void add( long value ) {
+        cells.getAndAdd( stripe() * PADDING, value );
+    }
+
+    public long sum() {
+        long sum = 0;
+        for( int i = 0 ; i < STRIPES ; i++ ) {
+            sum += cells.get( i * PADDING );
+        }
+        return sum;
+    }
+
+    /**
+     * @return the stripe of the current thread
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ( ( id ^ ( id >>> 16 ) ) & ( STRIPES - 1 ) );
+    }
+
+    /**
+     * @return twice the number of processors, rounded up to a power of two
+     */
+    private static int stripes() {
+        int n = 1;
+        while( n < Runtime.getRuntime().availableProcessors() * 2 ) {
+            n <<= 1;
+        }
+        return n;
+    }
+}
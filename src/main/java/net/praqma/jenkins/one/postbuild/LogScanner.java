@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.postbuild;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Scans a file, typically a console log, with a {@link PatternMatcher.Scan} without reading it into memory.
+ *
+ * The file is read through its channel in chunks of {@link #CHUNK_SIZE} bytes, and decoded into a buffer of the same
+ * size. The literal automaton keeps its state between chunks, so matches crossing a chunk boundary are found. Regular
+ * expressions are evaluated per line, and lines longer than {@link #MAX_LINE} characters are cut, so memory use does not
+ * depend on the size of the file.
+ *
+ * Scanning stops as soon as the outcome is decided.
+ *
+ * @author Praqma
+ */
+public class LogScanner {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_LINE = 64 * 1024;
+
+    private final Charset charset;
+
+    private long bytes;
+    private long nanos;
+
+    public LogScanner( Charset charset ) {
+        this.charset = charset;
+    }
+
+    /**
+     * Scans the file from the beginning, until the end of it or until the outcome is decided.
+     *
+     * @param file the file to scan
+     * @param scan the state to update
+     * @throws IOException
+     */
+    public void scan( File file, PatternMatcher.Scan scan, boolean regexes ) throws IOException {
+        long start = System.nanoTime();
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter( CodingErrorAction.REPLACE );
+        ByteBuffer in = ByteBuffer.allocate( CHUNK_SIZE );
+        CharBuffer out = CharBuffer.allocate( CHUNK_SIZE );
+        StringBuilder line = regexes ? new StringBuilder() : null;
+
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            boolean eof = false;
+            while( !eof && !scan.isDecided() ) {
+                int read = channel.read( in );
+                if( read < 0 ) {
+                    eof = true;
+                } else {
+                    bytes += read;
+                }
+
+                in.flip();
+                decoder.decode( in, out, eof );
+                if( eof ) {
+                    decoder.flush( out );
+                }
+                in.compact();
+
+                out.flip();
+                feed( out, scan, line );
+                out.clear();
+            }
+
+            if( line != null && line.length() > 0 ) {
+                scan.regexes( line );
+            }
+        } finally {
+            raf.close();
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    private void feed( CharBuffer chars, PatternMatcher.Scan scan, StringBuilder line ) {
+        scan.chars( chars, chars.position(), chars.limit() );
+        if( line == null ) {
+            return;
+        }
+        for( int i = chars.position() ; i < chars.limit() && !scan.isDecided() ; i++ ) {
+            char c = chars.get( i );
+            if( c == '\n' ) {
+                scan.regexes( line );
+                line.setLength( 0 );
+            } else if( line.length() < MAX_LINE ) {
+                line.append( c );
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the throughput of the scans so far, in megabytes per second
+     */
+    public double getThroughput() {
+        return nanos == 0 ? 0 : ( bytes / ( 1024.0 * 1024.0 ) ) / ( nanos / 1e9 );
+    }
+}
@@ -35,12 +35,15 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
+import hudson.util.FormValidation;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.regex.PatternSyntaxException;
 import net.praqma.jenkins.one.actions.OneBuildAction;
 import net.praqma.jenkins.one.actions.OneProjectAction;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 
 
 /**
@@ -55,11 +58,22 @@ import org.kohsuke.stapler.DataBoundConstructor;
  * 
  * Our example recorder requires the user to enter a string, that must be contained as a part build steps in order to be considered stable.
  * 
+ * Any number of required and forbidden patterns can be given, one per line, as literals or as regular expressions
+ * written as <code>/expression/</code>. See {@link PatternMatcher}. The patterns can also be checked against the console
+ * log of the build, which is streamed through a {@link LogScanner}.
+ * 
  * @author Praqma
  */
 public class OneRecorder extends Recorder {
     
     public final String requiredText;
+    public final String forbiddenText;
+    public final boolean scanConsole;
+
+    /**
+     * The compiled patterns. A new recorder is created whenever the configuration is saved, so this is compiled once per configuration.
+     */
+    private transient volatile PatternMatcher matcher;
 
 
     /**
@@ -69,9 +83,22 @@ public class OneRecorder extends Recorder {
      * 
      */
     @DataBoundConstructor
-    public OneRecorder(final String requiredText) {
+    public OneRecorder(final String requiredText, final String forbiddenText, final boolean scanConsole) {
         this.requiredText = requiredText;
+        this.forbiddenText = forbiddenText;
+        this.scanConsole = scanConsole;
     } 
+
+    /**
+     * @return the compiled patterns, compiled on first use
+     */
+    public PatternMatcher getMatcher() {
+        PatternMatcher m = matcher;
+        if( m == null ) {
+            m = matcher = PatternMatcher.compile( requiredText, forbiddenText );
+        }
+        return m;
+    }
     
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
@@ -97,19 +124,50 @@ public class OneRecorder extends Recorder {
                 
         listener.getLogger().println("In PostBuild - OneRecorder");
         
-        OneBuildAction oba = build.getAction(OneBuildAction.class);
-        boolean stable = false;
-        for(OneBuildAction.Items item : oba.items) {
-            if(item.message.contains(requiredText)) {
-                stable = true;
-            }
+        PatternMatcher m;
+        try {
+            m = getMatcher();
+        } catch( PatternSyntaxException e ) {
+            throw new AbortException( "Invalid pattern: " + e.getMessage() );
         }
-        if(stable) {
-            listener.getLogger().println(String.format("The message \"%s\" was present in the result setting build to stable", requiredText));
-            build.setResult(Result.SUCCESS);
+
+        if( m.isEmpty() ) {
+            listener.getLogger().println("No patterns configured, nothing to check");
+            return true;
+        }
+
+        //Stop looking as soon as the outcome is known
+        PatternMatcher.Scan scan = m.newScan();
+        OneBuildAction oba = OneBuildAction.of(build);
+        if(oba == null) {
+            listener.getLogger().println("No items were recorded in this build");
         } else {
-            listener.getLogger().println(String.format("The message \"%s\" was not present in the result setting build to stable", requiredText));
+            for(OneBuildAction.Items item : oba.getItems()) {
+                if(item.message != null) {
+                    scan.text(item.message);
+                    if(scan.isDecided()) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        //The items didn't decide it, so continue with the console log
+        if(scanConsole && !scan.isDecided()) {
+            LogScanner scanner = new LogScanner(build.getCharset());
+            scanner.scan(build.getLogFile(), scan, m.hasRegexes());
+            listener.getLogger().println(String.format("Scanned %d bytes of the console log at %.1f MB/s", scanner.getBytes(), scanner.getThroughput()));
+        }
+
+        if(scan.getForbiddenMatch() != null) {
+            listener.getLogger().println(String.format("The forbidden message \"%s\" was present in the result setting build to unstable", scan.getForbiddenMatch()));
             build.setResult(Result.UNSTABLE);
+        } else if(!scan.isSatisfied()) {
+            listener.getLogger().println(String.format("The messages %s were not present in the result setting build to unstable", scan.getMissing()));
+            build.setResult(Result.UNSTABLE);
+        } else {
+            listener.getLogger().println("All required messages were present in the result setting build to stable");
+            build.setResult(Result.SUCCESS);
         }
         
         return true;
@@ -128,13 +186,14 @@ public class OneRecorder extends Recorder {
     }
     
     /**
-     * This method returns a list actions you wish to have displayed on the front page
+     * This method returns a list actions you wish to have displayed on the front page. It is called on every page view,
+     * so we re-use the same action for the project.
      * @param project
      * @return a list of project actions to be displayed.
      */
     @Override
     public Collection<? extends Action> getProjectActions( AbstractProject<?, ?> project ) {
-        return Collections.singletonList( new OneProjectAction( project ) );
+        return Collections.singletonList( OneProjectAction.forProject( project ) );
     }
     
     /**
@@ -161,6 +220,28 @@ public class OneRecorder extends Recorder {
         public String getDisplayName() {
             return "One Project Recorder";
         }
+
+        /**
+         * Form validation, invoked by the field of the same name on the configuration page.
+         * @param value the required patterns
+         * @return whether the regular expressions among the patterns are valid
+         */
+        public FormValidation doCheckRequiredText( @QueryParameter String value ) {
+            return checkPatterns( value );
+        }
+
+        public FormValidation doCheckForbiddenText( @QueryParameter String value ) {
+            return checkPatterns( value );
+        }
+
+        private FormValidation checkPatterns( String value ) {
+            try {
+                PatternMatcher.compile( value, null );
+                return FormValidation.ok();
+            } catch( PatternSyntaxException e ) {
+                return FormValidation.error( "Invalid regular expression: " + e.getDescription() );
+            }
+        }
         
     }
     
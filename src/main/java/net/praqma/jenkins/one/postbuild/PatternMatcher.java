@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.postbuild;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a set of required and forbidden patterns against text in a single pass.
+ *
+ * Patterns are given one per line. A line of the form <code>/expression/</code> is a regular expression, anything else
+ * is a literal. All literals are compiled into one Aho-Corasick automaton, so each character of the text is looked at
+ * once, no matter how many literals there are. Regular expressions are compiled once, and each is only evaluated until
+ * it has matched.
+ *
+ * A matcher is immutable and can be shared. The state of a single evaluation is kept in a {@link Scan}, which can tell
+ * as soon as the outcome is known: when a forbidden pattern has matched, or, if there are no forbidden patterns, when
+ * all required patterns have matched.
+ *
+ * @author Praqma
+ */
+public final class PatternMatcher {
+
+    private final List<String> patterns;
+    private final int requiredCount;
+
+    /* The literal automaton. Node 0 is the root. */
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    private final int[][] outputs;
+
+    private final Pattern[] regexes;
+    private final int[] regexIds;
+
+    private PatternMatcher( List<String> required, List<String> forbidden ) {
+        patterns = new ArrayList<String>( required );
+        patterns.addAll( forbidden );
+        requiredCount = required.size();
+
+        List<String> literals = new ArrayList<String>();
+        List<Integer> literalIds = new ArrayList<Integer>();
+        List<Pattern> regexList = new ArrayList<Pattern>();
+        List<Integer> regexIdList = new ArrayList<Integer>();
+        for( int id = 0 ; id < patterns.size() ; id++ ) {
+            String pattern = patterns.get( id );
+            if( isRegex( pattern ) ) {
+                regexList.add( Pattern.compile( pattern.substring( 1, pattern.length() - 1 ) ) );
+                regexIdList.add( id );
+            } else {
+                literals.add( pattern );
+                literalIds.add( id );
+            }
+        }
+
+        regexes = regexList.toArray( new Pattern[regexList.size()] );
+        regexIds = toArray( regexIdList );
+
+        /* Build the trie */
+        List<TreeMap<Character, Integer>> children = new ArrayList<TreeMap<Character, Integer>>();
+        List<List<Integer>> out = new ArrayList<List<Integer>>();
+        children.add( new TreeMap<Character, Integer>() );
+        out.add( new ArrayList<Integer>() );
+        for( int i = 0 ; i < literals.size() ; i++ ) {
+            String literal = literals.get( i );
+            int node = 0;
+            for( int j = 0 ; j < literal.length() ; j++ ) {
+                Integer next = children.get( node ).get( literal.charAt( j ) );
+                if( next == null ) {
+                    next = children.size();
+                    children.get( node ).put( literal.charAt( j ), next );
+                    children.add( new TreeMap<Character, Integer>() );
+                    out.add( new ArrayList<Integer>() );
+                }
+                node = next;
+            }
+            out.get( node ).add( literalIds.get( i ) );
+        }
+
+        int size = children.size();
+        keys = new char[size][];
+        targets = new int[size][];
+        for( int node = 0 ; node < size ; node++ ) {
+            TreeMap<Character, Integer> map = children.get( node );
+            keys[node] = new char[map.size()];
+            targets[node] = new int[map.size()];
+            int k = 0;
+            for( Map.Entry<Character, Integer> e : map.entrySet() ) {
+                keys[node][k] = e.getKey();
+                targets[node][k++] = e.getValue();
+            }
+        }
+
+        /* Failure links, breadth first, merging the outputs of the failure target */
+        fail = new int[size];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for( int child : targets[0] ) {
+            queue.add( child );
+        }
+        while( !queue.isEmpty() ) {
+            int node = queue.removeFirst();
+            for( int k = 0 ; k < keys[node].length ; k++ ) {
+                int child = targets[node][k];
+                int f = fail[node];
+                int next;
+                while( ( next = step( f, keys[node][k] ) ) < 0 && f != 0 ) {
+                    f = fail[f];
+                }
+                fail[child] = next < 0 ? 0 : next;
+                out.get( child ).addAll( out.get( fail[child] ) );
+                queue.add( child );
+            }
+        }
+
+        outputs = new int[size][];
+        for( int node = 0 ; node < size ; node++ ) {
+            outputs[node] = toArray( out.get( node ) );
+        }
+    }
+
+    /**
+     * Compiles the patterns, one per line. Blank lines are ignored.
+     *
+     * @param required patterns that must all match
+     * @param forbidden patterns that must not match
+     * @return the compiled matcher
+     * @throws java.util.regex.PatternSyntaxException if a regular expression is invalid
+     */
+    public static PatternMatcher compile( String required, String forbidden ) {
+        return new PatternMatcher( split( required ), split( forbidden ) );
+    }
+
+    /**
+     * @param text patterns, one per line
+     * @return the non blank lines
+     */
+    public static List<String> split( String text ) {
+        if( text == null ) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<String>();
+        for( String line : text.split( "\\r?\\n" ) ) {
+            if( line.trim().length() > 0 ) {
+                lines.add( line );
+            }
+        }
+        return lines;
+    }
+
+    public static boolean isRegex( String pattern ) {
+        return pattern.length() >= 2 && pattern.startsWith( "/" ) && pattern.endsWith( "/" );
+    }
+
+    /**
+     * @return true if there is nothing to match
+     */
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    public boolean hasRegexes() {
+        return regexes.length > 0;
+    }
+
+    public Scan newScan() {
+        return new Scan();
+    }
+
+    private int step( int node, char c ) {
+        int i = Arrays.binarySearch( keys[node], c );
+        return i < 0 ? -1 : targets[node][i];
+    }
+
+    private static int[] toArray( List<Integer> list ) {
+        int[] array = new int[list.size()];
+        for( int i = 0 ; i < array.length ; i++ ) {
+            array[i] = list.get( i );
+        }
+        return array;
+    }
+
+    /**
+     * The state of matching one or more texts against the patterns.
+     */
+    public final class Scan {
+        private final BitSet matched = new BitSet( patterns.size() );
+        private int requiredLeft = requiredCount;
+        private int forbiddenMatch = -1;
+        private int state;
+
+        /**
+         * Matches a complete, independent text, such as an item message. Literals can't match across two texts.
+         */
+        public void text( CharSequence text ) {
+            state = 0;
+            chars( text, 0, text.length() );
+            state = 0;
+            regexes( text );
+        }
+
+        /**
+         * Feeds part of a continuous text to the literal automaton. Literals can match across the boundaries of
+         * consecutive calls. Regular expressions are not evaluated, see {@link #regexes(CharSequence)}.
+         */
+        public void chars( CharSequence text, int start, int end ) {
+            for( int i = start ; i < end && forbiddenMatch < 0 ; i++ ) {
+                char c = text.charAt( i );
+                int next;
+                while( ( next = step( state, c ) ) < 0 && state != 0 ) {
+                    state = fail[state];
+                }
+                state = next < 0 ? 0 : next;
+                for( int id : outputs[state] ) {
+                    match( id );
+                }
+            }
+        }
+
+        /**
+         * Evaluates the regular expressions, that haven't yet matched, against a complete unit of text.
+         */
+        public void regexes( CharSequence text ) {
+            for( int i = 0 ; i < regexes.length && forbiddenMatch < 0 ; i++ ) {
+                if( !matched.get( regexIds[i] ) && regexes[i].matcher( text ).find() ) {
+                    match( regexIds[i] );
+                }
+            }
+        }
+
+        private void match( int id ) {
+            if( matched.get( id ) ) {
+                return;
+            }
+            matched.set( id );
+            if( id < requiredCount ) {
+                requiredLeft--;
+            } else if( forbiddenMatch < 0 ) {
+                forbiddenMatch = id;
+            }
+        }
+
+        /**
+         * @return true if no more text can change the outcome
+         */
+        public boolean isDecided() {
+            return forbiddenMatch >= 0 || ( requiredLeft == 0 && requiredCount == patterns.size() );
+        }
+
+        /**
+         * @return true if all required patterns, and no forbidden ones, have matched
+         */
+        public boolean isSatisfied() {
+            return forbiddenMatch < 0 && requiredLeft == 0;
+        }
+
+        /**
+         * @return the first forbidden pattern that matched, or null
+         */
+        public String getForbiddenMatch() {
+            return forbiddenMatch < 0 ? null : patterns.get( forbiddenMatch );
+        }
+
+        /**
+         * @return the required patterns that have not matched
+         */
+        public List<String> getMissing() {
+            List<String> missing = new ArrayList<String>();
+            for( int id = 0 ; id < requiredCount ; id++ ) {
+                if( !matched.get( id ) ) {
+                    missing.add( patterns.get( id ) );
+                }
+            }
+            return missing;
+        }
+    }
+}
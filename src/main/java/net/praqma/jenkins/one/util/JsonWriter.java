@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming JSON writer. Values are written as soon as they are given, so responses of any size can be sent
+ * without building them in memory first.
+ *
+ * Commas are inserted automatically, the caller is responsible for balancing objects and arrays.
+ *
+ * @author Praqma
+ */
+public class JsonWriter {
+
+    private final Writer out;
+
+    /**
+     * One entry per open object or array, true if something has been written in it
+     */
+    private boolean[] nonEmpty = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter( Writer out ) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open( '{' );
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close( '}' );
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open( '[' );
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close( ']' );
+    }
+
+    /**
+     * Writes the name of the next member of the current object
+     */
+    public JsonWriter name( String name ) throws IOException {
+        separate();
+        string( name );
+        out.write( ':' );
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value( String value ) throws IOException {
+        separate();
+        if( value == null ) {
+            out.write( "null" );
+        } else {
+            string( value );
+        }
+        return this;
+    }
+
+    public JsonWriter value( long value ) throws IOException {
+        separate();
+        out.write( Long.toString( value ) );
+        return this;
+    }
+
+    public JsonWriter value( double value ) throws IOException {
+        separate();
+        out.write( Double.isNaN( value ) || Double.isInfinite( value ) ? "null" : Double.toString( value ) );
+        return this;
+    }
+
+    public JsonWriter value( boolean value ) throws IOException {
+        separate();
+        out.write( value ? "true" : "false" );
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write( "null" );
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private JsonWriter open( char c ) throws IOException {
+        separate();
+        out.write( c );
+        if( ++depth == nonEmpty.length ) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy( nonEmpty, 0, grown, 0, depth );
+            nonEmpty = grown;
+        }
+        nonEmpty[depth] = false;
+        return this;
+    }
+
+    private JsonWriter close( char c ) throws IOException {
+        depth--;
+        out.write( c );
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if( afterName ) {
+            afterName = false;
+            return;
+        }
+        if( depth > 0 ) {
+            if( nonEmpty[depth] ) {
+                out.write( ',' );
+            }
+            nonEmpty[depth] = true;
+        }
+    }
+
+    private void string( String s ) throws IOException {
+        out.write( '"' );
+        for( int i = 0 ; i < s.length() ; i++ ) {
+            char c = s.charAt( i );
+            switch( c ) {
+                case '"': out.write( "\\\"" ); break;
+                case '\\': out.write( "\\\\" ); break;
+                case '\n': out.write( "\\n" ); break;
+                case '\r': out.write( "\\r" ); break;
+                case '\t': out.write( "\\t" ); break;
+                default:
+                    if( c < 0x20 || c == '\u2028' || c == '\u2029' ) {
+                        out.write( String.format( "\\u%04x", (int) c ) );
+                    } else {
+                        out.write( c );
+                    }
+            }
+        }
+        out.write( '"' );
+    }
+}
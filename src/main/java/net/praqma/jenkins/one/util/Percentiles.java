@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.util;
+
+import java.util.Arrays;
+
+/**
+ * Nearest-rank percentiles of a set of samples.
+ *
+ * @author Praqma
+ */
+public class Percentiles {
+
+    private final long[] sorted;
+
+    public Percentiles( long[] samples ) {
+        this.sorted = Arrays.copyOf( samples, samples.length );
+        Arrays.sort( this.sorted );
+    }
+
+    public int getCount() {
+        return sorted.length;
+    }
+
+    /**
+     * @param p the percentile, between 0 and 100
+     * @return the smallest sample that at least p percent of the samples are less than or equal to, or 0 if there are no samples
+     */
+    public long get( double p ) {
+        if( sorted.length == 0 ) {
+            return 0;
+        }
+        int rank = (int) Math.ceil( p / 100.0 * sorted.length );
+        return sorted[Math.min( Math.max( rank, 1 ), sorted.length ) - 1];
+    }
+
+    public long getP50() {
+        return get( 50 );
+    }
+
+    public long getP95() {
+        return get( 95 );
+    }
+
+    public long getP99() {
+        return get( 99 );
+    }
+
+    public long getMax() {
+        return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+    }
+}
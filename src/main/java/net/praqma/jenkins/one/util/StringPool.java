@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A shared dictionary of values that repeat across builds, like operating system names and java versions.
+ *
+ * Interning a value returns the instance already in the dictionary, if there is an equal one, so every loaded build refers
+ * to the same instance instead of holding its own copy.
+ *
+ * The dictionary only refers weakly to its values, so a value is dropped once no loaded build refers to it any more, and
+ * the dictionary never grows beyond what is in use. Still, only values with few distinct instances are worth interning,
+ * values that are different for every build just cost an entry each.
+ *
+ * Unlike {@link String#intern()}, the dictionary only holds what we put in it.
+ *
+ * @author Praqma
+ */
+public final class StringPool {
+
+    /**
+     * The dictionary is split in parts, each with its own lock, so threads loading builds seldom wait for each other
+     */
+    private static final int STRIPES = 16;
+
+    @SuppressWarnings( "unchecked" )
+    private static final Map<String, WeakReference<String>>[] POOL = new Map[STRIPES];
+
+    static {
+        for( int i = 0 ; i < STRIPES ; i++ ) {
+            POOL[i] = new WeakHashMap<String, WeakReference<String>>();
+        }
+    }
+
+    private StringPool() {
+    }
+
+    /**
+     * @param value the value, may be null
+     * @return the equal instance in the dictionary, or the value itself, which is then added
+     */
+    public static String intern( String value ) {
+        if( value == null ) {
+            return null;
+        }
+        Map<String, WeakReference<String>> stripe = POOL[( value.hashCode() & 0x7fffffff ) % STRIPES];
+        synchronized( stripe ) {
+            WeakReference<String> ref = stripe.get( value );
+            String existing = ref == null ? null : ref.get();
+            if( existing != null ) {
+                return existing;
+            }
+            //The value refers weakly to itself, a strong reference would keep the key alive
+            stripe.put( value, new WeakReference<String>( value ) );
+            return value;
+        }
+    }
+
+    /**
+     * @return the number of values in the dictionary, including ones no longer in use that have not been removed yet
+     */
+    public static int size() {
+        int size = 0;
+        for( Map<String, WeakReference<String>> stripe : POOL ) {
+            synchronized( stripe ) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Empties the dictionary, so the tests start from nothing. Values interned before are not affected.
+     */
+    static void clear() {
+        for( Map<String, WeakReference<String>> stripe : POOL ) {
+            synchronized( stripe ) {
+                stripe.clear();
+            }
+        }
+    }
+}
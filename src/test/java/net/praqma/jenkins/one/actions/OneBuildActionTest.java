@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adds items to a {@link OneBuildAction} from many threads at once, like concurrent build steps do, and checks that
+ * none are lost, neither in memory nor in the sidecar file, which is written when the build completes.
+ *
+ * @author Praqma
+ */
+public class OneBuildActionTest {
+
+    private static final int THREADS = 8;
+    private static final int ITEMS = 50;
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = File.createTempFile( "one-build", "" );
+        assertTrue( dir.delete() && dir.mkdir() );
+    }
+
+    @After
+    public void deleteDir() {
+        new File( dir, OneBuildAction.FILE_NAME ).delete();
+        dir.delete();
+    }
+
+    @Test
+    public void concurrentWritersLoseNoItems() throws Exception {
+        final OneBuildAction action = OneBuildAction.detached( dir, false );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for( int t = 0 ; t < THREADS ; t++ ) {
+                final int thread = t;
+                futures[t] = executor.submit( new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for( int i = 0 ; i < ITEMS ; i++ ) {
+                            Map<String, String> facts = new LinkedHashMap<String, String>();
+                            facts.put( "thread", Integer.toString( thread ) );
+                            action.addItems( "Linux", "java version \"1.7.0\"", thread + "/" + i, facts );
+                        }
+                        return null;
+                    }
+                } );
+            }
+            start.countDown();
+            for( Future<?> future : futures ) {
+                future.get( 60, TimeUnit.SECONDS );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertAllItems( action.getItems() );
+
+        //The sidecar file has them all once the build has completed
+        action.release();
+        assertAllItems( OneBuildAction.detached( dir, true ).getItems() );
+    }
+
+    @Test
+    public void sidecarRoundTrips() {
+        OneBuildAction action = OneBuildAction.detached( dir, false );
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( "cpus", "4" );
+        facts.put( "tool:git --version", "git version 1.8.1" );
+        action.addItems( "Windows 7", "java version \"1.6.0_45\"", "first", facts );
+        action.addItems( "Linux", null, "second <&> \"quoted\"" );
+        action.release();
+
+        List<OneBuildAction.Items> items = OneBuildAction.detached( dir, true ).getItems();
+        assertEquals( 2, items.size() );
+        assertEquals( "Windows 7", items.get( 0 ).os );
+        assertEquals( "java version \"1.6.0_45\"", items.get( 0 ).string );
+        assertEquals( "first", items.get( 0 ).message );
+        assertEquals( facts, items.get( 0 ).getFacts() );
+        assertEquals( "Linux", items.get( 1 ).os );
+        assertEquals( null, items.get( 1 ).string );
+        assertEquals( "second <&> \"quoted\"", items.get( 1 ).message );
+        assertTrue( items.get( 1 ).getFacts().isEmpty() );
+    }
+
+    @Test
+    public void batchIsAddedInOrder() {
+        OneBuildAction action = OneBuildAction.detached( dir, false );
+        action.addItems( "Linux", null, "single" );
+        List<OneBuildAction.Items> batch = new ArrayList<OneBuildAction.Items>();
+        for( int i = 0 ; i < 200 ; i++ ) {
+            batch.add( new OneBuildAction.Items( "Linux", null, "node" + i ) );
+        }
+        action.addItems( batch );
+        action.release();
+
+        List<OneBuildAction.Items> items = OneBuildAction.detached( dir, true ).getItems();
+        assertEquals( 201, items.size() );
+        assertEquals( "single", items.get( 0 ).message );
+        assertEquals( "node199", items.get( 200 ).message );
+    }
+
+    @Test
+    public void itemsAreWrittenWhenTheBuildCompletes() {
+        OneBuildAction action = OneBuildAction.detached( dir, false );
+        action.addItems( "Linux", null, "first" );
+        action.addItems( "Linux", null, "second" );
+
+        //Unless a background write came first, which is seconds away
+        assertFalse( new File( dir, OneBuildAction.FILE_NAME ).exists() );
+        assertEquals( 2, action.getItems().size() );
+
+        action.release();
+        assertTrue( new File( dir, OneBuildAction.FILE_NAME ).exists() );
+        assertEquals( 2, action.getItems().size() );
+    }
+
+    @Test
+    public void itemsAddedAfterCompletionAreWritten() {
+        OneBuildAction action = OneBuildAction.detached( dir, false );
+        action.addItems( "Linux", null, "during" );
+        action.release();
+
+        action.addItems( "Linux", null, "after" );
+
+        List<OneBuildAction.Items> items = OneBuildAction.detached( dir, true ).getItems();
+        assertEquals( 2, items.size() );
+        assertEquals( "after", items.get( 1 ).message );
+    }
+
+    @Test
+    public void itemsShareLowCardinalityValuesOnly() {
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( new String( "disk.free" ), "123456789" );
+        OneBuildAction.Items a = new OneBuildAction.Items( new String( "Linux" ), new String( "java version \"1.7.0\"" ), new String( "message" ), facts );
+        facts = new LinkedHashMap<String, String>();
+        facts.put( new String( "disk.free" ), "987654321" );
+        OneBuildAction.Items b = new OneBuildAction.Items( new String( "Linux" ), new String( "java version \"1.7.0\"" ), new String( "message" ), facts );
+
+        assertSame( a.os, b.os );
+        assertSame( a.string, b.string );
+        assertSame( a.getFacts().keySet().iterator().next(), b.getFacts().keySet().iterator().next() );
+        //Messages are seldom repeated, and are not put in the pool
+        assertNotSame( a.message, b.message );
+    }
+
+    private static void assertAllItems( List<OneBuildAction.Items> items ) {
+        assertEquals( THREADS * ITEMS, items.size() );
+        Set<String> messages = new HashSet<String>();
+        for( OneBuildAction.Items item : items ) {
+            messages.add( item.message );
+        }
+        for( int t = 0 ; t < THREADS ; t++ ) {
+            for( int i = 0 ; i < ITEMS ; i++ ) {
+                assertTrue( "Missing " + t + "/" + i, messages.contains( t + "/" + i ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes entries to a {@link OneHistoryArchive} and reads them back.
+ *
+ * @author Praqma
+ */
+public class OneHistoryArchiveTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = File.createTempFile( "one-archive", "" );
+        assertTrue( dir.delete() );
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if( files != null ) {
+            for( File file : files ) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static OneHistoryIndex.Entry entry( int number, long timestamp, String node, OneBuildAction.Items... items ) {
+        return new OneHistoryIndex.Entry( number, timestamp, node, Arrays.asList( items ) );
+    }
+
+    private static OneBuildAction.Items item( String os, String string, String message, String... facts ) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for( int i = 0 ; i < facts.length ; i += 2 ) {
+            map.put( facts[i], facts[i + 1] );
+        }
+        return new OneBuildAction.Items( os, string, message, map );
+    }
+
+    private static void assertSameEntries( List<OneHistoryIndex.Entry> expected, List<OneHistoryIndex.Entry> actual ) {
+        assertEquals( expected.size(), actual.size() );
+        for( int i = 0 ; i < expected.size() ; i++ ) {
+            OneHistoryIndex.Entry e = expected.get( i );
+            OneHistoryIndex.Entry a = actual.get( i );
+            assertEquals( e.number, a.number );
+            assertEquals( e.timestamp, a.timestamp );
+            assertEquals( e.node, a.node );
+            assertEquals( e.getItems().size(), a.getItems().size() );
+            for( int j = 0 ; j < e.getItems().size() ; j++ ) {
+                OneBuildAction.Items ei = e.getItems().get( j );
+                OneBuildAction.Items ai = a.getItems().get( j );
+                assertEquals( ei.os, ai.os );
+                assertEquals( ei.string, ai.string );
+                assertEquals( ei.message, ai.message );
+                assertEquals( ei.getFacts(), ai.getFacts() );
+            }
+        }
+    }
+
+    @Test
+    public void entriesRoundTrip() throws IOException {
+        List<OneHistoryIndex.Entry> entries = Arrays.asList(
+                entry( 1, 1000000L, "master", item( "Linux", "java version \"1.6.0\"", "first", "arch", "amd64", "cores", "8" ) ),
+                //Builds can be numbered with gaps and start earlier than the one before them
+                entry( 5, 999000L, null, item( "Linux", "java version \"1.6.0\"", null ), item( "Windows 7", null, "\u00e6\u00f8\u00e5 \u2603", "arch", "x86" ) ),
+                entry( 6, 2000000L, "agent-1" ),
+                entry( 300, 90000000L, "agent-1", item( null, null, null ) ) );
+
+        OneHistoryArchive.append( dir, entries );
+
+        assertSameEntries( entries, OneHistoryArchive.read( dir ) );
+    }
+
+    @Test
+    public void segmentsAreReadInBuildOrder() throws IOException {
+        List<OneHistoryIndex.Entry> newer = new ArrayList<OneHistoryIndex.Entry>();
+        List<OneHistoryIndex.Entry> older = new ArrayList<OneHistoryIndex.Entry>();
+        for( int i = 1 ; i <= 200 ; i++ ) {
+            OneHistoryIndex.Entry entry = entry( i, 1000L * i, "node" + i % 3, item( "Linux", "java " + i % 2, "build " + i, "n", Integer.toString( i ) ) );
+            ( i <= 100 ? older : newer ).add( entry );
+        }
+
+        //Written newest first, read back oldest first
+        OneHistoryArchive.append( dir, newer );
+        OneHistoryArchive.append( dir, older );
+
+        List<OneHistoryIndex.Entry> all = new ArrayList<OneHistoryIndex.Entry>( older );
+        all.addAll( newer );
+        assertSameEntries( all, OneHistoryArchive.read( dir ) );
+        assertEquals( 2, dir.listFiles().length );
+    }
+
+    @Test
+    public void unreadableSegmentsAreSkipped() throws IOException {
+        List<OneHistoryIndex.Entry> entries = Collections.singletonList( entry( 7, 7000L, "master", item( "Linux", "java", "ok" ) ) );
+        OneHistoryArchive.append( dir, entries );
+
+        FileOutputStream out = new FileOutputStream( new File( dir, "segment-0000000001-0000000002.seg" ) );
+        try {
+            out.write( "not gzip".getBytes( "UTF-8" ) );
+        } finally {
+            out.close();
+        }
+
+        assertSameEntries( entries, OneHistoryArchive.read( dir ) );
+    }
+
+    @Test
+    public void missingArchiveIsEmpty() {
+        assertTrue( OneHistoryArchive.read( dir ).isEmpty() );
+    }
+}
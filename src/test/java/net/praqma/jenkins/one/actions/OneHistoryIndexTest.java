@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the line format of the {@link OneHistoryIndex}, and that builds with only phase timings or resource usage
+ * don't show up in the item history.
+ *
+ * @author Praqma
+ */
+public class OneHistoryIndexTest {
+
+    private static Map<String, Long> phases( Object... pairs ) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for( int i = 0 ; i < pairs.length ; i += 2 ) {
+            map.put( (String) pairs[i], ( (Number) pairs[i + 1] ).longValue() );
+        }
+        return map;
+    }
+
+    private static OneHistoryIndex.Entry withItems( int number ) {
+        Map<String, String> facts = new LinkedHashMap<String, String>();
+        facts.put( "java", "1.6\tsomething" );
+        List<OneBuildAction.Items> items = Arrays.asList( new OneBuildAction.Items( "linux", "build " + number, "line\nbreak", facts ) );
+        return new OneHistoryIndex.Entry( number, 1000L * number, "node" + number, items, phases( "checkout", 5, "build", 7000000000L ) );
+    }
+
+    private static OneHistoryIndex.Entry timingsOnly( int number ) {
+        return new OneHistoryIndex.Entry( number, 1000L * number, null, Collections.<OneBuildAction.Items>emptyList(), phases( "build", 42 ) );
+    }
+
+    @Test
+    public void entryWithItemsAndPhasesRoundTrips() {
+        OneHistoryIndex.Entry entry = withItems( 3 );
+        OneHistoryIndex.Entry read = OneHistoryIndex.decode( OneHistoryIndex.encode( entry ) );
+
+        assertEquals( 3, read.number );
+        assertEquals( 3000L, read.timestamp );
+        assertEquals( "node3", read.node );
+        assertEquals( 1, read.getItems().size() );
+        OneBuildAction.Items item = read.getItems().get( 0 );
+        assertEquals( "linux", item.os );
+        assertEquals( "build 3", item.string );
+        assertEquals( "line\nbreak", item.message );
+        assertEquals( "1.6\tsomething", item.getFacts().get( "java" ) );
+        assertEquals( entry.getPhases(), read.getPhases() );
+        assertEquals( Arrays.asList( "checkout", "build" ), Arrays.asList( read.getPhases().keySet().toArray() ) );
+    }
+
+    @Test
+    public void entryWithTimingsOnlyRoundTrips() {
+        OneHistoryIndex.Entry read = OneHistoryIndex.decode( OneHistoryIndex.encode( timingsOnly( 9 ) ) );
+
+        assertFalse( read.hasItems() );
+        assertNull( read.node );
+        assertEquals( phases( "build", 42 ), read.getPhases() );
+    }
+
+    @Test
+    public void entryWithResourcesRoundTrips() {
+        List<OneResourceAction.Usage> usage = Arrays.asList(
+                new OneResourceAction.Usage( "make all", 1200, 64L << 20, 4096, 8192 ),
+                new OneResourceAction.Usage( "ant\ttest", 300, 1L << 30, 0, 1 ) );
+        OneHistoryIndex.Entry entry = new OneHistoryIndex.Entry( 5, 5000, "node5", Collections.<OneBuildAction.Items>emptyList(),
+                Collections.<String, Long>emptyMap(), usage );
+        OneHistoryIndex.Entry read = OneHistoryIndex.decode( OneHistoryIndex.encode( entry ) );
+
+        assertFalse( read.hasItems() );
+        assertTrue( read.getPhases().isEmpty() );
+        assertEquals( 2, read.getResources().size() );
+        OneResourceAction.Usage first = read.getResources().get( 0 );
+        assertEquals( "make all", first.getStep() );
+        assertEquals( 1200, first.getCpuMillis() );
+        assertEquals( 64L << 20, first.getPeakRss() );
+        assertEquals( 4096, first.getReadBytes() );
+        assertEquals( 8192, first.getWriteBytes() );
+        OneResourceAction.Usage second = read.getResources().get( 1 );
+        assertEquals( "ant\ttest", second.getStep() );
+        assertEquals( 1L << 30, second.getPeakRss() );
+        assertEquals( 1, second.getWriteBytes() );
+    }
+
+    @Test
+    public void entryWithPhasesHasNoResources() {
+        OneHistoryIndex.Entry read = OneHistoryIndex.decode( OneHistoryIndex.encode( withItems( 2 ) ) );
+
+        assertTrue( read.getResources().isEmpty() );
+    }
+
+    @Test
+    public void linesWithoutPhasesAreStillRead() {
+        //Written before the timings were recorded
+        OneHistoryIndex.Entry read = OneHistoryIndex.decode( "7\t7000\tmaster\t1\tlinux\tok\t\\0\t0" );
+
+        assertEquals( 7, read.number );
+        assertTrue( read.hasItems() );
+        assertNull( read.getItems().get( 0 ).message );
+        assertTrue( read.getPhases().isEmpty() );
+        assertEquals( "7\t7000\tmaster\t1\tlinux\tok\t\\0\t0", OneHistoryIndex.encode( read ) );
+    }
+
+    @Test
+    public void buildsWithTimingsOnlyAreNotInTheItemHistory() {
+        OneHistoryIndex index = OneHistoryIndex.detached( Arrays.asList( withItems( 1 ), withItems( 2 ), timingsOnly( 3 ), timingsOnly( 4 ) ) );
+
+        assertEquals( 2, index.getLast().number );
+        List<List<OneBuildAction.Items>> items = index.getItems( 10 );
+        assertEquals( 2, items.size() );
+        assertEquals( "build 2", items.get( 0 ).get( 0 ).string );
+        assertEquals( "build 1", items.get( 1 ).get( 0 ).string );
+        assertEquals( 4, index.getEntries().size() );
+    }
+
+    @Test
+    public void buildsWithTimingsOnlyAreNotSearched() {
+        OneHistoryIndex index = OneHistoryIndex.detached( Arrays.asList( withItems( 1 ), timingsOnly( 2 ) ) );
+
+        assertEquals( 1, index.getSearchIndex().getBuildCount() );
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link OneIndexWriter} applies the updates in order, without keeping the caller waiting, and goes on
+ * after an update fails.
+ *
+ * @author Praqma
+ */
+public class OneIndexWriterTest {
+
+    @Test
+    public void updatesAreAppliedInOrder() throws InterruptedException {
+        final List<Integer> applied = Collections.synchronizedList( new ArrayList<Integer>() );
+        List<Integer> expected = new ArrayList<Integer>();
+        for( int i = 0 ; i < 100 ; i++ ) {
+            final int number = i;
+            OneIndexWriter.submit( "build " + i, new Runnable() {
+                public void run() {
+                    applied.add( number );
+                }
+            } );
+            expected.add( i );
+        }
+
+        OneIndexWriter.flush();
+        assertEquals( expected, applied );
+    }
+
+    @Test
+    public void theCallerDoesNotWaitForTheUpdate() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        OneIndexWriter.submit( "slow", new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        } );
+
+        //Handed over while the update is still waiting
+        assertFalse( done.await( 50, TimeUnit.MILLISECONDS ) );
+        release.countDown();
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void aFailedUpdateDoesNotStopTheWriter() throws InterruptedException {
+        final CountDownLatch after = new CountDownLatch( 1 );
+        OneIndexWriter.submit( "failing", new Runnable() {
+            public void run() {
+                throw new IllegalStateException( "Expected by the test" );
+            }
+        } );
+        OneIndexWriter.submit( "after", new Runnable() {
+            public void run() {
+                after.countDown();
+            }
+        } );
+
+        OneIndexWriter.flush();
+        assertEquals( 0, after.getCount() );
+    }
+}
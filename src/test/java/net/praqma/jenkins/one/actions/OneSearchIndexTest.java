@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searches a {@link OneSearchIndex}: the words of the items, matching by prefix, paging newest first and deleted builds.
+ *
+ * @author Praqma
+ */
+public class OneSearchIndexTest {
+
+    private static OneHistoryIndex.Entry entry( int number, String os, String java, String message ) {
+        OneBuildAction.Items items = new OneBuildAction.Items( os, java, message, Collections.<String, String>emptyMap() );
+        return new OneHistoryIndex.Entry( number, 1000L * number, "node", Collections.singletonList( items ) );
+    }
+
+    /**
+     * Builds 1 to count, odd ones on Linux with java 1.6, even ones on Windows with java 1.7
+     */
+    private static OneSearchIndex index( int count ) {
+        List<OneHistoryIndex.Entry> entries = new ArrayList<OneHistoryIndex.Entry>();
+        for( int i = 1 ; i <= count ; i++ ) {
+            if( i % 2 == 1 ) {
+                entries.add( entry( i, "Linux", "java version \"1.6.0_45\"", "Build " + i + " done." ) );
+            } else {
+                entries.add( entry( i, "Windows 7", "java version \"1.7.0_80\"", "Build " + i + " failed!" ) );
+            }
+        }
+        return new OneSearchIndex( entries );
+    }
+
+    @Test
+    public void tokenizeSplitsIntoLowerCaseWords() {
+        assertEquals( Arrays.asList( "java", "version", "1.7.0_80" ), OneSearchIndex.tokenize( "Java version \"1.7.0_80\"" ) );
+        assertEquals( Arrays.asList( "done", "x86-64" ), OneSearchIndex.tokenize( "Done.  x86-64..." ) );
+        assertEquals( Arrays.asList( "a", "b" ), OneSearchIndex.tokenize( "a, (b)" ) );
+        assertTrue( OneSearchIndex.tokenize( " ... !" ).isEmpty() );
+        assertTrue( OneSearchIndex.tokenize( null ).isEmpty() );
+    }
+
+    @Test
+    public void matchesWordsByPrefixIgnoringCase() {
+        OneSearchIndex index = index( 4 );
+
+        assertArrayEquals( new int[] { 3, 1 }, index.search( "LINUX", 0, 10 ).getNumbers() );
+        assertArrayEquals( new int[] { 4, 2 }, index.search( "1.7", 0, 10 ).getNumbers() );
+        assertArrayEquals( new int[] { 4, 3, 2, 1 }, index.search( "jav", 0, 10 ).getNumbers() );
+        //Only the start of a word matches
+        assertEquals( 0, index.search( "7.0", 0, 10 ).getTotal() );
+        assertEquals( 0, index.search( "inux", 0, 10 ).getTotal() );
+    }
+
+    @Test
+    public void allWordsOfTheQueryMustMatch() {
+        OneSearchIndex index = index( 6 );
+
+        assertArrayEquals( new int[] { 5 }, index.search( "linux 5", 0, 10 ).getNumbers() );
+        assertArrayEquals( new int[] { 6, 4, 2 }, index.search( "windows failed", 0, 10 ).getNumbers() );
+        assertEquals( 0, index.search( "linux failed", 0, 10 ).getTotal() );
+        assertEquals( 0, index.search( "linux nothing", 0, 10 ).getTotal() );
+    }
+
+    @Test
+    public void aQueryWithoutWordsMatchesNothing() {
+        OneSearchIndex.Result result = index( 4 ).search( " - ", 0, 10 );
+
+        assertEquals( 0, result.getTotal() );
+        assertEquals( 0, result.getNumbers().length );
+    }
+
+    @Test
+    public void pagesAreNewestFirst() {
+        OneSearchIndex index = index( 10 );
+
+        OneSearchIndex.Result first = index.search( "build", 0, 4 );
+        assertEquals( 10, first.getTotal() );
+        assertArrayEquals( new int[] { 10, 9, 8, 7 }, first.getNumbers() );
+        assertArrayEquals( new int[] { 6, 5, 4, 3 }, index.search( "build", 4, 4 ).getNumbers() );
+        OneSearchIndex.Result last = index.search( "build", 8, 4 );
+        assertEquals( 10, last.getTotal() );
+        assertArrayEquals( new int[] { 2, 1 }, last.getNumbers() );
+        assertEquals( 0, index.search( "build", 10, 4 ).getNumbers().length );
+        assertEquals( 0, index.search( "build", 20, 4 ).getNumbers().length );
+    }
+
+    @Test
+    public void pagesSkipWholeBlocks() {
+        //More builds than are counted at a time when skipping to a page
+        OneSearchIndex index = index( 10000 );
+
+        OneSearchIndex.Result result = index.search( "linux", 4000, 3 );
+        assertEquals( 5000, result.getTotal() );
+        assertArrayEquals( new int[] { 1999, 1997, 1995 }, result.getNumbers() );
+        assertArrayEquals( new int[] { 5, 3, 1 }, index.search( "linux", 4997, 10 ).getNumbers() );
+    }
+
+    @Test
+    public void deletedBuildsAreLeftOut() {
+        OneSearchIndex index = index( 6 );
+
+        assertFalse( index.remove( 5 ) );
+        assertFalse( index.remove( 5 ) );
+        assertFalse( index.remove( 42 ) );
+
+        OneSearchIndex.Result result = index.search( "linux", 0, 10 );
+        assertEquals( 2, result.getTotal() );
+        assertArrayEquals( new int[] { 3, 1 }, result.getNumbers() );
+        assertEquals( 5, index.getBuildCount() );
+    }
+
+    @Test
+    public void asksToBeBuiltAnewWhenMostBuildsAreDeleted() {
+        OneSearchIndex index = index( 3000 );
+
+        boolean rebuild = false;
+        int number = 0;
+        while( !rebuild ) {
+            rebuild = index.remove( ++number );
+        }
+        //More than 1000 deleted and more deleted than left
+        assertEquals( 1501, number );
+        assertEquals( 1499, index.getBuildCount() );
+    }
+
+    @Test
+    public void buildsAreOnlyAddedOnce() {
+        OneSearchIndex index = index( 2 );
+        int words = index.getWordCount();
+
+        index.add( entry( 2, "Solaris", "java", "again" ) );
+        index.add( new OneHistoryIndex.Entry( 3, 3000, "node", Collections.<OneBuildAction.Items>emptyList() ) );
+
+        assertEquals( 2, index.getBuildCount() );
+        assertEquals( words, index.getWordCount() );
+        assertEquals( 0, index.search( "solaris", 0, 10 ).getTotal() );
+    }
+
+    @Test
+    public void countsTheDistinctWords() {
+        //linux java version 1.6.0_45 build 1 done, and windows 7 1.7.0_80 2 failed
+        assertEquals( 12, index( 2 ).getWordCount() );
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints to a {@link CoalescingOutputStream} the way a build does, and checks when and how the lines reach the log.
+ *
+ * @author Praqma
+ */
+public class CoalescingOutputStreamTest {
+
+    /**
+     * Counts the writes it gets
+     */
+    private static class CountingStream extends ByteArrayOutputStream {
+        private int writes;
+
+        @Override
+        public synchronized void write( byte[] b, int off, int len ) {
+            writes++;
+            super.write( b, off, len );
+        }
+
+        @Override
+        public synchronized void write( int b ) {
+            writes++;
+            super.write( b );
+        }
+
+        private synchronized String text() {
+            return toString();
+        }
+    }
+
+    @Test
+    public void linesAreWrittenTogether() throws IOException {
+        CountingStream log = new CountingStream();
+        CoalescingOutputStream out = new CoalescingOutputStream( log, 1024, 60000 );
+        PrintStream logger = new PrintStream( out, true );
+        for( int i = 0 ; i < 10 ; i++ ) {
+            logger.println( "line " + i );
+        }
+        assertEquals( "", log.text() );
+
+        out.drain();
+        assertEquals( 1, log.writes );
+        assertTrue( log.text().startsWith( "line 0" ) );
+        assertTrue( log.text().trim().endsWith( "line 9" ) );
+    }
+
+    @Test
+    public void fullBufferIsWrittenAtOnceInOrder() throws IOException {
+        CountingStream log = new CountingStream();
+        CoalescingOutputStream out = new CoalescingOutputStream( log, 16, 60000 );
+        out.write( "0123456789".getBytes( "US-ASCII" ) );
+        out.write( "abcdefghij".getBytes( "US-ASCII" ) );
+        assertEquals( "0123456789", log.text() );
+
+        //Larger than the buffer, it goes straight through after what is buffered
+        out.write( "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes( "US-ASCII" ) );
+        assertEquals( "0123456789abcdefghijABCDEFGHIJKLMNOPQRSTUVWXYZ", log.text() );
+    }
+
+    @Test
+    public void bufferIsWrittenWithinTheWindow() throws Exception {
+        CountingStream log = new CountingStream();
+        CoalescingOutputStream out = new CoalescingOutputStream( log, 1024, 50 );
+        out.write( 'x' );
+        out.flush();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while( log.text().length() == 0 ) {
+            assertTrue( "Not written within the window", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+        assertEquals( "x", log.text() );
+    }
+
+    @Test
+    public void closeWritesWhatIsBuffered() throws IOException {
+        CountingStream log = new CountingStream();
+        CoalescingOutputStream out = new CoalescingOutputStream( log, 1024, 60000 );
+        out.write( "last words".getBytes( "US-ASCII" ) );
+        out.close();
+        assertEquals( "last words", log.text() );
+    }
+
+    @Test( expected = IOException.class )
+    public void writingAfterCloseFails() throws IOException {
+        CoalescingOutputStream out = new CoalescingOutputStream( new CountingStream(), 1024, 60000 );
+        out.close();
+        out.write( 'x' );
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.remoting.Channel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the listeners of a {@link OneLauncher} are told about the end of every process they were told about the
+ * start of, also when it couldn't be started, or was only polled.
+ *
+ * @author Praqma
+ */
+public class OneLauncherTest {
+
+    /**
+     * Records the calls, returning the name it was created with as token
+     */
+    private static class Recorder implements OneLauncher.ProcListener {
+        private final String name;
+        private final List<String> calls;
+
+        private Recorder( String name, List<String> calls ) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        public Object onStarted( Launcher.ProcStarter starter ) throws IOException {
+            calls.add( "started " + name );
+            return name;
+        }
+
+        public void onFinished( Object token, int exitCode ) {
+            calls.add( "finished " + token + " " + exitCode );
+        }
+    }
+
+    private static class FailingListener implements OneLauncher.ProcListener {
+        public Object onStarted( Launcher.ProcStarter starter ) throws IOException {
+            throw new IOException( "listener failed" );
+        }
+
+        public void onFinished( Object token, int exitCode ) {
+            fail( "Never started" );
+        }
+    }
+
+    /**
+     * A process which ends with exit code 3 once {@link #alive} is cleared
+     */
+    private static class FakeProc extends Proc {
+        private volatile boolean alive = true;
+        private int joins;
+
+        @Override
+        public boolean isAlive() {
+            return alive;
+        }
+
+        @Override
+        public void kill() {
+            alive = false;
+        }
+
+        @Override
+        public int join() {
+            joins++;
+            return 3;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the given process, or throws the given exception
+     */
+    private static class FakeLauncher extends Launcher {
+        private final Proc proc;
+        private final IOException failure;
+
+        private FakeLauncher( Proc proc, IOException failure ) {
+            super( null, null );
+            this.proc = proc;
+            this.failure = failure;
+        }
+
+        @Override
+        public Proc launch( ProcStarter starter ) throws IOException {
+            if( failure != null ) {
+                throw failure;
+            }
+            return proc;
+        }
+
+        @Override
+        public Channel launchChannel( String[] cmd, OutputStream out, FilePath workDir, Map<String, String> envVars ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void kill( Map<String, String> modelEnvVars ) {
+        }
+    }
+
+    private final List<String> calls = new ArrayList<String>();
+
+    @Test
+    public void joiningEndsTheProcessOnce() throws Exception {
+        OneLauncher launcher = new OneLauncher( new FakeLauncher( new FakeProc(), null ), Arrays.<OneLauncher.ProcListener>asList( new Recorder( "a", calls ) ) );
+
+        Proc proc = launcher.launch( launcher.launch() );
+        assertEquals( 3, proc.join() );
+        proc.join();
+        proc.kill();
+
+        assertEquals( Arrays.asList( "started a", "finished a 3" ), calls );
+    }
+
+    @Test
+    public void aProcessThatCantBeStartedIsEnded() throws Exception {
+        IOException failure = new IOException( "No such file or directory" );
+        OneLauncher launcher = new OneLauncher( new FakeLauncher( null, failure ), Arrays.<OneLauncher.ProcListener>asList( new Recorder( "a", calls ), new Recorder( "b", calls ) ) );
+
+        try {
+            launcher.launch( launcher.launch() );
+            fail( "Expected the failure of the launcher" );
+        } catch( IOException e ) {
+            assertSame( failure, e );
+        }
+
+        assertEquals( Arrays.asList( "started a", "started b", "finished a -1", "finished b -1" ), calls );
+    }
+
+    @Test
+    public void listenersStartedBeforeAFailingOneAreEnded() throws Exception {
+        OneLauncher launcher = new OneLauncher( new FakeLauncher( new FakeProc(), null ), Arrays.<OneLauncher.ProcListener>asList( new Recorder( "a", calls ), new FailingListener() ) );
+
+        try {
+            launcher.launch( launcher.launch() );
+            fail( "Expected the failure of the listener" );
+        } catch( IOException e ) {
+            assertEquals( "listener failed", e.getMessage() );
+        }
+
+        assertEquals( Arrays.asList( "started a", "finished a -1" ), calls );
+    }
+
+    @Test
+    public void aPolledProcessEndsWhenFoundDead() throws Exception {
+        FakeProc fake = new FakeProc();
+        OneLauncher launcher = new OneLauncher( new FakeLauncher( fake, null ), Arrays.<OneLauncher.ProcListener>asList( new Recorder( "a", calls ) ) );
+
+        Proc proc = launcher.launch( launcher.launch() );
+        assertTrue( proc.isAlive() );
+        assertEquals( Arrays.asList( "started a" ), calls );
+
+        fake.alive = false;
+        assertFalse( proc.isAlive() );
+        assertFalse( proc.isAlive() );
+
+        assertEquals( Arrays.asList( "started a", "finished a 3" ), calls );
+        assertEquals( 1, fake.joins );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link PermitPool} is known by its name only, is resized when asked for with another number of
+ * permits, and goes away when nobody uses it.
+ *
+ * @author Praqma
+ */
+public class PermitPoolTest {
+
+    @Test
+    public void poolIsKeyedByNameOnly() {
+        PermitPool.Pool pool = PermitPool.join( "node keyed", 2 );
+        PermitPool.Pool again = PermitPool.join( "node keyed", 3 );
+        try {
+            assertSame( pool, again );
+            assertEquals( 3, pool.getPermits() );
+            assertEquals( 3, pool.availablePermits() );
+        } finally {
+            PermitPool.leave( again );
+            PermitPool.leave( pool );
+        }
+    }
+
+    @Test
+    public void growingMakesPermitsAvailableAtOnce() throws InterruptedException {
+        PermitPool.Pool pool = PermitPool.join( "node grow", 1 );
+        try {
+            assertTrue( pool.tryAcquire() );
+            assertFalse( pool.tryAcquire() );
+
+            PermitPool.Pool resized = PermitPool.join( "node grow", 2 );
+            try {
+                assertTrue( resized.tryAcquire( 1, TimeUnit.SECONDS ) );
+                assertFalse( resized.tryAcquire() );
+                resized.release();
+            } finally {
+                PermitPool.leave( resized );
+            }
+            pool.release();
+        } finally {
+            PermitPool.leave( pool );
+        }
+    }
+
+    @Test
+    public void shrinkingKeepsHeldPermitsAndHoldsBackNewOnes() {
+        PermitPool.Pool pool = PermitPool.join( "node shrink", 2 );
+        try {
+            assertTrue( pool.tryAcquire() );
+            assertTrue( pool.tryAcquire() );
+
+            PermitPool.Pool resized = PermitPool.join( "node shrink", 1 );
+            try {
+                assertEquals( -1, resized.availablePermits() );
+
+                //The first release only pays back what the pool shrunk by
+                pool.release();
+                assertFalse( resized.tryAcquire() );
+                pool.release();
+                assertTrue( resized.tryAcquire() );
+                assertFalse( resized.tryAcquire() );
+                resized.release();
+            } finally {
+                PermitPool.leave( resized );
+            }
+        } finally {
+            PermitPool.leave( pool );
+        }
+    }
+
+    @Test
+    public void unusedPoolsAreRemoved() {
+        PermitPool.Pool first = PermitPool.join( "node gone", 1 );
+        PermitPool.Pool second = PermitPool.join( "node gone", 1 );
+        PermitPool.leave( first );
+        assertNotNull( PermitPool.get( "node gone" ) );
+        PermitPool.leave( second );
+        assertNull( PermitPool.get( "node gone" ) );
+
+        //Asking again starts over with the configured size
+        PermitPool.Pool fresh = PermitPool.join( "node gone", 4 );
+        try {
+            assertEquals( 4, fresh.availablePermits() );
+        } finally {
+            PermitPool.leave( fresh );
+        }
+    }
+}
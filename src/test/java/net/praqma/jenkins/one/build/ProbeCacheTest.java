@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the timeout path of {@link ProbeCache}, the way {@link OneBuilder} uses it: a probe that never finishes must not
+ * keep the caller waiting past the deadline, must be cancelled and evicted, and the last known result must still be there
+ * to fall back to.
+ *
+ * @author Praqma
+ */
+public class ProbeCacheTest {
+
+    private static final long DEADLINE = 300;
+
+    private final ProbeCache cache = ProbeCache.getInstance();
+    private long ttl;
+    private String node;
+
+    @Before
+    public void setUp() {
+        ttl = ProbeCache.TTL;
+        //Results expire right away, so every call after the first runs its loader
+        ProbeCache.TTL = 0;
+        node = "node-" + System.nanoTime();
+    }
+
+    @After
+    public void tearDown() {
+        ProbeCache.TTL = ttl;
+        cache.invalidate( node );
+    }
+
+    @Test
+    public void hangingProbeFallsBackToLastKnownWithinDeadline() throws Exception {
+        ProbeResult known = result( "1.7.0" );
+        assertSame( known, cache.get( node, "java", constant( known ), DEADLINE ) );
+
+        Hanging hanging = new Hanging();
+        long started = System.currentTimeMillis();
+        ProbeResult result;
+        try {
+            cache.get( node, "java", hanging, DEADLINE );
+            fail( "The probe never finishes" );
+            return;
+        } catch( TimeoutException e ) {
+            //What OneBuilder does with fallbackToCache set
+            result = cache.getLastKnown( node, "java" );
+        }
+        long waited = System.currentTimeMillis() - started;
+
+        assertSame( known, result );
+        assertTrue( "Waited " + waited + " ms", waited < DEADLINE + 1000 );
+        assertTrue( "The probe must be cancelled", hanging.interrupted.await( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void timedOutProbeIsEvicted() throws Exception {
+        try {
+            cache.get( node, "java", new Hanging(), DEADLINE );
+            fail( "The probe never finishes" );
+        } catch( TimeoutException e ) {
+            //Expected
+        }
+
+        //A new probe is started, rather than waiting for the hanging one again
+        ProbeResult fresh = result( "1.8.0" );
+        long started = System.currentTimeMillis();
+        assertSame( fresh, cache.get( node, "java", constant( fresh ), DEADLINE ) );
+        assertTrue( System.currentTimeMillis() - started < DEADLINE );
+    }
+
+    @Test
+    public void callersSharingAHangingProbeAllTimeOut() throws Exception {
+        final Hanging hanging = new Hanging();
+        final CountDownLatch second = new CountDownLatch( 1 );
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.get( node, "java", constant( result( "other" ) ), 0 );
+                } catch( TimeoutException e ) {
+                    second.countDown();
+                } catch( Exception e ) {
+                    //Counted as a failure below
+                }
+            }
+        };
+
+        try {
+            //The first caller starts the probe, the other waits for the same one without a deadline of its own
+            Thread first = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        cache.get( node, "java", hanging, DEADLINE );
+                    } catch( Exception e ) {
+                        //Expected to time out
+                    }
+                }
+            };
+            first.start();
+            assertTrue( hanging.started.await( 5, TimeUnit.SECONDS ) );
+            other.start();
+            first.join( 5000 );
+            assertTrue( "A caller without a deadline must not wait for a cancelled probe", second.await( 5, TimeUnit.SECONDS ) );
+            assertEquals( 0, hanging.interrupted.getCount() );
+        } finally {
+            other.interrupt();
+        }
+    }
+
+    private static ProbeResult result( String version ) {
+        return new ProbeResult( "Linux", version, Collections.<String, String>emptyMap() );
+    }
+
+    private static Callable<ProbeResult> constant( final ProbeResult result ) {
+        return new Callable<ProbeResult>() {
+            public ProbeResult call() {
+                return result;
+            }
+        };
+    }
+
+    /**
+     * A probe that never finishes, unless it is interrupted
+     */
+    private static class Hanging implements Callable<ProbeResult> {
+        private final CountDownLatch started = new CountDownLatch( 1 );
+        private final CountDownLatch interrupted = new CountDownLatch( 1 );
+
+        public ProbeResult call() throws Exception {
+            started.countDown();
+            try {
+                new CountDownLatch( 1 ).await();
+            } catch( InterruptedException e ) {
+                interrupted.countDown();
+                throw e;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the processes of a step from a made up /proc with {@link ProcessProfiler.Sample}: the files of a process, the
+ * scan for the cookie and the walk down the tree of the processes found before.
+ *
+ * @author Praqma
+ */
+public class ProcessProfilerTest {
+
+    private static final String COOKIE = "1234";
+
+    private File proc;
+
+    @Before
+    public void createProc() throws IOException {
+        proc = File.createTempFile( "one-proc", "" );
+        assertTrue( proc.delete() && proc.mkdir() );
+        write( "self/stat", "1 (java) S 0" );
+    }
+
+    @After
+    public void deleteProc() {
+        delete( proc );
+    }
+
+    private static void delete( File file ) {
+        File[] files = file.listFiles();
+        if( files != null ) {
+            for( File f : files ) {
+                delete( f );
+            }
+        }
+        file.delete();
+    }
+
+    private void write( String path, String contents ) throws IOException {
+        File file = new File( proc, path );
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream( file );
+        try {
+            out.write( contents.getBytes( "UTF-8" ) );
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Adds a process with a single thread, which has the given children. No children file is written if children is
+     * null.
+     */
+    private void process( int pid, int parent, boolean cookie, int[] children ) throws IOException {
+        write( pid + "/stat", pid + " (sh) S " + parent + " 1 1 0 -1 4194304 100 0 0 0 " + pid + " 2 0 0 20 0 1 0" );
+        write( pid + "/status", "Name:\tsh\nVmHWM:\t    2048 kB\nVmRSS:\t    1024 kB\n" );
+        write( pid + "/environ", "PATH=/bin\0" + ( cookie ? ProcessProfiler.COOKIE + "=" + COOKIE + "\0" : "" ) );
+        if( children != null ) {
+            StringBuilder sb = new StringBuilder();
+            for( int child : children ) {
+                sb.append( child ).append( ' ' );
+            }
+            write( pid + "/task/" + pid + "/children", sb.toString() );
+        }
+    }
+
+    private Map<Integer, long[]> sample( int... known ) throws IOException {
+        return new ProcessProfiler.Sample( proc, COOKIE, known ).call();
+    }
+
+    private static byte[] bytes( String s ) throws IOException {
+        return s.getBytes( "UTF-8" );
+    }
+
+    @Test
+    public void readsTheUsageOfAProcess() throws IOException {
+        write( "42/stat", "42 (my (odd) cmd) R 1 42 42 0 -1 4194304 100 0 0 0 250 50 0 0 20 0 1 0" );
+        write( "42/status", "Name:\tmy (odd) cmd\nVmPeak:\t   99999 kB\nVmHWM:\t    4096 kB\nVmRSS:\t    3072 kB\n" );
+        write( "42/io", "rchar: 1\nwchar: 2\nread_bytes: 8192\nwrite_bytes: 512\n" );
+
+        long[] values = ProcessProfiler.Sample.read( new File( proc, "42" ) );
+
+        assertEquals( 300, values[ProcessProfiler.CPU] );
+        assertEquals( 3072 * 1024, values[ProcessProfiler.RSS] );
+        assertEquals( 4096 * 1024, values[ProcessProfiler.HWM] );
+        assertEquals( 8192, values[ProcessProfiler.READ] );
+        assertEquals( 512, values[ProcessProfiler.WRITE] );
+    }
+
+    @Test
+    public void aMissingIoFileIsNoBytes() throws IOException {
+        process( 7, 1, true, null );
+
+        long[] values = ProcessProfiler.Sample.read( new File( proc, "7" ) );
+
+        assertEquals( 9, values[ProcessProfiler.CPU] );
+        assertEquals( 0, values[ProcessProfiler.READ] );
+        assertEquals( 0, values[ProcessProfiler.WRITE] );
+    }
+
+    @Test
+    public void onlyTheWholeVariableMatches() throws IOException {
+        byte[] marker = bytes( "ID=12" );
+
+        assertTrue( ProcessProfiler.Sample.contains( bytes( "A=1\0ID=12\0B=2\0" ), marker ) );
+        assertTrue( ProcessProfiler.Sample.contains( bytes( "A=1\0ID=12" ), marker ) );
+        assertFalse( ProcessProfiler.Sample.contains( bytes( "A=1\0ID=123\0" ), marker ) );
+        assertFalse( ProcessProfiler.Sample.contains( bytes( "XID=12\0" ), marker ) );
+        assertFalse( ProcessProfiler.Sample.contains( bytes( "A=ID=12\0" ), marker ) );
+        assertFalse( ProcessProfiler.Sample.contains( new byte[0], marker ) );
+    }
+
+    @Test
+    public void withoutProcThereIsNoSample() throws IOException {
+        assertTrue( new File( proc, "self/stat" ).delete() );
+
+        assertNull( sample() );
+    }
+
+    @Test
+    public void scansAllProcessesUntilTheStepIsFound() throws IOException {
+        process( 10, 1, true, new int[0] );
+        process( 11, 1, false, new int[0] );
+        process( 12, 1, true, new int[0] );
+
+        assertEquals( Arrays.asList( 10, 12 ), sorted( sample() ) );
+    }
+
+    @Test
+    public void followsTheTreeOfTheKnownProcesses() throws IOException {
+        process( 10, 1, true, new int[] { 20 } );
+        process( 20, 10, true, new int[] { 30 } );
+        process( 30, 20, true, new int[0] );
+        //Has the cookie, but is not below a known process, so it isn't looked at
+        process( 40, 1, true, new int[0] );
+
+        assertEquals( Arrays.asList( 10, 20, 30 ), sorted( sample( 10 ) ) );
+    }
+
+    @Test
+    public void knownPidsWithoutTheCookieAreSkipped() throws IOException {
+        //The pid was reused by another process
+        process( 10, 1, false, new int[] { 20 } );
+        process( 20, 10, true, new int[0] );
+        process( 30, 1, true, new int[0] );
+
+        assertEquals( Arrays.asList( 30 ), sorted( sample( 10, 30 ) ) );
+    }
+
+    @Test
+    public void goneProcessesAreSkipped() throws IOException {
+        process( 10, 1, true, new int[] { 20 } );
+
+        assertEquals( Arrays.asList( 10 ), sorted( sample( 10, 99 ) ) );
+    }
+
+    @Test
+    public void usesTheParentsWithoutChildrenFiles() throws IOException {
+        process( 10, 1, true, null );
+        process( 20, 10, true, null );
+        process( 30, 20, true, null );
+        process( 40, 1, true, null );
+
+        assertEquals( Arrays.asList( 10, 20, 30 ), sorted( sample( 10 ) ) );
+        assertEquals( Arrays.asList( 20 ), ProcessProfiler.Sample.parents( proc ).get( 10 ) );
+    }
+
+    private static List<Integer> sorted( Map<Integer, long[]> sample ) {
+        Integer[] pids = sample.keySet().toArray( new Integer[sample.size()] );
+        Arrays.sort( pids );
+        return Arrays.asList( pids );
+    }
+}
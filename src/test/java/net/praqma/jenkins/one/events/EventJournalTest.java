@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import hudson.model.Result;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes events to an {@link EventJournal} with small segments, and checks what is read back and what is kept.
+ *
+ * @author Praqma
+ */
+public class EventJournalTest {
+
+    /**
+     * Room for a handful of events
+     */
+    private static final int SEGMENT_SIZE = 256;
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = File.createTempFile( "one-journal", "" );
+        assertTrue( dir.delete() );
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if( files != null ) {
+            for( File file : files ) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static RunEvent event( int number, long time ) {
+        return new RunEvent( RunEvent.Type.COMPLETED, time, "job", number, "node", Result.SUCCESS, 10 );
+    }
+
+    private static void write( EventJournal journal, int from, int to, long time ) throws IOException {
+        for( int i = from ; i <= to ; i++ ) {
+            journal.write( Collections.singletonList( event( i, time ) ) );
+        }
+    }
+
+    private static void assertNumbers( int from, int to, List<RunEvent> events ) {
+        assertEquals( to - from + 1, events.size() );
+        for( int i = 0 ; i < events.size() ; i++ ) {
+            assertEquals( from + i, events.get( i ).number );
+        }
+    }
+
+    @Test
+    public void eventsRoundTrip() throws IOException {
+        EventJournal journal = new EventJournal( dir, SEGMENT_SIZE, 0, 0 );
+        RunEvent started = new RunEvent( RunEvent.Type.STARTED, 1000, "folder/job", 1, null, null, 0 );
+        RunEvent completed = new RunEvent( RunEvent.Type.COMPLETED, 2000, "folder/job", 1, "agent", Result.UNSTABLE, 1000 );
+        journal.write( Arrays.asList( started, completed ) );
+
+        List<RunEvent> events = journal.query( 0, Long.MAX_VALUE, 10 );
+        assertEquals( 2, events.size() );
+        RunEvent read = events.get( 0 );
+        assertEquals( RunEvent.Type.STARTED, read.type );
+        assertEquals( 1000, read.time );
+        assertEquals( "folder/job", read.job );
+        assertNull( read.node );
+        assertNull( read.result );
+        read = events.get( 1 );
+        assertEquals( "agent", read.node );
+        assertEquals( Result.UNSTABLE, read.result );
+        assertEquals( 1000, read.duration );
+
+        assertEquals( 1, journal.query( 1500, 2500, 10 ).size() );
+        assertEquals( 1, journal.query( 0, Long.MAX_VALUE, 1 ).size() );
+    }
+
+    @Test
+    public void reopenedJournalGoesOnAfterTheLastEvent() throws IOException {
+        long now = System.currentTimeMillis();
+        write( new EventJournal( dir, SEGMENT_SIZE, 0, 0 ), 1, 12, now );
+        EventJournal reopened = new EventJournal( dir, SEGMENT_SIZE, 0, 0 );
+        write( reopened, 13, 20, now );
+
+        assertNumbers( 1, 20, reopened.query( 0, Long.MAX_VALUE, 100 ) );
+    }
+
+    @Test
+    public void onlyTheNewestSegmentsAreKept() throws IOException {
+        EventJournal journal = new EventJournal( dir, SEGMENT_SIZE, 3, 0 );
+        write( journal, 1, 100, System.currentTimeMillis() );
+
+        assertEquals( 3, dir.listFiles().length );
+        List<RunEvent> events = journal.query( 0, Long.MAX_VALUE, 1000 );
+        assertTrue( events.size() < 100 );
+        assertNumbers( 100 - events.size() + 1, 100, events );
+    }
+
+    @Test
+    public void oldSegmentsAreDeleted() throws IOException {
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.DAYS.toMillis( 2 );
+        EventJournal journal = new EventJournal( dir, SEGMENT_SIZE, 0, TimeUnit.DAYS.toMillis( 1 ) );
+        write( journal, 1, 50, old );
+        write( journal, 51, 100, now );
+
+        //At most the segment where the old events end is left of them
+        List<RunEvent> events = journal.query( 0, Long.MAX_VALUE, 1000 );
+        int oldLeft = 0;
+        for( RunEvent event : events ) {
+            if( event.time == old ) {
+                oldLeft++;
+            }
+        }
+        assertTrue( oldLeft < 10 );
+        assertFalse( new File( dir, "journal-0000000001.seg" ).exists() );
+        assertNumbers( 50 - oldLeft + 1, 100, events );
+    }
+
+    @Test
+    public void scansSeeTheSameSegmentsRepeatedly() throws IOException {
+        EventJournal journal = new EventJournal( dir, SEGMENT_SIZE, 0, 0 );
+        write( journal, 1, 30, System.currentTimeMillis() );
+        for( int i = 0 ; i < 100 ; i++ ) {
+            assertNumbers( 1, 30, journal.query( 0, Long.MAX_VALUE, 1000 ) );
+        }
+        write( journal, 31, 35, System.currentTimeMillis() );
+        assertNumbers( 1, 35, journal.query( 0, Long.MAX_VALUE, 1000 ) );
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import hudson.model.Result;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Publishes events to an {@link EventPipeline} and checks that they all reach the sink, that idle consumers wait
+ * rather than poll, and that nothing is started without sinks.
+ *
+ * @author Praqma
+ */
+public class EventPipelineTest {
+
+    private static final String CONSUMER = "One event pipeline consumer";
+
+    /**
+     * Counts the events written, and opens a latch once it has seen the expected number
+     */
+    private static class CountingSink implements EventSink {
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile CountDownLatch latch;
+
+        private CountingSink( int expected ) {
+            expect( expected );
+        }
+
+        private void expect( int expected ) {
+            latch = new CountDownLatch( expected );
+        }
+
+        public void write( List<RunEvent> events ) throws IOException {
+            count.addAndGet( events.size() );
+            for( int i = 0 ; i < events.size() ; i++ ) {
+                latch.countDown();
+            }
+        }
+    }
+
+    private static RunEvent event( int number ) {
+        return new RunEvent( RunEvent.Type.COMPLETED, System.currentTimeMillis(), "job", number, "master", Result.SUCCESS, 1 );
+    }
+
+    @Test
+    public void nothingIsStartedWithoutSinks() {
+        EventPipeline pipeline = new EventPipeline( Collections.<EventSink>emptyList(), 16, 2, EventPipeline.Policy.DROP, 1 );
+
+        assertFalse( pipeline.isEnabled() );
+        assertFalse( pipeline.publish( event( 1 ) ) );
+        assertFalse( pipeline.isStarted() );
+        assertEquals( 0, pipeline.getPublished() );
+    }
+
+    @Test
+    public void blockedProducersLoseNothing() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 20000;
+        CountingSink sink = new CountingSink( threads * perThread );
+        //A small buffer, so producers keep running into a full one
+        final EventPipeline pipeline = new EventPipeline( Collections.<EventSink>singletonList( sink ), 16, 2, EventPipeline.Policy.BLOCK, 1 );
+
+        Thread[] producers = new Thread[threads];
+        for( int t = 0 ; t < threads ; t++ ) {
+            producers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for( int i = 0 ; i < perThread ; i++ ) {
+                        pipeline.publish( event( i ) );
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for( Thread producer : producers ) {
+            producer.join();
+        }
+
+        assertTrue( sink.latch.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( threads * perThread, sink.count.get() );
+        assertEquals( threads * perThread, pipeline.getDelivered() );
+        assertEquals( 0, pipeline.getDropped() );
+    }
+
+    @Test
+    public void idleConsumersWaitUntilWokenUp() throws InterruptedException {
+        CountingSink sink = new CountingSink( 1 );
+        EventPipeline pipeline = new EventPipeline( Collections.<EventSink>singletonList( sink ), 16, 1, EventPipeline.Policy.DROP, 1 );
+        assertTrue( pipeline.publish( event( 1 ) ) );
+        assertTrue( pipeline.isStarted() );
+        assertTrue( sink.latch.await( 5, TimeUnit.SECONDS ) );
+
+        //Idle consumers wait without a timeout, they don't wake up to look
+        long deadline = System.currentTimeMillis() + 5000;
+        while( !allConsumersWaiting() ) {
+            assertTrue( "The consumers never went idle", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+        Thread.sleep( 100 );
+        assertTrue( allConsumersWaiting() );
+
+        //And the next event wakes them up
+        sink.expect( 1 );
+        assertTrue( pipeline.publish( event( 2 ) ) );
+        assertTrue( sink.latch.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 2, sink.count.get() );
+    }
+
+    private static boolean allConsumersWaiting() {
+        for( Thread thread : Thread.getAllStackTraces().keySet() ) {
+            if( thread.getName().startsWith( CONSUMER ) && thread.getState() != Thread.State.WAITING ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the order and bounds of a {@link RingBuffer}, and that concurrent producers and consumers neither lose nor
+ * duplicate elements.
+ *
+ * @author Praqma
+ */
+public class RingBufferTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int PER_PRODUCER = 100000;
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals( 1024, new RingBuffer<Integer>( 1000 ).capacity() );
+        assertEquals( 8, new RingBuffer<Integer>( 8 ).capacity() );
+        assertEquals( 1, new RingBuffer<Integer>( 1 ).capacity() );
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 4 );
+        for( int i = 0 ; i < 4 ; i++ ) {
+            assertTrue( buffer.offer( i ) );
+        }
+        assertFalse( buffer.offer( 4 ) );
+        assertEquals( 4, buffer.size() );
+
+        assertEquals( Integer.valueOf( 0 ), buffer.poll() );
+        assertTrue( buffer.offer( 4 ) );
+        assertFalse( buffer.offer( 5 ) );
+    }
+
+    @Test
+    public void elementsComeOutInOrderOverManyLaps() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 8 );
+        int next = 0;
+        for( int i = 0 ; i < 1000 ; i++ ) {
+            //Fill a varying part of the buffer, then empty it
+            int n = i % 8 + 1;
+            for( int j = 0 ; j < n ; j++ ) {
+                assertTrue( buffer.offer( next + j ) );
+            }
+            for( int j = 0 ; j < n ; j++ ) {
+                assertEquals( Integer.valueOf( next++ ), buffer.poll() );
+            }
+            assertNull( buffer.poll() );
+            assertEquals( 0, buffer.size() );
+        }
+    }
+
+    @Test
+    public void drainToMovesAtMostMax() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 16 );
+        for( int i = 0 ; i < 10 ; i++ ) {
+            buffer.offer( i );
+        }
+        List<Integer> list = new ArrayList<Integer>();
+        assertEquals( 4, buffer.drainTo( list, 4 ) );
+        assertEquals( 6, buffer.drainTo( list, 100 ) );
+        assertEquals( 0, buffer.drainTo( list, 100 ) );
+        for( int i = 0 ; i < 10 ; i++ ) {
+            assertEquals( Integer.valueOf( i ), list.get( i ) );
+        }
+    }
+
+    @Test
+    public void concurrentProducersAndConsumersLoseAndDuplicateNothing() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>( 64 );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicInteger taken = new AtomicInteger();
+        final int total = PRODUCERS * PER_PRODUCER;
+        ExecutorService executor = Executors.newFixedThreadPool( PRODUCERS + CONSUMERS );
+        try {
+            for( int p = 0 ; p < PRODUCERS ; p++ ) {
+                final int producer = p;
+                executor.submit( new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for( int i = 0 ; i < PER_PRODUCER ; i++ ) {
+                            //Element values encode the producer and its sequence
+                            Integer element = producer * PER_PRODUCER + i;
+                            while( !buffer.offer( element ) ) {
+                                Thread.yield();
+                            }
+                        }
+                        return null;
+                    }
+                } );
+            }
+            List<Future<List<Integer>>> consumers = new ArrayList<Future<List<Integer>>>();
+            for( int c = 0 ; c < CONSUMERS ; c++ ) {
+                consumers.add( executor.submit( new Callable<List<Integer>>() {
+                    public List<Integer> call() throws Exception {
+                        start.await();
+                        List<Integer> seen = new ArrayList<Integer>();
+                        while( taken.get() < total ) {
+                            Integer element = buffer.poll();
+                            if( element == null ) {
+                                Thread.yield();
+                            } else {
+                                seen.add( element );
+                                taken.incrementAndGet();
+                            }
+                        }
+                        return seen;
+                    }
+                } ) );
+            }
+            start.countDown();
+
+            boolean[] found = new boolean[total];
+            int count = 0;
+            for( Future<List<Integer>> consumer : consumers ) {
+                int[] last = new int[PRODUCERS];
+                Arrays.fill( last, -1 );
+                for( Integer element : consumer.get() ) {
+                    assertFalse( "Taken twice: " + element, found[element] );
+                    found[element] = true;
+                    count++;
+
+                    //Each consumer sees the elements of a producer in the order they were added
+                    int producer = element / PER_PRODUCER;
+                    assertTrue( element % PER_PRODUCER > last[producer] );
+                    last[producer] = element % PER_PRODUCER;
+                }
+            }
+            assertEquals( total, count );
+            assertNull( buffer.poll() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import hudson.model.Result;
+import java.io.IOException;
+import java.io.StringWriter;
+import net.praqma.jenkins.one.util.JsonWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the series of jobs left out by a {@link BuildMetrics.JobFilter} are not written, while those of the
+ * nodes are.
+ *
+ * @author Praqma
+ */
+public class BuildMetricsTest {
+
+    private static final BuildMetrics.JobFilter PUBLIC_ONLY = new BuildMetrics.JobFilter() {
+        public boolean accept( String job ) {
+            return job.startsWith( "public" );
+        }
+    };
+
+    private static BuildMetrics metrics() {
+        BuildMetrics metrics = new BuildMetrics();
+        metrics.started( "public-job", "node-a", 100 );
+        metrics.completed( "public-job", "node-a", Result.SUCCESS, 1000 );
+        metrics.started( "secret-job", "node-b", 100 );
+        metrics.completed( "secret-job", "node-b", Result.FAILURE, 1000 );
+        return metrics;
+    }
+
+    @Test
+    public void prometheusLeavesOutFilteredJobs() throws IOException {
+        StringWriter out = new StringWriter();
+        metrics().writePrometheus( out, PUBLIC_ONLY );
+        String text = out.toString();
+
+        assertTrue( text.contains( "job=\"public-job\"" ) );
+        assertFalse( text.contains( "secret-job" ) );
+        assertTrue( text.contains( "node=\"node-b\"" ) );
+    }
+
+    @Test
+    public void jsonLeavesOutFilteredJobs() throws IOException {
+        StringWriter out = new StringWriter();
+        metrics().writeJson( new JsonWriter( out ), PUBLIC_ONLY );
+        String text = out.toString();
+
+        assertTrue( text.contains( "\"public-job\"" ) );
+        assertFalse( text.contains( "secret-job" ) );
+        assertTrue( text.contains( "\"node-b\"" ) );
+    }
+
+    @Test
+    public void allJobsAreWrittenWithoutAFilter() throws IOException {
+        StringWriter out = new StringWriter();
+        metrics().writePrometheus( out, BuildMetrics.ALL_JOBS );
+
+        assertTrue( out.toString().contains( "job=\"secret-job\"" ) );
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Records into a {@link Histogram} from many threads at once, and checks the buckets and the sum.
+ *
+ * @author Praqma
+ */
+public class HistogramTest {
+
+    private static final long[] BOUNDS = { 10, 100, 1000 };
+
+    private static final int THREADS = 16;
+    private static final int RECORDS = 50000;
+
+    @Test
+    public void boundsAreInclusive() {
+        Histogram histogram = new Histogram( BOUNDS );
+        for( long value : new long[] { 0, 10, 11, 100, 101, 1000, 1001, 5000 } ) {
+            histogram.record( value );
+        }
+        assertArrayEquals( new long[] { 2, 2, 2, 2 }, histogram.getCounts() );
+        assertEquals( 0 + 10 + 11 + 100 + 101 + 1000 + 1001 + 5000, histogram.getSum() );
+    }
+
+    @Test
+    public void boundsAreCopied() {
+        long[] bounds = BOUNDS.clone();
+        Histogram histogram = new Histogram( bounds );
+        bounds[0] = 5000;
+        histogram.getBounds()[1] = 5000;
+        assertArrayEquals( BOUNDS, histogram.getBounds() );
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final Histogram histogram = new Histogram( BOUNDS );
+        //Each thread records the same values, one in each bucket in turn
+        final long[] values = { 5, 50, 500, 5000 };
+        StripedCounterTest.runConcurrently( THREADS, new Runnable() {
+            public void run() {
+                for( int i = 0 ; i < RECORDS ; i++ ) {
+                    histogram.record( values[i % values.length] );
+                }
+            }
+        } );
+
+        long[] expected = new long[values.length];
+        long sum = 0;
+        for( int i = 0 ; i < RECORDS ; i++ ) {
+            expected[i % values.length] += THREADS;
+            sum += values[i % values.length];
+        }
+        assertEquals( Arrays.toString( expected ), Arrays.toString( histogram.getCounts() ) );
+        assertEquals( THREADS * sum, histogram.getSum() );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.metrics;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adds to a {@link StripedCounter} from many threads at once, and checks that nothing is lost.
+ *
+ * @author Praqma
+ */
+public class StripedCounterTest {
+
+    private static final int THREADS = 16;
+    private static final int ADDS = 100000;
+
+    /**
+     * Starts the given number of threads, all running the task at the same time, and waits for them to finish.
+     */
+    static void runConcurrently( int threads, final Runnable task ) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] workers = new Thread[threads];
+        for( int i = 0 ; i < threads ; i++ ) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch( InterruptedException e ) {
+                        return;
+                    }
+                    task.run();
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for( Thread worker : workers ) {
+            worker.join();
+        }
+    }
+
+    @Test
+    public void startsAtZero() {
+        assertEquals( 0, new StripedCounter().sum() );
+    }
+
+    @Test
+    public void concurrentIncrementsAreAllCounted() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        runConcurrently( THREADS, new Runnable() {
+            public void run() {
+                for( int i = 0 ; i < ADDS ; i++ ) {
+                    counter.increment();
+                }
+            }
+        } );
+        assertEquals( (long) THREADS * ADDS, counter.sum() );
+    }
+
+    @Test
+    public void concurrentAddsAreAllCounted() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        runConcurrently( THREADS, new Runnable() {
+            public void run() {
+                for( int i = 0 ; i < ADDS ; i++ ) {
+                    counter.add( i % 7 - 3 );
+                }
+            }
+        } );
+        long perThread = 0;
+        for( int i = 0 ; i < ADDS ; i++ ) {
+            perThread += i % 7 - 3;
+        }
+        assertEquals( THREADS * perThread, counter.sum() );
+    }
+
+    @Test
+    public void stripesArePowerOfTwoAndCoverTheProcessors() {
+        assertEquals( 0, StripedCounter.STRIPES & ( StripedCounter.STRIPES - 1 ) );
+        assertTrue( StripedCounter.STRIPES >= Runtime.getRuntime().availableProcessors() );
+        int stripe = StripedCounter.stripe();
+        assertTrue( stripe >= 0 && stripe < StripedCounter.STRIPES );
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.postbuild;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link PatternMatcher}, both literals and regular expressions, required and forbidden.
+ *
+ * @author Praqma
+ */
+public class PatternMatcherTest {
+
+    @Test
+    public void allRequiredLiteralsMatch() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "he\nshe\nhers", null ).newScan();
+        scan.text( "ushers" );
+        assertTrue( scan.isSatisfied() );
+        assertTrue( scan.isDecided() );
+        assertEquals( Collections.emptyList(), scan.getMissing() );
+    }
+
+    @Test
+    public void missingRequiredPatternsAreReported() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "alpha\nbeta\n/gam+a/", null ).newScan();
+        scan.text( "alpha and gammma" );
+        assertFalse( scan.isSatisfied() );
+        assertFalse( scan.isDecided() );
+        assertEquals( Arrays.asList( "beta" ), scan.getMissing() );
+    }
+
+    @Test
+    public void forbiddenPatternDecidesTheScan() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "ok", "/ERROR \\d+/" ).newScan();
+        scan.text( "ok" );
+        assertFalse( "Forbidden patterns may still match", scan.isDecided() );
+        scan.text( "ERROR 42 happened" );
+        assertTrue( scan.isDecided() );
+        assertFalse( scan.isSatisfied() );
+        assertEquals( "/ERROR \\d+/", scan.getForbiddenMatch() );
+    }
+
+    @Test
+    public void literalsMatchAcrossChunks() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "BUILD SUCCESS", null ).newScan();
+        String text = "[INFO] BUILD SUCCESS";
+        scan.chars( text, 0, 10 );
+        assertFalse( scan.isSatisfied() );
+        scan.chars( text, 10, text.length() );
+        assertTrue( scan.isSatisfied() );
+    }
+
+    @Test
+    public void literalsDontMatchAcrossTexts() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "abc", null ).newScan();
+        scan.text( "xab" );
+        scan.text( "cx" );
+        assertFalse( scan.isSatisfied() );
+    }
+
+    @Test
+    public void failureLinksFindOverlappingLiterals() {
+        PatternMatcher.Scan scan = PatternMatcher.compile( "abcd\nbcx", null ).newScan();
+        scan.text( "abcx" );
+        assertEquals( Arrays.asList( "abcd" ), scan.getMissing() );
+    }
+
+    @Test
+    public void blankLinesAreIgnored() {
+        PatternMatcher matcher = PatternMatcher.compile( "\n  \r\n", null );
+        assertTrue( matcher.isEmpty() );
+        assertFalse( matcher.hasRegexes() );
+        assertNull( matcher.newScan().getForbiddenMatch() );
+    }
+
+    @Test( expected = java.util.regex.PatternSyntaxException.class )
+    public void invalidRegexIsRejected() {
+        PatternMatcher.compile( "/[/", null );
+    }
+}
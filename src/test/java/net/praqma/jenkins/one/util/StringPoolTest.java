@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Praqma.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.praqma.jenkins.one.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of {@link StringPool}: equal values share one instance, and the pool only holds one entry per distinct value.
+ *
+ * Whether unused values are dropped is up to the garbage collector, so that is not tested.
+ *
+ * @author Praqma
+ */
+public class StringPoolTest {
+
+    private static final int COPIES = 1000;
+
+    @Before
+    @After
+    public void clear() {
+        StringPool.clear();
+    }
+
+    @Test
+    public void equalValuesShareOneInstance() {
+        String a = new String( "Linux" );
+        String b = new String( "Linux" );
+        assertNotSame( a, b );
+        assertSame( StringPool.intern( a ), StringPool.intern( b ) );
+        assertNull( StringPool.intern( null ) );
+    }
+
+    @Test
+    public void theFirstInstanceIsKept() {
+        String first = new String( "java version \"1.7.0_80\"" );
+        assertSame( first, StringPool.intern( first ) );
+        assertSame( first, StringPool.intern( new String( "java version \"1.7.0_80\"" ) ) );
+    }
+
+    @Test
+    public void copiesTakeOneEntry() {
+        String version = "java version \"1.7.0_80\" Java(TM) SE Runtime Environment (build 1.7.0_80-b15)";
+
+        List<String> interned = new ArrayList<String>( COPIES );
+        for( int i = 0 ; i < COPIES ; i++ ) {
+            interned.add( StringPool.intern( new String( version.toCharArray() ) ) );
+        }
+
+        for( String value : interned ) {
+            assertSame( interned.get( 0 ), value );
+        }
+        assertEquals( 1, StringPool.size() );
+    }
+
+    @Test
+    public void distinctValuesTakeAnEntryEach() {
+        List<String> interned = new ArrayList<String>();
+        for( int i = 0 ; i < 100 ; i++ ) {
+            interned.add( StringPool.intern( "node-" + i ) );
+            interned.add( StringPool.intern( "node-" + i ) );
+        }
+
+        assertEquals( 100, StringPool.size() );
+        assertEquals( 200, interned.size() );
+    }
+
+    @Test
+    public void clearedValuesAreNoLongerShared() {
+        String before = StringPool.intern( new String( "Windows 7" ) );
+        StringPool.clear();
+        assertEquals( 0, StringPool.size() );
+
+        String after = new String( "Windows 7" );
+        assertSame( after, StringPool.intern( after ) );
+        assertNotSame( before, after );
+        assertEquals( 1, StringPool.size() );
+    }
+}